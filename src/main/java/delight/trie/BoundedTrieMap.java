@@ -0,0 +1,818 @@
+package delight.trie;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleLock;
+
+/**
+ * A trie map with a maximum weight, for instance to cache resolved routes by
+ * their path. When the maximum is exceeded entries are evicted according to
+ * an {@link Eviction} policy.<br/>
+ * The recency and frequency of each entry is kept in the slot stored as its
+ * value in the trie, linked into the lists of the policy. No further map per
+ * entry is needed. Evicting an entry removes it from the trie, which detaches
+ * branches that no longer lead to any entry.<br/>
+ * Lookups take no locks. They record the access in one of a few small read
+ * buffers, chosen by the key, which are applied to the policy by the next
+ * write. A reader which finds its buffer full applies the buffers itself
+ * unless another thread holds the lock, in which case the access is dropped:
+ * the policy only needs an approximate picture of the reads. Writes hold a
+ * single lock.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public class BoundedTrieMap<Value> {
+
+	/**
+	 * The policies choosing which entry to evict.
+	 */
+	public enum Eviction {
+		/** Evicts the least recently used entry. */
+		LRU,
+		/** Evicts the least frequently used entry, the least recent first. */
+		LFU,
+		/**
+		 * Admits new entries through a small LRU window. Entries leaving the
+		 * window replace entries of the main area only if they were used
+		 * more often, as estimated by a frequency sketch of recent
+		 * accesses.
+		 */
+		TINY_LFU
+	}
+
+	/**
+	 * Determines the weight of an entry.
+	 */
+	public interface Weigher<Value> {
+
+		/**
+		 * @return the weight, at least 0
+		 */
+		public int weigh(String key, Value value);
+	}
+
+	/**
+	 * Notified about evicted entries. Not called for entries which are
+	 * removed or replaced explicitly.
+	 */
+	public interface EvictionListener<Value> {
+
+		public void onEviction(String key, Value value);
+	}
+
+	/** The number of read buffers, a power of two. */
+	private static final int READ_BUFFERS = 4;
+
+	private static final int READ_BUFFER_SIZE = 32;
+
+	private final TrieMap<Slot<Value>> map;
+
+	private final SimpleLock lock;
+
+	private final Policy<Value> policy;
+
+	private final long maximumWeight;
+
+	private final Weigher<Value> weigher;
+
+	private final EvictionListener<Value> listener;
+
+	private final ReadBuffer[] readBuffers;
+
+	/**
+	 * Set while a thread holds the lock, so that readers with a full buffer
+	 * can give up instead of waiting for it.
+	 */
+	private volatile boolean locked;
+
+	private long weight;
+
+	/**
+	 * Creates a map holding at most the given number of entries.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 * @param eviction
+	 *            the eviction policy
+	 * @param maximumSize
+	 *            the maximum number of entries
+	 */
+	public BoundedTrieMap(final Concurrency conn, final Eviction eviction, final long maximumSize) {
+		this(conn, eviction, maximumSize, null, null);
+	}
+
+	/**
+	 * Creates a map holding entries up to the given total weight.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 * @param eviction
+	 *            the eviction policy
+	 * @param maximumWeight
+	 *            the maximum total weight
+	 * @param weigher
+	 *            the weigher or null to count each entry as 1
+	 * @param listener
+	 *            the listener or null
+	 */
+	public BoundedTrieMap(final Concurrency conn, final Eviction eviction, final long maximumWeight,
+			final Weigher<Value> weigher, final EvictionListener<Value> listener) {
+		if (maximumWeight < 0) {
+			throw new IllegalArgumentException("Maximum weight must not be negative but was " + maximumWeight);
+		}
+		this.map = new TrieMap<Slot<Value>>(conn);
+		this.lock = conn.newLock();
+		this.maximumWeight = maximumWeight;
+		this.weigher = weigher;
+		this.listener = listener;
+		this.readBuffers = new ReadBuffer[READ_BUFFERS];
+		for (int i = 0; i < READ_BUFFERS; i++) {
+			readBuffers[i] = new ReadBuffer();
+		}
+		if (eviction == Eviction.LFU) {
+			policy = new LfuPolicy<Value>();
+		} else if (eviction == Eviction.TINY_LFU) {
+			policy = new TinyLfuPolicy<Value>(maximumWeight);
+		} else {
+			policy = new LruPolicy<Value>();
+		}
+	}
+
+	/**
+	 * Gets the value for the key and records the access.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value or null
+	 */
+	public Value get(final String key) {
+		final Slot<Value> slot = map.get(key);
+		access(key, slot);
+		return (slot == null) ? null : slot.value;
+	}
+
+	/**
+	 * Gets the value of the longest key which is a prefix of the given string
+	 * and records the access of that key.
+	 *
+	 * @param prefix
+	 *            the string
+	 * @return the value or null
+	 */
+	public Value getValueForBestMatchingKey(final String prefix) {
+		final Slot<Value> slot = map.getValueForBestMatchingKey(prefix);
+		access((slot == null) ? prefix : slot.key, slot);
+		return (slot == null) ? null : slot.value;
+	}
+
+	/**
+	 * Returns the keys stored below the given prefix without recording any
+	 * access.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the list
+	 */
+	public List<String> getCompletitions(final String prefix) {
+		return map.getCompletitions(prefix);
+	}
+
+	public boolean containsKey(final String key) {
+		return map.get(key) != null;
+	}
+
+	/**
+	 * Associates the value with the key and evicts entries while the maximum
+	 * weight is exceeded. The new entry itself may be evicted if it is heavier
+	 * than the maximum, or if the policy does not admit it.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the previous value or null
+	 */
+	public Value put(final String key, final Value value) {
+		if (key == null || value == null) {
+			throw new NullPointerException("Keys and values must not be null.");
+		}
+		final int slotWeight = (weigher == null) ? 1 : weigher.weigh(key, value);
+		final List<Slot<Value>> evicted;
+		final Value result;
+		acquire();
+		try {
+			drainReads();
+			final Slot<Value> existing = map.get(key);
+			if (existing != null) {
+				result = existing.value;
+				existing.value = value;
+				weight += slotWeight - existing.weight;
+				policy.onUpdate(existing, slotWeight - existing.weight);
+				existing.weight = slotWeight;
+				policy.onAccess(existing);
+			} else {
+				result = null;
+				final Slot<Value> slot = new Slot<Value>(key, value, slotWeight);
+				map.put(key, slot);
+				weight += slotWeight;
+				policy.onAdd(slot);
+			}
+			evicted = evict();
+		} finally {
+			release();
+		}
+		notifyEvicted(evicted);
+		return result;
+	}
+
+	/**
+	 * Removes the entry for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value or null
+	 */
+	public Value remove(final String key) {
+		acquire();
+		try {
+			drainReads();
+			final Slot<Value> slot = map.remove(key);
+			if (slot == null) {
+				return null;
+			}
+			weight -= slot.weight;
+			policy.onRemove(slot);
+			return slot.value;
+		} finally {
+			release();
+		}
+	}
+
+	public void clear() {
+		acquire();
+		try {
+			// buffered reads of the old slots must not reach the new lists
+			for (final Slot<Value> slot : map.values()) {
+				slot.linked = false;
+			}
+			drainReads();
+			map.clear();
+			policy.clear();
+			weight = 0;
+		} finally {
+			release();
+		}
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	/**
+	 * @return the total weight of all entries
+	 */
+	public long weight() {
+		acquire();
+		try {
+			return weight;
+		} finally {
+			release();
+		}
+	}
+
+	private void access(final String key, final Slot<Value> slot) {
+		final Object read = (slot == null) ? key : slot;
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		if (readBuffers[h & (READ_BUFFERS - 1)].offer(read) || locked) {
+			return;
+		}
+		acquire();
+		try {
+			drainReads();
+			apply(read);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Applies the buffered reads to the policy. Called holding the lock.
+	 */
+	private void drainReads() {
+		for (final ReadBuffer buffer : readBuffers) {
+			final int count = Math.min(buffer.writes, READ_BUFFER_SIZE);
+			for (int i = 0; i < count; i++) {
+				final Object read = buffer.reads[i];
+				if (read != null) {
+					buffer.reads[i] = null;
+					apply(read);
+				}
+			}
+			buffer.writes = 0;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void apply(final Object read) {
+		if (read instanceof Slot) {
+			final Slot<Value> slot = (Slot<Value>) read;
+			if (slot.linked) {
+				policy.onAccess(slot);
+			} else {
+				policy.onMiss(slot.key);
+			}
+		} else {
+			policy.onMiss((String) read);
+		}
+	}
+
+	private void acquire() {
+		lock.lock();
+		locked = true;
+	}
+
+	private void release() {
+		locked = false;
+		lock.unlock();
+	}
+
+	private List<Slot<Value>> evict() {
+		List<Slot<Value>> evicted = null;
+		while (weight > maximumWeight) {
+			final Slot<Value> victim = policy.victim();
+			if (victim == null) {
+				break;
+			}
+			map.remove(victim.key);
+			weight -= victim.weight;
+			policy.onRemove(victim);
+			if (listener != null) {
+				if (evicted == null) {
+					evicted = new ArrayList<Slot<Value>>();
+				}
+				evicted.add(victim);
+			}
+		}
+		return evicted;
+	}
+
+	private void notifyEvicted(final List<Slot<Value>> evicted) {
+		if (evicted != null) {
+			// outside the lock so that listeners can use the map
+			for (final Slot<Value> slot : evicted) {
+				listener.onEviction(slot.key, slot.value);
+			}
+		}
+	}
+
+	/**
+	 * Records reads, either the slot found or the key which was missed,
+	 * without a lock. Readers racing for the same position may overwrite
+	 * each other's record, which loses an access but never corrupts the
+	 * policy, since only the drain under the lock applies them.
+	 */
+	private static final class ReadBuffer {
+
+		private final Object[] reads = new Object[READ_BUFFER_SIZE];
+
+		/** The number of positions used, reset by the drain. */
+		private volatile int writes;
+
+		/**
+		 * @return false if the buffer is full
+		 */
+		private boolean offer(final Object read) {
+			final int index = writes;
+			if (index >= READ_BUFFER_SIZE) {
+				return false;
+			}
+			reads[index] = read;
+			writes = index + 1;
+			return true;
+		}
+	}
+
+	/**
+	 * The value stored in the trie for an entry, linked into a list of the
+	 * policy. Guarded by the lock of the map.
+	 */
+	private static final class Slot<Value> {
+
+		private final String key;
+
+		private volatile Value value;
+
+		private int weight;
+
+		private Slot<Value> previous;
+
+		private Slot<Value> next;
+
+		/** False once the entry has been removed. */
+		private volatile boolean linked;
+
+		/** The list of the slot, used by policies with more than one. */
+		private SlotList<Value> list;
+
+		/** The frequency bucket, used by LFU only. */
+		private Bucket<Value> bucket;
+
+		private Slot(final String key, final Value value, final int weight) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * A circular doubly linked list of slots, ordered from the first to be
+	 * evicted to the last.
+	 */
+	private static final class SlotList<Value> {
+
+		private final Slot<Value> sentinel = new Slot<Value>(null, null, 0);
+
+		private long weight;
+
+		private SlotList() {
+			sentinel.previous = sentinel;
+			sentinel.next = sentinel;
+		}
+
+		private void addLast(final Slot<Value> slot) {
+			slot.previous = sentinel.previous;
+			slot.next = sentinel;
+			sentinel.previous.next = slot;
+			sentinel.previous = slot;
+			slot.list = this;
+			weight += slot.weight;
+		}
+
+		private void unlink(final Slot<Value> slot) {
+			slot.previous.next = slot.next;
+			slot.next.previous = slot.previous;
+			slot.previous = null;
+			slot.next = null;
+			slot.list = null;
+			weight -= slot.weight;
+		}
+
+		private void moveToEnd(final Slot<Value> slot) {
+			unlink(slot);
+			addLast(slot);
+		}
+
+		private void moveToEndFrom(final SlotList<Value> from, final Slot<Value> slot) {
+			from.unlink(slot);
+			addLast(slot);
+		}
+
+		private Slot<Value> first() {
+			return (sentinel.next == sentinel) ? null : sentinel.next;
+		}
+
+		private Slot<Value> last() {
+			return (sentinel.previous == sentinel) ? null : sentinel.previous;
+		}
+
+		private boolean isEmpty() {
+			return sentinel.next == sentinel;
+		}
+
+		private void clear() {
+			sentinel.previous = sentinel;
+			sentinel.next = sentinel;
+			weight = 0;
+		}
+	}
+
+	private static abstract class Policy<Value> {
+
+		abstract void onAdd(Slot<Value> slot);
+
+		abstract void onAccess(Slot<Value> slot);
+
+		/**
+		 * Called before the weight of the slot is changed.
+		 */
+		void onUpdate(final Slot<Value> slot, final int delta) {
+			if (slot.list != null) {
+				slot.list.weight += delta;
+			}
+		}
+
+		void onMiss(final String key) {
+		}
+
+		abstract void onRemove(Slot<Value> slot);
+
+		/**
+		 * @return the slot to evict next or null if there are none
+		 */
+		abstract Slot<Value> victim();
+
+		abstract void clear();
+	}
+
+	private static final class LruPolicy<Value> extends Policy<Value> {
+
+		private final SlotList<Value> slots = new SlotList<Value>();
+
+		@Override
+		void onAdd(final Slot<Value> slot) {
+			slots.addLast(slot);
+			slot.linked = true;
+		}
+
+		@Override
+		void onAccess(final Slot<Value> slot) {
+			slots.moveToEnd(slot);
+		}
+
+		@Override
+		void onRemove(final Slot<Value> slot) {
+			slots.unlink(slot);
+			slot.linked = false;
+		}
+
+		@Override
+		Slot<Value> victim() {
+			return slots.first();
+		}
+
+		@Override
+		void clear() {
+			slots.clear();
+		}
+	}
+
+	/**
+	 * The slots with the same number of accesses. Buckets are kept in a list
+	 * in ascending order of their frequency, so that all operations run in
+	 * constant time.
+	 */
+	private static final class Bucket<Value> {
+
+		private final long frequency;
+
+		private final SlotList<Value> slots = new SlotList<Value>();
+
+		private Bucket<Value> previous;
+
+		private Bucket<Value> next;
+
+		private Bucket(final long frequency) {
+			this.frequency = frequency;
+		}
+	}
+
+	private static final class LfuPolicy<Value> extends Policy<Value> {
+
+		private final Bucket<Value> sentinel = new Bucket<Value>(0);
+
+		/** Protected from eviction, it had no chance to be used yet. */
+		private Slot<Value> newest;
+
+		private LfuPolicy() {
+			clear();
+		}
+
+		@Override
+		void onAdd(final Slot<Value> slot) {
+			Bucket<Value> bucket = sentinel.next;
+			if (bucket.frequency != 1) {
+				bucket = insertAfter(sentinel, 1);
+			}
+			bucket.slots.addLast(slot);
+			slot.bucket = bucket;
+			slot.linked = true;
+			newest = slot;
+		}
+
+		@Override
+		void onAccess(final Slot<Value> slot) {
+			final Bucket<Value> current = slot.bucket;
+			Bucket<Value> target = current.next;
+			if (target == sentinel || target.frequency != current.frequency + 1) {
+				target = insertAfter(current, current.frequency + 1);
+			}
+			current.slots.unlink(slot);
+			target.slots.addLast(slot);
+			slot.bucket = target;
+			removeIfEmpty(current);
+		}
+
+		@Override
+		void onRemove(final Slot<Value> slot) {
+			final Bucket<Value> bucket = slot.bucket;
+			bucket.slots.unlink(slot);
+			slot.bucket = null;
+			slot.linked = false;
+			if (slot == newest) {
+				newest = null;
+			}
+			removeIfEmpty(bucket);
+		}
+
+		@Override
+		Slot<Value> victim() {
+			if (sentinel.next == sentinel) {
+				return null;
+			}
+			final Bucket<Value> lowest = sentinel.next;
+			final Slot<Value> first = lowest.slots.first();
+			if (first != newest) {
+				return first;
+			}
+			if (first.next != lowest.slots.sentinel) {
+				return first.next;
+			}
+			return (lowest.next != sentinel) ? lowest.next.slots.first() : first;
+		}
+
+		@Override
+		void clear() {
+			sentinel.previous = sentinel;
+			sentinel.next = sentinel;
+			newest = null;
+		}
+
+		private Bucket<Value> insertAfter(final Bucket<Value> bucket, final long frequency) {
+			final Bucket<Value> inserted = new Bucket<Value>(frequency);
+			inserted.previous = bucket;
+			inserted.next = bucket.next;
+			bucket.next.previous = inserted;
+			bucket.next = inserted;
+			return inserted;
+		}
+
+		private void removeIfEmpty(final Bucket<Value> bucket) {
+			if (bucket.slots.isEmpty()) {
+				bucket.previous.next = bucket.next;
+				bucket.next.previous = bucket.previous;
+			}
+		}
+	}
+
+	private static final class TinyLfuPolicy<Value> extends Policy<Value> {
+
+		private final SlotList<Value> window = new SlotList<Value>();
+
+		private final SlotList<Value> probation = new SlotList<Value>();
+
+		private final SlotList<Value> protectedSlots = new SlotList<Value>();
+
+		private final FrequencySketch sketch;
+
+		private final long windowMaximum;
+
+		private final long protectedMaximum;
+
+		private TinyLfuPolicy(final long maximumWeight) {
+			windowMaximum = Math.max(1, maximumWeight / 100);
+			protectedMaximum = (maximumWeight - windowMaximum) * 8 / 10;
+			sketch = new FrequencySketch(maximumWeight);
+		}
+
+		@Override
+		void onAdd(final Slot<Value> slot) {
+			sketch.increment(slot.key);
+			window.addLast(slot);
+			slot.linked = true;
+		}
+
+		@Override
+		void onAccess(final Slot<Value> slot) {
+			sketch.increment(slot.key);
+			if (slot.list == probation) {
+				// promote entries used again while on probation
+				probation.unlink(slot);
+				protectedSlots.addLast(slot);
+				while (protectedSlots.weight > protectedMaximum && protectedSlots.first() != slot) {
+					probation.moveToEndFrom(protectedSlots, protectedSlots.first());
+				}
+			} else {
+				slot.list.moveToEnd(slot);
+			}
+		}
+
+		@Override
+		void onMiss(final String key) {
+			sketch.increment(key);
+		}
+
+		@Override
+		void onRemove(final Slot<Value> slot) {
+			slot.list.unlink(slot);
+			slot.linked = false;
+		}
+
+		@Override
+		Slot<Value> victim() {
+			// entries leaving the window become candidates for the main area
+			while (window.weight > windowMaximum && window.first() != null) {
+				probation.moveToEndFrom(window, window.first());
+			}
+			final Slot<Value> victim = probation.first();
+			if (victim == null) {
+				final Slot<Value> result = protectedSlots.first();
+				return (result != null) ? result : window.first();
+			}
+			final Slot<Value> candidate = probation.last();
+			if (candidate == victim) {
+				return victim;
+			}
+			return (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) ? victim : candidate;
+		}
+
+		@Override
+		void clear() {
+			window.clear();
+			probation.clear();
+			protectedSlots.clear();
+			sketch.clear();
+		}
+	}
+
+	/**
+	 * Estimates how often keys have been used recently with a count-min
+	 * sketch of small counters. All counters are halved periodically, so
+	 * that old accesses fade out.
+	 */
+	private static final class FrequencySketch {
+
+		private static final int DEPTH = 4;
+
+		private static final int MAXIMUM = 15;
+
+		private static final int[] SEEDS = { 0x97cb3127, 0x5c6b8e9f, 0x7f4a7c15, 0x2545f491 };
+
+		private final int[] table;
+
+		private final int mask;
+
+		private final int sampleSize;
+
+		private int additions;
+
+		private FrequencySketch(final long maximumWeight) {
+			// four counters per row and entry keep collisions rare
+			int width = 64;
+			while (width < 4 * maximumWeight && width < (1 << 22)) {
+				width <<= 1;
+			}
+			table = new int[width * DEPTH];
+			mask = width - 1;
+			sampleSize = 10 * width;
+		}
+
+		private void increment(final String key) {
+			final int hash = key.hashCode();
+			boolean added = false;
+			for (int i = 0; i < DEPTH; i++) {
+				final int index = indexOf(hash, i);
+				if (table[index] < MAXIMUM) {
+					table[index]++;
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] >>>= 1;
+				}
+				additions /= 2;
+			}
+		}
+
+		private int frequency(final String key) {
+			final int hash = key.hashCode();
+			int result = MAXIMUM;
+			for (int i = 0; i < DEPTH; i++) {
+				result = Math.min(result, table[indexOf(hash, i)]);
+			}
+			return result;
+		}
+
+		private void clear() {
+			for (int i = 0; i < table.length; i++) {
+				table[i] = 0;
+			}
+			additions = 0;
+		}
+
+		private int indexOf(final int hash, final int row) {
+			int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+			h ^= h >>> 16;
+			return row * (mask + 1) + (h & mask);
+		}
+	}
+
+}
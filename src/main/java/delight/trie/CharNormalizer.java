@@ -0,0 +1,20 @@
+package delight.trie;
+
+/**
+ * Maps characters of keys to the characters they are stored and looked up
+ * with, for instance to match keys case insensitively.<br/>
+ * Characters are normalized one at a time while walking the trie, so keys do
+ * not need to be copied.
+ * 
+ * @see CharNormalizers
+ */
+public interface CharNormalizer {
+
+	/**
+	 * @param c
+	 *            a character of a key
+	 * @return the character to store or look up
+	 */
+	public char normalize(char c);
+
+}
@@ -0,0 +1,46 @@
+package delight.trie;
+
+/**
+ * Common {@link CharNormalizer}s.
+ */
+public final class CharNormalizers {
+
+	/**
+	 * Keeps all characters as they are.
+	 */
+	public static final CharNormalizer IDENTITY = new CharNormalizer() {
+
+		@Override
+		public char normalize(final char c) {
+			return c;
+		}
+	};
+
+	/**
+	 * Folds the ASCII letters <code>A-Z</code> to lower case, for instance for
+	 * host names and HTTP headers.
+	 */
+	public static final CharNormalizer ASCII_CASE_INSENSITIVE = new CharNormalizer() {
+
+		@Override
+		public char normalize(final char c) {
+			return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+		}
+	};
+
+	/**
+	 * Folds all characters to lower case, as
+	 * {@link String#equalsIgnoreCase(String)} compares them.
+	 */
+	public static final CharNormalizer CASE_INSENSITIVE = new CharNormalizer() {
+
+		@Override
+		public char normalize(final char c) {
+			return Character.toLowerCase(Character.toUpperCase(c));
+		}
+	};
+
+	private CharNormalizers() {
+	}
+
+}
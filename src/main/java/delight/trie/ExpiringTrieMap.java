@@ -0,0 +1,393 @@
+package delight.trie;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleLock;
+import delight.concurrency.wrappers.SimpleTimer;
+
+/**
+ * A trie map whose entries can expire after a time to live, for instance for
+ * sessions or tokens keyed by path-like ids.<br/>
+ * Reads ignore expired entries right away. Expired entries are removed by
+ * {@link #cleanUp()}, which a timer of the {@link Concurrency} calls
+ * periodically. Entries are kept in a hierarchical timer wheel, so a clean up
+ * only visits the entries which are due, in amortized constant time per
+ * entry. Removing expired entries detaches branches which no longer lead to
+ * any entry.<br/>
+ * The current time is read from a {@link Clock}, which tests can replace.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public class ExpiringTrieMap<Value> {
+
+	/**
+	 * The source of the current time in milliseconds.
+	 */
+	public interface Clock {
+
+		public long now();
+	}
+
+	/**
+	 * Reads {@link System#currentTimeMillis()}.
+	 */
+	public static final Clock SYSTEM_CLOCK = new Clock() {
+
+		@Override
+		public long now() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	private static final long NEVER = Long.MAX_VALUE;
+
+	/**
+	 * The bucket of each level spans 2^shift milliseconds, from about a second
+	 * to about a week. Each level covers 64 buckets of the one below.
+	 */
+	private static final int[] SHIFTS = { 10, 16, 22, 28, 34 };
+
+	private static final int BUCKETS = 64;
+
+	private final TrieMap<Slot<Value>> map;
+
+	private final Clock clock;
+
+	private final SimpleLock lock;
+
+	/** The sentinels of the buckets by level. */
+	private final Slot<Value>[][] wheel;
+
+	private final SimpleTimer timer;
+
+	/** The time the wheel has been advanced to. */
+	private long wheelTime;
+
+	/**
+	 * Creates a map reading the system clock which is cleaned up every
+	 * second.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 */
+	public ExpiringTrieMap(final Concurrency conn) {
+		this(conn, SYSTEM_CLOCK, 1000);
+	}
+
+	/**
+	 * Creates a map.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 * @param clock
+	 *            the clock
+	 * @param cleanUpIntervalMs
+	 *            the interval of the timer calling {@link #cleanUp()} or 0 to
+	 *            only clean up when called explicitly
+	 */
+	@SuppressWarnings("unchecked")
+	public ExpiringTrieMap(final Concurrency conn, final Clock clock, final int cleanUpIntervalMs) {
+		this.map = new TrieMap<Slot<Value>>(conn);
+		this.clock = clock;
+		this.lock = conn.newLock();
+		this.wheel = new Slot[SHIFTS.length][BUCKETS];
+		for (int level = 0; level < SHIFTS.length; level++) {
+			for (int i = 0; i < BUCKETS; i++) {
+				wheel[level][i] = Slot.sentinel();
+			}
+		}
+		this.wheelTime = clock.now();
+		if (cleanUpIntervalMs > 0) {
+			timer = conn.newTimer().scheduleRepeating(cleanUpIntervalMs, cleanUpIntervalMs, new Runnable() {
+
+				@Override
+				public void run() {
+					cleanUp();
+				}
+			});
+		} else {
+			timer = null;
+		}
+	}
+
+	/**
+	 * Gets the value for the key if it has not expired.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the value or null
+	 */
+	public Value get(final String key) {
+		final Slot<Value> slot = map.get(key);
+		return isLive(slot, clock.now()) ? slot.value : null;
+	}
+
+	public boolean containsKey(final String key) {
+		return isLive(map.get(key), clock.now());
+	}
+
+	/**
+	 * Gets the value of the longest key which has not expired and is a prefix
+	 * of the given string.
+	 *
+	 * @param prefix
+	 *            the string
+	 * @return the value or null
+	 */
+	public Value getValueForBestMatchingKey(final String prefix) {
+		final long now = clock.now();
+		final List<Slot<Value>> slots = map.getValuesOnPath(prefix);
+		for (int i = slots.size() - 1; i >= 0; i--) {
+			if (isLive(slots.get(i), now)) {
+				return slots.get(i).value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the keys below the given prefix which have not expired.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the list
+	 */
+	public List<String> getCompletitions(final String prefix) {
+		final long now = clock.now();
+		final List<String> result = new ArrayList<String>();
+		for (final Slot<Value> slot : map.getSubValues(prefix)) {
+			if (isLive(slot, now)) {
+				result.add(slot.key);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Associates the value with the key without expiry.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the previous value or null
+	 */
+	public Value put(final String key, final Value value) {
+		return putUntil(key, value, NEVER);
+	}
+
+	/**
+	 * Associates the value with the key until the time to live has passed.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @param ttlMs
+	 *            the time to live in milliseconds
+	 * @return the previous value or null
+	 */
+	public Value put(final String key, final Value value, final long ttlMs) {
+		if (ttlMs < 0) {
+			throw new IllegalArgumentException("Time to live must not be negative but was " + ttlMs);
+		}
+		final long now = clock.now();
+		return putUntil(key, value, (ttlMs >= NEVER - now) ? NEVER : now + ttlMs);
+	}
+
+	/**
+	 * Removes the entry for the key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value or null if there was none or it had expired
+	 */
+	public Value remove(final String key) {
+		lock.lock();
+		try {
+			final Slot<Value> slot = map.remove(key);
+			if (slot == null) {
+				return null;
+			}
+			slot.unlink();
+			return isLive(slot, clock.now()) ? slot.value : null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of entries including expired ones which have not
+	 * been cleaned up yet.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return map.size();
+	}
+
+	public void clear() {
+		lock.lock();
+		try {
+			map.clear();
+			for (final Slot<Value>[] level : wheel) {
+				for (final Slot<Value> sentinel : level) {
+					sentinel.previous = sentinel;
+					sentinel.next = sentinel;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the entries which have expired since the last clean up.
+	 *
+	 * @return the number of removed entries
+	 */
+	public int cleanUp() {
+		lock.lock();
+		try {
+			final long now = clock.now();
+			final long previous = wheelTime;
+			if (now <= previous) {
+				return 0;
+			}
+			wheelTime = now;
+			int removed = 0;
+			for (int level = 0; level < SHIFTS.length; level++) {
+				final long previousTicks = previous >>> SHIFTS[level];
+				final long ticks = now >>> SHIFTS[level];
+				if (ticks == previousTicks) {
+					// higher levels cannot have advanced either
+					break;
+				}
+				removed += expire(level, previousTicks, ticks - previousTicks, now);
+			}
+			return removed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the timer calling {@link #cleanUp()}.
+	 */
+	public void stop() {
+		if (timer != null) {
+			timer.stop();
+		}
+	}
+
+	private Value putUntil(final String key, final Value value, final long expiresAt) {
+		final Slot<Value> slot = new Slot<Value>(key, value, expiresAt);
+		lock.lock();
+		try {
+			final Slot<Value> previous = map.put(key, slot);
+			if (expiresAt != NEVER) {
+				schedule(slot);
+			}
+			if (previous == null) {
+				return null;
+			}
+			previous.unlink();
+			return isLive(previous, clock.now()) ? previous.value : null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Processes the buckets of the level which the wheel passed.
+	 */
+	private int expire(final int level, final long previousTicks, final long delta, final long now) {
+		int removed = 0;
+		final int start = (int) (previousTicks & (BUCKETS - 1));
+		final int end = start + (int) Math.min(delta + 1, BUCKETS);
+		for (int i = start; i < end; i++) {
+			final Slot<Value> sentinel = wheel[level][i & (BUCKETS - 1)];
+			// detach the bucket, entries not due yet are scheduled again
+			Slot<Value> slot = sentinel.next;
+			sentinel.previous = sentinel;
+			sentinel.next = sentinel;
+			while (slot != sentinel) {
+				final Slot<Value> next = slot.next;
+				slot.previous = null;
+				slot.next = null;
+				if (slot.expiresAt <= now) {
+					map.remove(slot.key);
+					removed++;
+				} else {
+					schedule(slot);
+				}
+				slot = next;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Adds the slot to the bucket of the lowest level which covers its
+	 * expiry.
+	 */
+	private void schedule(final Slot<Value> slot) {
+		final long duration = slot.expiresAt - wheelTime;
+		int level = 0;
+		while (level < SHIFTS.length - 1 && duration >= (1L << SHIFTS[level + 1])) {
+			level++;
+		}
+		final Slot<Value> sentinel = wheel[level][(int) ((slot.expiresAt >>> SHIFTS[level]) & (BUCKETS - 1))];
+		slot.previous = sentinel.previous;
+		slot.next = sentinel;
+		sentinel.previous.next = slot;
+		sentinel.previous = slot;
+	}
+
+	private static <Value> boolean isLive(final Slot<Value> slot, final long now) {
+		return slot != null && slot.expiresAt > now;
+	}
+
+	/**
+	 * The value stored in the trie for an entry, linked into a bucket of the
+	 * wheel while it has an expiry. Links are guarded by the lock of the map.
+	 */
+	private static final class Slot<Value> {
+
+		private final String key;
+
+		private final Value value;
+
+		private final long expiresAt;
+
+		private Slot<Value> previous;
+
+		private Slot<Value> next;
+
+		private Slot(final String key, final Value value, final long expiresAt) {
+			this.key = key;
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		private static <Value> Slot<Value> sentinel() {
+			final Slot<Value> sentinel = new Slot<Value>(null, null, NEVER);
+			sentinel.previous = sentinel;
+			sentinel.next = sentinel;
+			return sentinel;
+		}
+
+		private void unlink() {
+			if (previous != null) {
+				previous.next = next;
+				next.previous = previous;
+				previous = null;
+				next = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,423 @@
+package delight.trie;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A persistent trie map. It is never modified, instead {@link #with(String, Object)}
+ * and {@link #without(String)} return new versions which share all subtrees
+ * not on the path of the changed key.<br/>
+ * Since instances are immutable they can be published to readers without any
+ * locking.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public final class ImmutableTrieMap<Value> extends AbstractMap<String, Value> {
+
+	@SuppressWarnings("rawtypes")
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static final ImmutableTrieMap EMPTY = new ImmutableTrieMap(new Node(NO_CHILDREN, null, false, 0));
+
+	private final Node<Value> root;
+
+	private ImmutableTrieMap(final Node<Value> root) {
+		this.root = root;
+	}
+
+	/**
+	 * @return an empty map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <Value> ImmutableTrieMap<Value> empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Creates an immutable copy of the given map.
+	 *
+	 * @param map
+	 *            the map
+	 * @return the immutable map
+	 */
+	public static <Value> ImmutableTrieMap<Value> copyOf(final Map<String, ? extends Value> map) {
+		ImmutableTrieMap<Value> result = empty();
+		for (final Map.Entry<String, ? extends Value> entry : map.entrySet()) {
+			result = result.with(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a map which contains the given entry in addition to the entries
+	 * of this map. Runs in O(key length).
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the new map
+	 */
+	public ImmutableTrieMap<Value> with(final String key, final Value value) {
+		final Node<Value> newRoot = with(root, key, 0, value);
+		return (newRoot == root) ? this : new ImmutableTrieMap<Value>(newRoot);
+	}
+
+	/**
+	 * Returns a map which contains the entries of this map except the one for
+	 * the given key. Runs in O(key length).
+	 *
+	 * @param key
+	 *            the key
+	 * @return the new map
+	 */
+	public ImmutableTrieMap<Value> without(final String key) {
+		final Node<Value> newRoot = without(root, key, 0);
+		if (newRoot == root) {
+			return this;
+		}
+		return (newRoot == null) ? ImmutableTrieMap.<Value> empty() : new ImmutableTrieMap<Value>(newRoot);
+	}
+
+	/**
+	 * Gets a Map of Objects with it's keys that are below the given prefix.<br/>
+	 * The returned map shares the subtree of this map and is created in
+	 * O(prefix length).
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the sub map
+	 */
+	public ImmutableTrieMap<Value> getSubMap(final String prefix) {
+		final Node<Value> matchedNode = matchPrefix(prefix);
+		if (matchedNode == null) {
+			return empty();
+		}
+		if (matchedNode == root) {
+			return this;
+		}
+		Node<Value> node = matchedNode;
+		for (int i = prefix.length() - 1; i >= 0; i--) {
+			node = new Node<Value>(prefix.charAt(i), node);
+		}
+		return new ImmutableTrieMap<Value>(node);
+	}
+
+	/**
+	 * Returns the Strings stored below the given prefix.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the list
+	 */
+	public List<String> getCompletitions(final String prefix) {
+		final List<String> result = new ArrayList<String>();
+		final Node<Value> matchedNode = matchPrefix(prefix);
+		if (matchedNode != null) {
+			final EntryIterator<Value> iterator = new EntryIterator<Value>(matchedNode, prefix);
+			while (iterator.hasNext()) {
+				result.add(iterator.next().getKey());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the stored values below the given prefix.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the list
+	 */
+	public List<Value> getSubValues(final String prefix) {
+		final List<Value> result = new ArrayList<Value>();
+		final Node<Value> matchedNode = matchPrefix(prefix);
+		if (matchedNode != null) {
+			final EntryIterator<Value> iterator = new EntryIterator<Value>(matchedNode, prefix);
+			while (iterator.hasNext()) {
+				result.add(iterator.next().getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the value of the longest key which is a prefix of the given string.
+	 *
+	 * @param prefix
+	 *            the string
+	 * @return the value or null
+	 */
+	public Value getValueForBestMatchingKey(final String prefix) {
+		if (prefix == null || prefix.length() == 0) {
+			return null;
+		}
+		Value result = null;
+		Node<Value> node = root;
+		for (int i = 0; i < prefix.length(); i++) {
+			node = node.getChildNode(prefix.charAt(i));
+			if (node == null) {
+				break;
+			}
+			if (node.hasValue) {
+				result = node.value;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Value get(final Object key) {
+		if (key instanceof String) {
+			final Node<Value> node = matchPrefix((String) key);
+			if (node != null) {
+				return node.value;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		if (key instanceof String) {
+			final Node<Value> node = matchPrefix((String) key);
+			return node != null && node.hasValue;
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return root.size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return root.size == 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Value>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Value>>() {
+
+			@Override
+			public Iterator<Map.Entry<String, Value>> iterator() {
+				return new EntryIterator<Value>(root, "");
+			}
+
+			@Override
+			public int size() {
+				return root.size;
+			}
+		};
+	}
+
+	private Node<Value> matchPrefix(final String prefix) {
+		if (prefix == null) {
+			return null;
+		}
+		Node<Value> node = root;
+		for (int i = 0; i < prefix.length() && node != null; i++) {
+			node = node.getChildNode(prefix.charAt(i));
+		}
+		return node;
+	}
+
+	private static <Value> Node<Value> with(final Node<Value> node, final String key, final int index,
+			final Value value) {
+		if (index == key.length()) {
+			if (node.hasValue && node.value == value) {
+				return node;
+			}
+			return new Node<Value>(node.chars, node.children, value, true, node.size + (node.hasValue ? 0 : 1));
+		}
+		final char c = key.charAt(index);
+		final int position = node.indexOf(c);
+		final Node<Value> child = (position < 0) ? Node.<Value> leaf() : node.children[position];
+		final Node<Value> newChild = with(child, key, index + 1, value);
+		if (newChild == child) {
+			return node;
+		}
+		return node.withChild(c, position, newChild, newChild.size - child.size);
+	}
+
+	private static <Value> Node<Value> without(final Node<Value> node, final String key, final int index) {
+		if (index == key.length()) {
+			if (!node.hasValue) {
+				return node;
+			}
+			if (node.children.length == 0) {
+				return null;
+			}
+			return new Node<Value>(node.chars, node.children, null, false, node.size - 1);
+		}
+		final int position = node.indexOf(key.charAt(index));
+		if (position < 0) {
+			return node;
+		}
+		final Node<Value> child = node.children[position];
+		final Node<Value> newChild = without(child, key, index + 1);
+		if (newChild == child) {
+			return node;
+		}
+		if (newChild == null) {
+			if (node.children.length == 1 && !node.hasValue) {
+				// prune branches which do not lead to any entry
+				return null;
+			}
+			return node.withoutChild(position);
+		}
+		return node.withChild(key.charAt(index), position, newChild, -1);
+	}
+
+	private static final class Node<Value> {
+
+		private final char[] chars;
+
+		private final Node<Value>[] children;
+
+		private final Value value;
+
+		private final boolean hasValue;
+
+		/** The number of entries in this subtree. */
+		private final int size;
+
+		private Node(final char[] chars, final Node<Value>[] children, final Value value, final boolean hasValue,
+				final int size) {
+			this.chars = chars;
+			this.children = children;
+			this.value = value;
+			this.hasValue = hasValue;
+			this.size = size;
+		}
+
+		private Node(final Node<Value>[] children, final Value value, final boolean hasValue, final int size) {
+			this(new char[0], children, value, hasValue, size);
+		}
+
+		@SuppressWarnings("unchecked")
+		private Node(final char c, final Node<Value> child) {
+			this(new char[] { c }, new Node[] { child }, null, false, child.size);
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <Value> Node<Value> leaf() {
+			return new Node<Value>(NO_CHILDREN, null, false, 0);
+		}
+
+		private int indexOf(final char c) {
+			int low = 0;
+			int high = chars.length - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				if (chars[mid] < c) {
+					low = mid + 1;
+				} else if (chars[mid] > c) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+
+		private Node<Value> getChildNode(final char c) {
+			final int position = indexOf(c);
+			return (position < 0) ? null : children[position];
+		}
+
+		@SuppressWarnings("unchecked")
+		private Node<Value> withChild(final char c, final int position, final Node<Value> child, final int sizeDelta) {
+			if (position >= 0) {
+				final Node<Value>[] newChildren = children.clone();
+				newChildren[position] = child;
+				return new Node<Value>(chars, newChildren, value, hasValue, size + sizeDelta);
+			}
+			final int insertAt = -(position + 1);
+			final char[] newChars = new char[chars.length + 1];
+			final Node<Value>[] newChildren = new Node[children.length + 1];
+			System.arraycopy(chars, 0, newChars, 0, insertAt);
+			System.arraycopy(children, 0, newChildren, 0, insertAt);
+			newChars[insertAt] = c;
+			newChildren[insertAt] = child;
+			System.arraycopy(chars, insertAt, newChars, insertAt + 1, chars.length - insertAt);
+			System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+			return new Node<Value>(newChars, newChildren, value, hasValue, size + sizeDelta);
+		}
+
+		@SuppressWarnings("unchecked")
+		private Node<Value> withoutChild(final int position) {
+			final char[] newChars = new char[chars.length - 1];
+			final Node<Value>[] newChildren = new Node[children.length - 1];
+			System.arraycopy(chars, 0, newChars, 0, position);
+			System.arraycopy(children, 0, newChildren, 0, position);
+			System.arraycopy(chars, position + 1, newChars, position, chars.length - position - 1);
+			System.arraycopy(children, position + 1, newChildren, position, children.length - position - 1);
+			return new Node<Value>(newChars, newChildren, value, hasValue, size - 1);
+		}
+	}
+
+	/**
+	 * Iterates the entries of a subtree depth first, which yields the keys in
+	 * sorted order.
+	 */
+	private static final class EntryIterator<Value> implements Iterator<Map.Entry<String, Value>> {
+
+		private final List<Node<Value>> nodes = new ArrayList<Node<Value>>();
+
+		private final List<String> keys = new ArrayList<String>();
+
+		private Map.Entry<String, Value> next;
+
+		private EntryIterator(final Node<Value> node, final String prefix) {
+			nodes.add(node);
+			keys.add(prefix);
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (next == null && !nodes.isEmpty()) {
+				final Node<Value> node = nodes.remove(nodes.size() - 1);
+				final String key = keys.remove(keys.size() - 1);
+				for (int i = node.children.length - 1; i >= 0; i--) {
+					nodes.add(node.children[i]);
+					keys.add(key + node.chars[i]);
+				}
+				if (node.hasValue) {
+					next = new SimpleImmutableEntry<String, Value>(key, node.value);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<String, Value> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			final Map.Entry<String, Value> result = next;
+			advance();
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("ImmutableTrieMap cannot be modified.");
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package delight.trie;
+
+import java.util.Arrays;
+
+import delight.concurrency.Concurrency;
+
+/**
+ * A trie map with <code>long</code> values, for instance counters or ids.
+ * Values are kept in a primitive array indexed by node, so no values are boxed.
+ */
+public class LongTrieMap extends PrimitiveTrie {
+
+	private long[] values;
+
+	public LongTrieMap(final Concurrency conn) {
+		super(conn);
+	}
+
+	/**
+	 * Gets the value for the given key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param defaultValue
+	 *            the value returned if the key is not contained
+	 * @return the value
+	 */
+	public long getLong(final String key, final long defaultValue) {
+		lock.readLock().lock();
+		try {
+			final int node = find(key);
+			return isPresent(node) ? values[node] : defaultValue;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Associates the value with the given key.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 */
+	public void put(final String key, final long value) {
+		lock.writeLock().lock();
+		try {
+			values[findOrCreate(key)] = value;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the delta to the value of the given key. Keys which are not
+	 * contained start at 0.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param delta
+	 *            the delta
+	 * @return the new value
+	 */
+	public long addTo(final String key, final long delta) {
+		lock.writeLock().lock();
+		try {
+			final int node = findOrCreate(key);
+			values[node] += delta;
+			return values[node];
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	protected void growValues(final int capacity) {
+		values = (values == null) ? new long[capacity] : Arrays.copyOf(values, capacity);
+	}
+
+	@Override
+	protected void resetValue(final int node) {
+		values[node] = 0;
+	}
+
+}
@@ -0,0 +1,245 @@
+package delight.trie;
+
+import delight.concurrency.wrappers.SimpleLock;
+
+/**
+ * A small direct mapped cache from keys to the nodes a lookup found for them,
+ * used by {@link TrieMap#enableLookupCache(int)}.<br/>
+ * Readers fill it without locks. Writers removing many keys at once
+ * invalidate entries and count an epoch up while doing so. A reader which
+ * notices that the epoch changed while it walked the trie drops the entry it
+ * just stored, so an entry never outlives an invalidation it raced with.<br/>
+ * Writers changing single keys only count up one generation instead of
+ * scanning. Keys are grouped by their first characters at a few lengths,
+ * and a write counts up the group of the key at the longest length it
+ * reaches. A lookup sums the generations of its own groups at all lengths
+ * it reaches, which include the group of every key that is a prefix of it.
+ * Entries remember this sum from before their lookup and are ignored once
+ * it changed, so a write only lets the entries of its group expire.
+ *
+ * @param <Node>
+ *            the node type
+ */
+final class LookupCache<Node> {
+
+	/** The number of groups per level and stripe, a power of two. */
+	private static final int GROUPS = 16;
+
+	private static final int GROUP_SHIFT = 32 - 4;
+
+	private final Slot<Node>[] slots;
+
+	private final int mask;
+
+	private final CharNormalizer normalizer;
+
+	/** Serializes writers counting the epoch up. */
+	private final SimpleLock lock;
+
+	private volatile int epoch;
+
+	/** Lets writers skip a cache which no reader has used yet. */
+	private volatile boolean used;
+
+	private final TrieLocks locks;
+
+	/**
+	 * The lengths at which keys are grouped, ascending and starting with 0.
+	 * Groups at or beyond the depth of the locks belong to a single stripe,
+	 * so that writers counting them up never race.
+	 */
+	private final int[] levels;
+
+	/** The generations of the groups by level, stripe and hash. */
+	private final Generation[] generations;
+
+	@SuppressWarnings("unchecked")
+	LookupCache(final int capacity, final CharNormalizer normalizer, final SimpleLock lock, final TrieLocks locks) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.slots = new Slot[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot<Node>();
+		}
+		this.mask = size - 1;
+		this.normalizer = normalizer;
+		this.lock = lock;
+		this.locks = locks;
+		final int depth = locks.depth();
+		this.levels = (depth == 0) ? new int[] { 0, 1, 2, 4, 8, 16, 32 } : new int[] { 0, depth, depth + 1,
+				depth + 2, depth + 4, depth + 8, depth + 16, depth + 32 };
+		this.generations = new Generation[levels.length * locks.stripes() * GROUPS];
+		for (int i = 0; i < generations.length; i++) {
+			generations[i] = new Generation();
+		}
+	}
+
+	/**
+	 * Called before a lookup whose result may be stored.
+	 * 
+	 * @return the epoch to pass to {@link #put(String, Object, int, int)} after
+	 *         the lookup
+	 */
+	int epoch() {
+		if (!used) {
+			// set before the lookup, so writers from now on invalidate
+			used = true;
+		}
+		return epoch;
+	}
+
+	/**
+	 * Called before a lookup whose result may be stored.
+	 * 
+	 * @param key
+	 *            the key looked up
+	 * @return the generation to pass to {@link #put(String, Object, int, int)}
+	 *         and to compare with the one of a cached entry
+	 */
+	int generation(final String key) {
+		final int stripe = locks.stripeOf(key, normalizer);
+		int result = 0;
+		int h = 0;
+		int i = 0;
+		for (int level = 0; level < levels.length && levels[level] <= key.length(); level++) {
+			for (; i < levels[level]; i++) {
+				h = 31 * h + normalizer.normalize(key.charAt(i));
+			}
+			result += generations[indexOf(level, stripe, h)].value;
+		}
+		return result;
+	}
+
+	/**
+	 * Lets the entries expire whose keys start with the given key. Called by
+	 * writers holding the write lock of the key, so that the increments do
+	 * not race.
+	 */
+	void advance(final String key) {
+		int level = levels.length - 1;
+		while (levels[level] > key.length()) {
+			level--;
+		}
+		int h = 0;
+		for (int i = 0; i < levels[level]; i++) {
+			h = 31 * h + normalizer.normalize(key.charAt(i));
+		}
+		generations[indexOf(level, locks.stripeOf(key, normalizer), h)].value++;
+	}
+
+	private int indexOf(final int level, final int stripe, final int hash) {
+		// keys shorter than the depth are written holding all stripes
+		final int owner = (stripe == TrieLocks.ALL || levels[level] < locks.depth()) ? 0 : stripe;
+		return (level * locks.stripes() + owner) * GROUPS + ((hash * 0x9e3779b9) >>> GROUP_SHIFT);
+	}
+
+	/**
+	 * @return the entry for the key or null
+	 */
+	Entry<Node> get(final String key) {
+		final Entry<Node> entry = slots[hash(key) & mask].entry;
+		return (entry != null && matches(entry.key, key)) ? entry : null;
+	}
+
+	void put(final String key, final Node node, final int lookupEpoch, final int generation) {
+		final Slot<Node> slot = slots[hash(key) & mask];
+		final Entry<Node> entry = new Entry<Node>(key, node, generation);
+		slot.entry = entry;
+		if (epoch != lookupEpoch && slot.entry == entry) {
+			// a writer may have invalidated the slot before it was stored
+			slot.entry = null;
+		}
+	}
+
+	/**
+	 * Drops the entries whose keys start with or, if inside is false, do not
+	 * start with the prefix.
+	 */
+	void invalidatePrefix(final String prefix, final boolean inside) {
+		if (!used) {
+			return;
+		}
+		lock.lock();
+		try {
+			epoch++;
+			for (final Slot<Node> slot : slots) {
+				final Entry<Node> entry = slot.entry;
+				if (entry != null && startsWith(entry.key, prefix) == inside) {
+					slot.entry = null;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int hash(final String key) {
+		if (normalizer == CharNormalizers.IDENTITY) {
+			final int h = key.hashCode();
+			return h ^ (h >>> 16);
+		}
+		int h = 0;
+		for (int i = 0; i < key.length(); i++) {
+			h = 31 * h + normalizer.normalize(key.charAt(i));
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private boolean matches(final String a, final String b) {
+		return a.length() == b.length() && startsWith(a, b);
+	}
+
+	private boolean startsWith(final String key, final String prefix) {
+		if (normalizer == CharNormalizers.IDENTITY) {
+			return key.startsWith(prefix);
+		}
+		if (key.length() < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (normalizer.normalize(key.charAt(i)) != normalizer.normalize(prefix.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The key and node found for it, which may be null for lookups without
+	 * a result.
+	 */
+	static final class Entry<Node> {
+
+		final String key;
+
+		final Node node;
+
+		final int generation;
+
+		private Entry(final String key, final Node node, final int generation) {
+			this.key = key;
+			this.node = node;
+			this.generation = generation;
+		}
+	}
+
+	/**
+	 * The number of writes to a group of keys, read by readers without a
+	 * lock.
+	 */
+	private static final class Generation {
+
+		private volatile int value;
+	}
+
+	/**
+	 * Holds one entry, so that readers see its replacement without a lock.
+	 */
+	private static final class Slot<Node> {
+
+		private volatile Entry<Node> entry;
+	}
+
+}
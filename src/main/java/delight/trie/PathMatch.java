@@ -0,0 +1,100 @@
+package delight.trie;
+
+/**
+ * The route of a {@link SegmentTrieMap} matching a path, with the values of
+ * its parameters.<br/>
+ * Parameters are kept as positions in the path and only copied when they are
+ * read.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public final class PathMatch<Value> {
+
+	private final CharSequence path;
+
+	private final String pattern;
+
+	private final Value value;
+
+	private final String[] parameterNames;
+
+	/** The start and end of each parameter in the path. */
+	private final int[] bounds;
+
+	private final int remainder;
+
+	PathMatch(final CharSequence path, final String pattern, final Value value, final String[] parameterNames,
+			final int[] bounds, final int remainder) {
+		this.path = path;
+		this.pattern = pattern;
+		this.value = value;
+		this.parameterNames = parameterNames;
+		this.bounds = bounds;
+		this.remainder = remainder;
+	}
+
+	/**
+	 * @return the pattern of the matching route
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	public Value getValue() {
+		return value;
+	}
+
+	public int getParameterCount() {
+		return parameterNames.length;
+	}
+
+	public String getParameterName(final int index) {
+		return parameterNames[index];
+	}
+
+	public String getParameterValue(final int index) {
+		return path.subSequence(bounds[2 * index], bounds[2 * index + 1]).toString();
+	}
+
+	/**
+	 * Gets the value of a parameter by name.
+	 *
+	 * @param name
+	 *            the name without braces
+	 * @return the value or null if the route has no such parameter
+	 */
+	public String getParameter(final String name) {
+		for (int i = 0; i < parameterNames.length; i++) {
+			if (parameterNames[i].equals(name)) {
+				return getParameterValue(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the part of the path matched by a trailing <code>**</code>,
+	 *         which may be empty, or null if the route does not end with one
+	 */
+	public String getRemainder() {
+		if (remainder < 0) {
+			return null;
+		}
+		return path.subSequence(Math.min(remainder, path.length()), path.length()).toString();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder(pattern);
+		sb.append(" {");
+		for (int i = 0; i < parameterNames.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(parameterNames[i]).append('=').append(getParameterValue(i));
+		}
+		return sb.append('}').toString();
+	}
+
+}
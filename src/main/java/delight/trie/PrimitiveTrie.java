@@ -0,0 +1,305 @@
+package delight.trie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleReadWriteLock;
+
+/**
+ * Base for trie maps with primitive values. Nodes are not objects but indexes
+ * into parallel arrays, so that subclasses can keep their values in a
+ * primitive array indexed by node.<br/>
+ * Siblings are kept in a list sorted by their character. Removing a key frees
+ * the nodes which no longer lead to any key. Freed nodes are chained through
+ * their sibling links and reused before the arrays grow.
+ */
+abstract class PrimitiveTrie {
+
+	private static final int ROOT = 0;
+
+	private static final int NONE = -1;
+
+	protected final SimpleReadWriteLock lock;
+
+	private char[] labels;
+
+	private int[] firstChild;
+
+	private int[] nextSibling;
+
+	private boolean[] present;
+
+	/** The number of nodes allocated in the arrays, including freed ones. */
+	private int nodes;
+
+	/** The first freed node or -1. */
+	private int free;
+
+	private int freeCount;
+
+	private int size;
+
+	PrimitiveTrie(final Concurrency conn) {
+		lock = conn.newReadWriteLock();
+		init(16);
+	}
+
+	/**
+	 * Grows the value array to the given capacity.
+	 *
+	 * @param capacity
+	 *            the new capacity
+	 */
+	protected abstract void growValues(int capacity);
+
+	/**
+	 * Resets the value of a node which starts to hold a value.
+	 *
+	 * @param node
+	 *            the node
+	 */
+	protected abstract void resetValue(int node);
+
+	/**
+	 * Returns the Strings stored below the given prefix.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the list
+	 */
+	public List<String> getCompletitions(final String prefix) {
+		final List<String> result = new ArrayList<String>();
+		lock.readLock().lock();
+		try {
+			final int node = find(prefix);
+			if (node != NONE) {
+				collect(node, new StringBuilder(prefix), result);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	public boolean containsKey(final String key) {
+		lock.readLock().lock();
+		try {
+			final int node = find(key);
+			return node != NONE && present[node];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean remove(final String key) {
+		lock.writeLock().lock();
+		try {
+			final int[] path = new int[key.length() + 1];
+			path[0] = ROOT;
+			for (int i = 0; i < key.length(); i++) {
+				path[i + 1] = findChild(path[i], key.charAt(i));
+				if (path[i + 1] == NONE) {
+					return false;
+				}
+			}
+			final int node = path[key.length()];
+			if (!present[node]) {
+				return false;
+			}
+			present[node] = false;
+			size--;
+			// free the tail of the path which leads to no other key
+			for (int i = key.length(); i > 0 && !present[path[i]] && firstChild[path[i]] == NONE; i--) {
+				unlink(path[i - 1], path[i]);
+				freeNode(path[i]);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of nodes in use, including the root
+	 */
+	public int nodeCount() {
+		lock.readLock().lock();
+		try {
+			return nodes - freeCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			init(16);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the node for the given key. Requires the read lock.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the node or -1
+	 */
+	protected int find(final String key) {
+		int node = ROOT;
+		for (int i = 0; i < key.length() && node != NONE; i++) {
+			node = findChild(node, key.charAt(i));
+		}
+		return node;
+	}
+
+	/**
+	 * Finds or creates the node for the given key and marks it as present.
+	 * Requires the write lock.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the node
+	 */
+	protected int findOrCreate(final String key) {
+		int node = ROOT;
+		for (int i = 0; i < key.length(); i++) {
+			node = findOrCreateChild(node, key.charAt(i));
+		}
+		if (!present[node]) {
+			present[node] = true;
+			resetValue(node);
+			size++;
+		}
+		return node;
+	}
+
+	/**
+	 * Checks if a value is stored for the node. Requires the read lock.
+	 *
+	 * @param node
+	 *            the node
+	 * @return true if a value is stored
+	 */
+	protected boolean isPresent(final int node) {
+		return node != NONE && present[node];
+	}
+
+	private void init(final int capacity) {
+		labels = new char[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		present = new boolean[capacity];
+		growValues(capacity);
+		nodes = 0;
+		free = NONE;
+		freeCount = 0;
+		size = 0;
+		newNode(' ');
+	}
+
+	private int findChild(final int node, final char c) {
+		for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+			if (labels[child] == c) {
+				return child;
+			}
+			if (labels[child] > c) {
+				return NONE;
+			}
+		}
+		return NONE;
+	}
+
+	private int findOrCreateChild(final int node, final char c) {
+		int previous = NONE;
+		int child = firstChild[node];
+		while (child != NONE && labels[child] < c) {
+			previous = child;
+			child = nextSibling[child];
+		}
+		if (child != NONE && labels[child] == c) {
+			return child;
+		}
+		final int created = newNode(c);
+		nextSibling[created] = child;
+		if (previous == NONE) {
+			firstChild[node] = created;
+		} else {
+			nextSibling[previous] = created;
+		}
+		return created;
+	}
+
+	private void unlink(final int parent, final int node) {
+		if (firstChild[parent] == node) {
+			firstChild[parent] = nextSibling[node];
+			return;
+		}
+		int previous = firstChild[parent];
+		while (nextSibling[previous] != node) {
+			previous = nextSibling[previous];
+		}
+		nextSibling[previous] = nextSibling[node];
+	}
+
+	private void freeNode(final int node) {
+		nextSibling[node] = free;
+		free = node;
+		freeCount++;
+	}
+
+	private int newNode(final char c) {
+		if (free != NONE) {
+			final int node = free;
+			free = nextSibling[node];
+			freeCount--;
+			labels[node] = c;
+			firstChild[node] = NONE;
+			nextSibling[node] = NONE;
+			return node;
+		}
+		if (nodes == labels.length) {
+			final int capacity = labels.length * 2;
+			labels = Arrays.copyOf(labels, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			nextSibling = Arrays.copyOf(nextSibling, capacity);
+			present = Arrays.copyOf(present, capacity);
+			growValues(capacity);
+		}
+		final int node = nodes++;
+		labels[node] = c;
+		firstChild[node] = NONE;
+		nextSibling[node] = NONE;
+		present[node] = false;
+		return node;
+	}
+
+	private void collect(final int node, final StringBuilder path, final List<String> result) {
+		if (present[node]) {
+			result.add(path.toString());
+		}
+		for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+			path.append(labels[child]);
+			collect(child, path, result);
+			path.setLength(path.length() - 1);
+		}
+	}
+
+}
@@ -0,0 +1,404 @@
+package delight.trie;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleLock;
+
+/**
+ * A trie over the <code>/</code> separated segments of paths, for instance to
+ * route HTTP requests.<br/>
+ * Routes are patterns whose segments are literals, parameters like
+ * <code>{id}</code> matching any one segment, <code>*</code> matching any one
+ * segment without capturing it or a final <code>**</code> matching all
+ * remaining segments, including none.<br/>
+ * {@link #resolve(CharSequence)} compares the segments of a path from left to
+ * right and prefers, at each segment, a literal over a parameter over
+ * <code>*</code> over <code>**</code>. If the preferred branch does not lead
+ * to a route, the next one is tried. So <code>/users/me</code> wins over
+ * <code>/users/{id}</code> and <code>/users/{id}/orders</code> over
+ * <code>/users/*&#47;orders</code> and <code>/users/**</code>.<br/>
+ * Literal segments are interned per map and looked up by comparing them with
+ * the path in place, so resolving a path only allocates the result.<br/>
+ * Like {@link TrieMap}, reads take no locks and writers are serialized.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public class SegmentTrieMap<Value> {
+
+	private static final String PARAMETER_START = "{";
+
+	private static final String PARAMETER_END = "}";
+
+	private static final String WILDCARD = "*";
+
+	private static final String TAIL_WILDCARD = "**";
+
+	private static final String[] NO_NAMES = new String[0];
+
+	private final SimpleLock lock;
+
+	private final Node<Value> root = new Node<Value>(null);
+
+	/** Guarded by the lock. */
+	private final Map<String, String> segments = new HashMap<String, String>();
+
+	private volatile int size;
+
+	private volatile int maxParameters;
+
+	public SegmentTrieMap(final Concurrency conn) {
+		this.lock = conn.newLock();
+	}
+
+	/**
+	 * Gets the value of the route with exactly the given pattern.
+	 *
+	 * @param pattern
+	 *            the pattern
+	 * @return the value or null
+	 */
+	public Value get(final String pattern) {
+		final Route<Value> route = find(pattern);
+		return (route == null) ? null : route.value;
+	}
+
+	/**
+	 * Adds a route. Patterns which only differ in the names of their
+	 * parameters are the same route.
+	 *
+	 * @param pattern
+	 *            the pattern, such as <code>/users/{id}/orders</code>
+	 * @param value
+	 *            the value
+	 * @return the value previously associated with the route or null
+	 */
+	public Value put(final String pattern, final Value value) {
+		final List<String> parts = split(pattern);
+		final List<String> names = new ArrayList<String>();
+		for (int i = 0; i < parts.size(); i++) {
+			final String part = parts.get(i);
+			if (TAIL_WILDCARD.equals(part) && i != parts.size() - 1) {
+				throw new IllegalArgumentException("** must be the last segment of " + pattern);
+			}
+			if (isParameter(part)) {
+				names.add(part.substring(1, part.length() - 1));
+			}
+		}
+		final Route<Value> route = new Route<Value>(pattern, value, names.toArray(NO_NAMES));
+		lock.lock();
+		try {
+			Node<Value> node = root;
+			final int last = parts.size() - 1;
+			for (int i = 0; i <= last; i++) {
+				final String part = parts.get(i);
+				if (i == last && TAIL_WILDCARD.equals(part)) {
+					return replace(node, true, route);
+				}
+				node = node.child(part, intern(part));
+			}
+			return replace(node, false, route);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the route with exactly the given pattern.
+	 *
+	 * @param pattern
+	 *            the pattern
+	 * @return the removed value or null
+	 */
+	public Value remove(final String pattern) {
+		lock.lock();
+		try {
+			final List<String> parts = split(pattern);
+			final boolean tail = !parts.isEmpty() && TAIL_WILDCARD.equals(parts.get(parts.size() - 1));
+			final Node<Value> node = findNode(tail ? parts.subList(0, parts.size() - 1) : parts);
+			return (node == null) ? null : replace(node, tail, null);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Finds the most specific route matching the path.
+	 *
+	 * @param path
+	 *            the path, with or without a leading <code>/</code>
+	 * @return the match or null
+	 */
+	public PathMatch<Value> resolve(final CharSequence path) {
+		final Resolution<Value> resolution = new Resolution<Value>(path, maxParameters);
+		final int length = path.length();
+		int start = (length > 0 && path.charAt(0) == '/') ? 1 : 0;
+		if (start == length) {
+			// the root has no segments
+			start = length + 1;
+		}
+		if (!resolution.resolve(root, start, 0)) {
+			return null;
+		}
+		final Route<Value> route = resolution.route;
+		return new PathMatch<Value>(path, route.pattern, route.value, route.parameterNames, resolution.bounds,
+				resolution.remainder);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private Value replace(final Node<Value> node, final boolean tail, final Route<Value> route) {
+		final Route<Value> previous = tail ? node.tail : node.route;
+		if (tail) {
+			node.tail = route;
+		} else {
+			node.route = route;
+		}
+		if (route != null) {
+			maxParameters = Math.max(maxParameters, route.parameterNames.length);
+		}
+		size += ((route == null) ? 0 : 1) - ((previous == null) ? 0 : 1);
+		return (previous == null) ? null : previous.value;
+	}
+
+	private Route<Value> find(final String pattern) {
+		final List<String> parts = split(pattern);
+		if (!parts.isEmpty() && TAIL_WILDCARD.equals(parts.get(parts.size() - 1))) {
+			final Node<Value> node = findNode(parts.subList(0, parts.size() - 1));
+			return (node == null) ? null : node.tail;
+		}
+		final Node<Value> node = findNode(parts);
+		return (node == null) ? null : node.route;
+	}
+
+	private Node<Value> findNode(final List<String> parts) {
+		Node<Value> node = root;
+		for (final String part : parts) {
+			if (isParameter(part)) {
+				node = node.parameter;
+			} else if (WILDCARD.equals(part)) {
+				node = node.wildcard;
+			} else {
+				node = node.literal(part, 0, part.length());
+			}
+			if (node == null) {
+				return null;
+			}
+		}
+		return node;
+	}
+
+	private String intern(final String segment) {
+		final String interned = segments.get(segment);
+		if (interned != null) {
+			return interned;
+		}
+		segments.put(segment, segment);
+		return segment;
+	}
+
+	private static boolean isParameter(final String segment) {
+		return segment.length() > 2 && segment.startsWith(PARAMETER_START) && segment.endsWith(PARAMETER_END);
+	}
+
+	/**
+	 * Splits a pattern into its segments. An empty pattern or
+	 * <code>/</code> has none.
+	 */
+	private static List<String> split(final String pattern) {
+		final List<String> parts = new ArrayList<String>();
+		int start = pattern.startsWith("/") ? 1 : 0;
+		if (start == pattern.length()) {
+			return parts;
+		}
+		while (true) {
+			final int end = pattern.indexOf('/', start);
+			if (end < 0) {
+				parts.add(pattern.substring(start));
+				return parts;
+			}
+			parts.add(pattern.substring(start, end));
+			start = end + 1;
+		}
+	}
+
+	private static int compare(final String segment, final CharSequence path, final int start, final int end) {
+		final int length = Math.min(segment.length(), end - start);
+		for (int i = 0; i < length; i++) {
+			final int order = segment.charAt(i) - path.charAt(start + i);
+			if (order != 0) {
+				return order;
+			}
+		}
+		return segment.length() - (end - start);
+	}
+
+	/**
+	 * The state of resolving one path.
+	 */
+	private static final class Resolution<Value> {
+
+		private final CharSequence path;
+
+		private final int[] bounds;
+
+		private Route<Value> route;
+
+		private int remainder = -1;
+
+		private Resolution(final CharSequence path, final int maxParameters) {
+			this.path = path;
+			this.bounds = new int[2 * maxParameters];
+		}
+
+		/**
+		 * Matches the segments from the start position, which is beyond the
+		 * length of the path if there are no more segments.
+		 */
+		private boolean resolve(final Node<Value> node, final int start, final int parameters) {
+			final int length = path.length();
+			if (start > length) {
+				if (node.route != null) {
+					route = node.route;
+					return true;
+				}
+				if (node.tail != null) {
+					route = node.tail;
+					remainder = length;
+					return true;
+				}
+				return false;
+			}
+			int end = start;
+			while (end < length && path.charAt(end) != '/') {
+				end++;
+			}
+			final Node<Value> literal = node.literal(path, start, end);
+			if (literal != null && resolve(literal, end + 1, parameters)) {
+				return true;
+			}
+			final Node<Value> parameter = node.parameter;
+			if (parameter != null && end > start && 2 * parameters < bounds.length) {
+				bounds[2 * parameters] = start;
+				bounds[2 * parameters + 1] = end;
+				if (resolve(parameter, end + 1, parameters + 1)) {
+					return true;
+				}
+			}
+			final Node<Value> wildcard = node.wildcard;
+			if (wildcard != null && end > start && resolve(wildcard, end + 1, parameters)) {
+				return true;
+			}
+			if (node.tail != null) {
+				route = node.tail;
+				remainder = start;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static final class Route<Value> {
+
+		private final String pattern;
+
+		private final Value value;
+
+		private final String[] parameterNames;
+
+		private Route(final String pattern, final Value value, final String[] parameterNames) {
+			this.pattern = pattern;
+			this.value = value;
+			this.parameterNames = parameterNames;
+		}
+	}
+
+	/**
+	 * A node of the trie. Literal children are kept sorted by their segment
+	 * and replaced rather than modified, so readers always see a consistent
+	 * node.
+	 */
+	private static final class Node<Value> {
+
+		/** The literal segment leading to this node or null. */
+		private final String segment;
+
+		@SuppressWarnings("unchecked")
+		private volatile Node<Value>[] children = new Node[0];
+
+		private volatile Node<Value> parameter;
+
+		private volatile Node<Value> wildcard;
+
+		/** The route ending at this node. */
+		private volatile Route<Value> route;
+
+		/** The route ending with <code>**</code> after this node. */
+		private volatile Route<Value> tail;
+
+		private Node(final String segment) {
+			this.segment = segment;
+		}
+
+		private Node<Value> literal(final CharSequence path, final int start, final int end) {
+			final Node<Value>[] nodes = children;
+			int low = 0;
+			int high = nodes.length - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final int order = compare(nodes[mid].segment, path, start, end);
+				if (order < 0) {
+					low = mid + 1;
+				} else if (order > 0) {
+					high = mid - 1;
+				} else {
+					return nodes[mid];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Gets or adds the child for a segment of a pattern. Only called by
+		 * writers.
+		 */
+		@SuppressWarnings("unchecked")
+		private Node<Value> child(final String part, final String interned) {
+			if (isParameter(part)) {
+				if (parameter == null) {
+					parameter = new Node<Value>(null);
+				}
+				return parameter;
+			}
+			if (WILDCARD.equals(part)) {
+				if (wildcard == null) {
+					wildcard = new Node<Value>(null);
+				}
+				return wildcard;
+			}
+			final Node<Value> existing = literal(part, 0, part.length());
+			if (existing != null) {
+				return existing;
+			}
+			final Node<Value>[] nodes = children;
+			int index = 0;
+			while (index < nodes.length && nodes[index].segment.compareTo(part) < 0) {
+				index++;
+			}
+			final Node<Value>[] newChildren = new Node[nodes.length + 1];
+			System.arraycopy(nodes, 0, newChildren, 0, index);
+			System.arraycopy(nodes, index, newChildren, index + 1, nodes.length - index);
+			final Node<Value> child = new Node<Value>(interned);
+			newChildren[index] = child;
+			children = newChildren;
+			return child;
+		}
+	}
+
+}
@@ -0,0 +1,405 @@
+package delight.trie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleLock;
+
+/**
+ * A trie map which can also find the keys containing a fragment.<br/>
+ * Besides the trie, the keys are indexed by a generalized suffix automaton,
+ * which has a state for each class of substrings ending at the same
+ * positions. {@link #keysContaining(String)} walks the fragment through the
+ * automaton and collects the keys in the subtree of the reached state in the
+ * tree of suffix links. This takes time proportional to the length of the
+ * fragment plus the number of its occurrences in the keys.<br/>
+ * For a total length L of all keys, the automaton has at most 2L states and
+ * 3L transitions, which are kept in arrays of primitives: at most about 90
+ * bytes per character of the keys, plus the slack of growing arrays.<br/>
+ * Removed keys are dropped from the results right away and from the automaton
+ * when it is rebuilt, once more keys have been removed than remain.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public class SubstringTrieMap<Value> {
+
+	private static final int NONE = -1;
+
+	private final TrieMap<Slot<Value>> map;
+
+	private final SimpleLock lock;
+
+	/** The keys by their id, null for removed keys. */
+	private final List<String> keys = new ArrayList<String>();
+
+	private int removed;
+
+	// states
+	private int states;
+
+	private int[] length;
+
+	private int[] link;
+
+	private int[] firstEdge;
+
+	/** The first key whose prefix ends in the state. */
+	private int[] firstOccurrence;
+
+	// transitions as linked lists per state
+	private int edges;
+
+	private char[] edgeChar;
+
+	private int[] edgeTarget;
+
+	private int[] nextEdge;
+
+	// keys by the states their prefixes end in
+	private int occurrences;
+
+	private int[] occurrenceKey;
+
+	private int[] nextOccurrence;
+
+	// the tree of suffix links, rebuilt after writes
+	private boolean treeValid;
+
+	private int[] firstChild;
+
+	private int[] nextSibling;
+
+	/** Deduplicates the keys of one query. */
+	private int[] seen;
+
+	private int query;
+
+	public SubstringTrieMap(final Concurrency conn) {
+		map = new TrieMap<Slot<Value>>(conn);
+		lock = conn.newLock();
+		reset(16);
+	}
+
+	public Value get(final String key) {
+		final Slot<Value> slot = map.get(key);
+		return (slot == null) ? null : slot.value;
+	}
+
+	public boolean containsKey(final String key) {
+		return map.get(key) != null;
+	}
+
+	/**
+	 * Returns the keys starting with the given prefix.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the list
+	 */
+	public List<String> getCompletitions(final String prefix) {
+		return map.getCompletitions(prefix);
+	}
+
+	/**
+	 * Returns the keys containing the given fragment anywhere.
+	 *
+	 * @param fragment
+	 *            the fragment
+	 * @return the keys in no particular order
+	 */
+	public List<String> keysContaining(final String fragment) {
+		final List<String> result = new ArrayList<String>();
+		lock.lock();
+		try {
+			int state = 0;
+			for (int i = 0; i < fragment.length() && state != NONE; i++) {
+				state = transition(state, fragment.charAt(i));
+			}
+			if (state == NONE) {
+				return result;
+			}
+			if (!treeValid) {
+				buildTree();
+			}
+			query++;
+			// walk the subtree of suffix links below the state
+			int[] stack = new int[16];
+			int size = 0;
+			stack[size++] = state;
+			while (size > 0) {
+				final int current = stack[--size];
+				for (int o = firstOccurrence[current]; o != NONE; o = nextOccurrence[o]) {
+					final int key = occurrenceKey[o];
+					if (seen[key] != query && keys.get(key) != null) {
+						seen[key] = query;
+						result.add(keys.get(key));
+					}
+				}
+				for (int child = firstChild[current]; child != NONE; child = nextSibling[child]) {
+					if (size == stack.length) {
+						stack = Arrays.copyOf(stack, size * 2);
+					}
+					stack[size++] = child;
+				}
+			}
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Associates the value with the key. New keys are added to the
+	 * automaton in time proportional to their length.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the previous value or null
+	 */
+	public Value put(final String key, final Value value) {
+		lock.lock();
+		try {
+			final Slot<Value> existing = map.get(key);
+			if (existing != null) {
+				final Value result = existing.value;
+				existing.value = value;
+				return result;
+			}
+			final int id = keys.size();
+			keys.add(key);
+			index(key, id);
+			map.put(key, new Slot<Value>(id, value));
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Value remove(final String key) {
+		lock.lock();
+		try {
+			final Slot<Value> slot = map.remove(key);
+			if (slot == null) {
+				return null;
+			}
+			keys.set(slot.id, null);
+			removed++;
+			if (removed > keys.size() - removed) {
+				rebuild();
+			}
+			return slot.value;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public void clear() {
+		lock.lock();
+		try {
+			map.clear();
+			keys.clear();
+			removed = 0;
+			reset(16);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Builds a new automaton from the remaining keys.
+	 */
+	private void rebuild() {
+		final List<String> live = new ArrayList<String>(keys.size() - removed);
+		for (final String key : keys) {
+			if (key != null) {
+				live.add(key);
+			}
+		}
+		keys.clear();
+		removed = 0;
+		int total = 16;
+		for (final String key : live) {
+			total += key.length();
+		}
+		reset(2 * total);
+		for (final String key : live) {
+			final int id = keys.size();
+			keys.add(key);
+			index(key, id);
+			map.get(key).id = id;
+		}
+	}
+
+	private void reset(final int capacity) {
+		states = 0;
+		length = new int[capacity];
+		link = new int[capacity];
+		firstEdge = new int[capacity];
+		firstOccurrence = new int[capacity];
+		edges = 0;
+		edgeChar = new char[capacity];
+		edgeTarget = new int[capacity];
+		nextEdge = new int[capacity];
+		occurrences = 0;
+		occurrenceKey = new int[capacity];
+		nextOccurrence = new int[capacity];
+		seen = new int[capacity];
+		treeValid = false;
+		newState(0, NONE);
+	}
+
+	/**
+	 * Adds all suffixes of the key to the automaton.
+	 */
+	private void index(final String key, final int id) {
+		if (id >= seen.length) {
+			seen = Arrays.copyOf(seen, seen.length * 2);
+		}
+		int last = 0;
+		for (int i = 0; i < key.length(); i++) {
+			last = extend(last, key.charAt(i));
+			addOccurrence(last, id);
+		}
+		treeValid = false;
+	}
+
+	/**
+	 * Extends the automaton by a character following the state of the
+	 * previous prefix of a key.
+	 *
+	 * @return the state of the new prefix
+	 */
+	private int extend(final int last, final char c) {
+		final int existing = transition(last, c);
+		if (existing != NONE) {
+			// the new prefix is already known as substring of another key
+			if (length[last] + 1 == length[existing]) {
+				return existing;
+			}
+			return split(last, c, existing);
+		}
+		final int current = newState(length[last] + 1, NONE);
+		int p = last;
+		while (p != NONE && transition(p, c) == NONE) {
+			addEdge(p, c, current);
+			p = link[p];
+		}
+		int currentLink = 0;
+		if (p != NONE) {
+			final int q = transition(p, c);
+			// splitting may grow the arrays, so assign the link afterwards
+			currentLink = (length[p] + 1 == length[q]) ? q : split(p, c, q);
+		}
+		link[current] = currentLink;
+		return current;
+	}
+
+	/**
+	 * Clones the state q reached from p by c, so that the clone represents
+	 * only the substrings up to the length of p plus one.
+	 */
+	private int split(final int p, final char c, final int q) {
+		final int clone = newState(length[p] + 1, link[q]);
+		for (int e = firstEdge[q]; e != NONE; e = nextEdge[e]) {
+			addEdge(clone, edgeChar[e], edgeTarget[e]);
+		}
+		link[q] = clone;
+		for (int s = p; s != NONE && transition(s, c) == q; s = link[s]) {
+			setTransition(s, c, clone);
+		}
+		return clone;
+	}
+
+	private int newState(final int stateLength, final int stateLink) {
+		if (states == length.length) {
+			final int capacity = states * 2;
+			length = Arrays.copyOf(length, capacity);
+			link = Arrays.copyOf(link, capacity);
+			firstEdge = Arrays.copyOf(firstEdge, capacity);
+			firstOccurrence = Arrays.copyOf(firstOccurrence, capacity);
+		}
+		final int state = states++;
+		length[state] = stateLength;
+		link[state] = stateLink;
+		firstEdge[state] = NONE;
+		firstOccurrence[state] = NONE;
+		return state;
+	}
+
+	private int transition(final int state, final char c) {
+		for (int e = firstEdge[state]; e != NONE; e = nextEdge[e]) {
+			if (edgeChar[e] == c) {
+				return edgeTarget[e];
+			}
+		}
+		return NONE;
+	}
+
+	private void setTransition(final int state, final char c, final int target) {
+		for (int e = firstEdge[state]; e != NONE; e = nextEdge[e]) {
+			if (edgeChar[e] == c) {
+				edgeTarget[e] = target;
+				return;
+			}
+		}
+	}
+
+	private void addEdge(final int state, final char c, final int target) {
+		if (edges == edgeChar.length) {
+			final int capacity = edges * 2;
+			edgeChar = Arrays.copyOf(edgeChar, capacity);
+			edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+			nextEdge = Arrays.copyOf(nextEdge, capacity);
+		}
+		final int edge = edges++;
+		edgeChar[edge] = c;
+		edgeTarget[edge] = target;
+		nextEdge[edge] = firstEdge[state];
+		firstEdge[state] = edge;
+	}
+
+	private void addOccurrence(final int state, final int key) {
+		if (occurrences == occurrenceKey.length) {
+			final int capacity = occurrences * 2;
+			occurrenceKey = Arrays.copyOf(occurrenceKey, capacity);
+			nextOccurrence = Arrays.copyOf(nextOccurrence, capacity);
+		}
+		final int occurrence = occurrences++;
+		occurrenceKey[occurrence] = key;
+		nextOccurrence[occurrence] = firstOccurrence[state];
+		firstOccurrence[state] = occurrence;
+	}
+
+	private void buildTree() {
+		firstChild = new int[states];
+		nextSibling = new int[states];
+		Arrays.fill(firstChild, NONE);
+		for (int state = states - 1; state > 0; state--) {
+			nextSibling[state] = firstChild[link[state]];
+			firstChild[link[state]] = state;
+		}
+		treeValid = true;
+	}
+
+	private static final class Slot<Value> {
+
+		private int id;
+
+		private volatile Value value;
+
+		private Slot(final int id, final Value value) {
+			this.id = id;
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+package delight.trie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import delight.concurrency.Concurrency;
+
+/**
+ * A trie map matching keys against the end of a text, for instance domain
+ * policies against host names.<br/>
+ * Keys are stored reversed, so {@link #longestSuffixMatch(CharSequence)}
+ * walks the text from its end without copying or reversing it. Optionally
+ * matches have to start at a label boundary, so that with the separator
+ * <code>'.'</code> the key <code>example.com</code> matches
+ * <code>www.example.com</code> but not <code>counterexample.com</code>, and
+ * <code>ample.com</code> does not match <code>example.com</code>.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public class SuffixTrieMap<Value> {
+
+	private static final int NO_SEPARATOR = -1;
+
+	private final TrieMap<Value> map;
+
+	/** Contains only keys which have been added, unlike the map itself. */
+	private final Map<String, Value> entries;
+
+	private final int separator;
+
+	/**
+	 * Creates a map which matches suffixes at any position.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 */
+	public SuffixTrieMap(final Concurrency conn) {
+		this.map = new TrieMap<Value>(conn);
+		this.entries = map.prefixView("");
+		this.separator = NO_SEPARATOR;
+	}
+
+	/**
+	 * Creates a map which only matches suffixes starting after the separator.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 * @param separator
+	 *            the separator of labels, for instance <code>'.'</code>
+	 */
+	public SuffixTrieMap(final Concurrency conn, final char separator) {
+		this(conn, separator, CharNormalizers.IDENTITY);
+	}
+
+	/**
+	 * Creates a map which only matches suffixes starting after the separator
+	 * and compares normalized characters, for instance to match host names
+	 * case insensitively.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 * @param separator
+	 *            the separator of labels
+	 * @param normalizer
+	 *            the normalizer
+	 */
+	public SuffixTrieMap(final Concurrency conn, final char separator, final CharNormalizer normalizer) {
+		this.map = new TrieMap<Value>(conn, normalizer);
+		this.entries = map.prefixView("");
+		this.separator = separator;
+	}
+
+	public Value get(final String key) {
+		return map.get(reverse(key));
+	}
+
+	public boolean containsKey(final String key) {
+		return entries.containsKey(reverse(key));
+	}
+
+	/**
+	 * Returns the keys ending with the given suffix.
+	 *
+	 * @param suffix
+	 *            the suffix
+	 * @return the list
+	 */
+	public List<String> getKeysEndingWith(final String suffix) {
+		final List<String> reversed = map.getCompletitions(reverse(suffix));
+		final List<String> result = new ArrayList<String>(reversed.size());
+		for (final String key : reversed) {
+			result.add(reverse(key));
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the value of the longest key which is a suffix of the text and, if
+	 * this map has a separator, covers the whole text or follows a separator.
+	 *
+	 * @param text
+	 *            the text
+	 * @return the value or null
+	 */
+	public Value longestSuffixMatch(final CharSequence text) {
+		return map.getValueForLongestSuffix(text, separator);
+	}
+
+	public Value put(final String key, final Value value) {
+		return map.put(reverse(key), value);
+	}
+
+	public Value remove(final String key) {
+		return map.remove(reverse(key));
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public void clear() {
+		map.clear();
+	}
+
+	/**
+	 * Reverses the chars of the key. Unlike
+	 * {@link StringBuilder#reverse()} surrogate pairs are reversed as well,
+	 * as the lookup walks the text char by char.
+	 */
+	private static String reverse(final String key) {
+		final char[] chars = new char[key.length()];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = key.charAt(chars.length - 1 - i);
+		}
+		return new String(chars);
+	}
+
+}
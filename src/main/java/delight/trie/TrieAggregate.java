@@ -0,0 +1,31 @@
+package delight.trie;
+
+/**
+ * A summary of the values below a prefix which {@link TrieMap} keeps up to
+ * date in every node, see {@link TrieMap#addAggregate(TrieAggregate)}.<br/>
+ * The summaries form a monoid: {@link #combine(Object, Object)} has to be
+ * associative and {@link #identity()} its neutral element. Summaries are
+ * treated as immutable.
+ *
+ * @param <Value>
+ *            the value type
+ * @param <A>
+ *            the type of the summary
+ */
+public interface TrieAggregate<Value, A> {
+
+	/**
+	 * @return the summary of no entries
+	 */
+	public A identity();
+
+	/**
+	 * @param value
+	 *            the value of an entry, may be null
+	 * @return the summary of one entry
+	 */
+	public A of(Value value);
+
+	public A combine(A left, A right);
+
+}
@@ -0,0 +1,121 @@
+package delight.trie;
+
+/**
+ * Common {@link TrieAggregate}s.
+ */
+public final class TrieAggregates {
+
+	/**
+	 * Sums a number derived from each value.
+	 *
+	 * @param <Value>
+	 *            the value type
+	 */
+	public abstract static class Sum<Value> implements TrieAggregate<Value, Long> {
+
+		/**
+		 * @param value
+		 *            the value, may be null
+		 * @return the number to add for the value
+		 */
+		protected abstract long valueOf(Value value);
+
+		@Override
+		public Long identity() {
+			return Long.valueOf(0);
+		}
+
+		@Override
+		public Long of(final Value value) {
+			return Long.valueOf(valueOf(value));
+		}
+
+		@Override
+		public Long combine(final Long left, final Long right) {
+			return Long.valueOf(left.longValue() + right.longValue());
+		}
+	}
+
+	private static final TrieAggregate<Object, Integer> COUNT = new TrieAggregate<Object, Integer>() {
+
+		@Override
+		public Integer identity() {
+			return Integer.valueOf(0);
+		}
+
+		@Override
+		public Integer of(final Object value) {
+			return Integer.valueOf(1);
+		}
+
+		@Override
+		public Integer combine(final Integer left, final Integer right) {
+			return Integer.valueOf(left.intValue() + right.intValue());
+		}
+	};
+
+	private TrieAggregates() {
+	}
+
+	/**
+	 * Counts the entries. {@link TrieMap#countPrefix(String)} answers the same
+	 * from the counts every map keeps.
+	 *
+	 * @return the aggregate
+	 */
+	@SuppressWarnings("unchecked")
+	public static <Value> TrieAggregate<Value, Integer> count() {
+		return (TrieAggregate<Value, Integer>) (TrieAggregate<?, Integer>) COUNT;
+	}
+
+	/**
+	 * Finds the smallest value, ignoring null values.
+	 *
+	 * @return the aggregate, whose identity is null
+	 */
+	public static <Value extends Comparable<? super Value>> TrieAggregate<Value, Value> min() {
+		return new Extreme<Value>(-1);
+	}
+
+	/**
+	 * Finds the largest value, ignoring null values.
+	 *
+	 * @return the aggregate, whose identity is null
+	 */
+	public static <Value extends Comparable<? super Value>> TrieAggregate<Value, Value> max() {
+		return new Extreme<Value>(1);
+	}
+
+	private static final class Extreme<Value extends Comparable<? super Value>> implements
+			TrieAggregate<Value, Value> {
+
+		/** The sign of the comparison result of the preferred value. */
+		private final int sign;
+
+		private Extreme(final int sign) {
+			this.sign = sign;
+		}
+
+		@Override
+		public Value identity() {
+			return null;
+		}
+
+		@Override
+		public Value of(final Value value) {
+			return value;
+		}
+
+		@Override
+		public Value combine(final Value left, final Value right) {
+			if (left == null) {
+				return right;
+			}
+			if (right == null) {
+				return left;
+			}
+			return (Integer.signum(left.compareTo(right)) == -sign) ? right : left;
+		}
+	}
+
+}
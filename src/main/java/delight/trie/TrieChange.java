@@ -0,0 +1,66 @@
+package delight.trie;
+
+/**
+ * A difference between two trie maps as reported by
+ * {@link TrieMap#diff(TrieMap)}.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public final class TrieChange<Value> {
+
+	/**
+	 * The kinds of changes.
+	 */
+	public enum Kind {
+		/** The key is only contained in the new map. */
+		ADDED,
+		/** The key is only contained in the old map. */
+		REMOVED,
+		/** The key is contained in both maps with different values. */
+		CHANGED
+	}
+
+	private final Kind kind;
+
+	private final String key;
+
+	private final Value oldValue;
+
+	private final Value newValue;
+
+	TrieChange(final Kind kind, final String key, final Value oldValue, final Value newValue) {
+		this.kind = kind;
+		this.key = key;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the value in the old map or null if the key was added
+	 */
+	public Value getOldValue() {
+		return oldValue;
+	}
+
+	/**
+	 * @return the value in the new map or null if the key was removed
+	 */
+	public Value getNewValue() {
+		return newValue;
+	}
+
+	@Override
+	public String toString() {
+		return kind + " " + key + ": " + oldValue + " -> " + newValue;
+	}
+
+}
@@ -0,0 +1,32 @@
+package delight.trie;
+
+import java.util.List;
+
+/**
+ * Receives the changes made to a {@link TrieMap}, for instance to keep a
+ * replica or a derived index in sync.<br/>
+ * Every write reports its changes as one batch while it still holds its
+ * locks, so batches arrive in the order the changes were applied. The
+ * changes of a map are numbered consecutively, starting at 1. A listener
+ * which is slow should not block writers, see
+ * {@link delight.trie.jre.AsyncTrieListener}. A runtime exception thrown by a
+ * listener does not abort the write, it is only counted by
+ * {@link TrieMap#getListenerFailures()}.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public interface TrieListener<Value> {
+
+	/**
+	 * Receives a batch of changes.
+	 *
+	 * @param firstSequence
+	 *            the sequence number of the first change, the following
+	 *            changes have the next numbers
+	 * @param changes
+	 *            the changes, not to be modified
+	 */
+	public void onChanges(long firstSequence, List<TrieChange<Value>> changes);
+
+}
@@ -0,0 +1,141 @@
+package delight.trie;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleLock;
+
+/**
+ * Decides which locks serialize the writers of a {@link TrieMap}. Readers do
+ * not take any locks.<br/>
+ * Keys are assigned to one of a number of stripes by their first
+ * <code>depth</code> characters, so writers to keys in different stripes
+ * can proceed in parallel.<br/>
+ * The nodes above that depth are shared between all stripes. Operations which
+ * have to change them, or which span more than one stripe, hold every stripe.
+ */
+public final class TrieLocks {
+
+	/**
+	 * Stripe index denoting that an operation has to hold all stripes.
+	 */
+	public static final int ALL = -1;
+
+	private final SimpleLock[] locks;
+
+	private final int stripes;
+
+	private final int depth;
+
+	private TrieLocks(final SimpleLock[] locks, final int stripes, final int depth) {
+		if (stripes < 1) {
+			throw new IllegalArgumentException("At least one stripe is required but got " + stripes);
+		}
+		if (stripes > 1 && depth < 1) {
+			throw new IllegalArgumentException("Striping requires a depth of at least one but got " + depth);
+		}
+		this.locks = locks;
+		this.stripes = stripes;
+		this.depth = (stripes == 1) ? 0 : depth;
+	}
+
+	/**
+	 * Creates a single lock for the whole map.
+	 *
+	 * @param conn
+	 *            the concurrency the lock is created with
+	 * @return the locks
+	 */
+	public static TrieLocks global(final Concurrency conn) {
+		return striped(conn, 1, 0);
+	}
+
+	/**
+	 * Creates locks which are striped by the first <code>depth</code>
+	 * characters of the keys.
+	 *
+	 * @param conn
+	 *            the concurrency the locks are created with
+	 * @param stripes
+	 *            the number of stripes
+	 * @param depth
+	 *            the number of leading key characters that select a stripe
+	 * @return the locks
+	 */
+	public static TrieLocks striped(final Concurrency conn, final int stripes, final int depth) {
+		final SimpleLock[] locks = new SimpleLock[Math.max(stripes, 0)];
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = conn.newLock();
+		}
+		return new TrieLocks(locks, stripes, depth);
+	}
+
+	/**
+	 * @return the number of stripes
+	 */
+	public int stripes() {
+		return stripes;
+	}
+
+	/**
+	 * @return the number of leading key characters that select a stripe
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * Determines the stripe for the given key or prefix.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the stripe or {@link #ALL} if the key is shorter than the depth
+	 */
+	public int stripeOf(final CharSequence key) {
+		return stripeOf(key, CharNormalizers.IDENTITY);
+	}
+
+	/**
+	 * Determines the stripe for the given key or prefix by its normalized
+	 * characters, so that keys matching the same entry share a stripe.
+	 *
+	 * @param key
+	 *            the key
+	 * @param normalizer
+	 *            the normalizer of the map
+	 * @return the stripe or {@link #ALL} if the key is shorter than the depth
+	 */
+	public int stripeOf(final CharSequence key, final CharNormalizer normalizer) {
+		if (stripes == 1) {
+			return 0;
+		}
+		if (key == null || key.length() < depth) {
+			return ALL;
+		}
+		int hash = 0;
+		for (int i = 0; i < depth; i++) {
+			hash = 31 * hash + normalizer.normalize(key.charAt(i));
+		}
+		return (hash & 0x7fffffff) % stripes;
+	}
+
+	void writeLock(final int stripe) {
+		if (stripe != ALL) {
+			locks[stripe].lock();
+			return;
+		}
+		// always in ascending order to avoid dead locks
+		for (int i = 0; i < stripes; i++) {
+			locks[i].lock();
+		}
+	}
+
+	void writeUnlock(final int stripe) {
+		if (stripe != ALL) {
+			locks[stripe].unlock();
+			return;
+		}
+		for (int i = stripes - 1; i >= 0; i--) {
+			locks[i].unlock();
+		}
+	}
+
+}
@@ -26,7 +26,10 @@ package delight.trie;
  */
 
 import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -36,19 +39,27 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 
 
 import delight.concurrency.Concurrency;
-import delight.concurrency.wrappers.SimpleReadWriteLock;
+import delight.concurrency.wrappers.SimpleLock;
 
 /**
  * The TrieMap stores a list of strings in a tree based way.<br/>
  * On each String it is possible to assign an object.<br/>
- * Each Key-String can represent only one object.
+ * Each Key-String can represent only one object.<br/>
+ * Reads do not take any locks. Nodes are published safely and their children
+ * are replaced rather than modified, so a reader always sees a consistent
+ * path. Concurrent reads spanning many keys are weakly consistent.<br/>
+ * Writers are serialized by {@link TrieLocks}. By default a single lock is
+ * used for the whole map, striped locks let writers to different subtrees
+ * proceed in parallel.<br/>
+ * Keys can be matched case insensitively or otherwise normalized by a
+ * {@link CharNormalizer}. Characters are normalized while walking the trie,
+ * enumerated keys are reported as they were first added.
  * 
  * @param <Value>
  *            the value type
@@ -59,19 +70,123 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	/** The Constant serialVersionUID. */
 	private static final long serialVersionUID = 1L;
 
+	@SuppressWarnings("rawtypes")
+	private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+
+	private static final Object[] NO_AGGREGATES = new Object[0];
+
+	/** Set operations of {@link #combine(TrieMap, int)}. */
+	private static final int UNION = 0;
+
+	private static final int INTERSECTION = 1;
+
+	private static final int DIFFERENCE = 2;
+
 	private transient final Concurrency concurrency;
 	
 	/** The root node. */
-	private transient TrieNode<Value> rootNode;
+	private transient volatile TrieNode<Value> rootNode;
+
+	private transient final TrieLocks locks;
+
+	private transient final CharNormalizer normalizer;
+
+	private transient final TrieMetrics metrics;
+
+	/** Allows the uninstrumented paths to skip reading the clock. */
+	private transient final boolean instrumented;
+
+	/** Serializes the delivery of changes, taken while holding write locks. */
+	private transient final SimpleLock feedLock;
+
+	/** Replaced rather than modified, guarded by the feed lock. */
+	private transient volatile TrieListener<Value>[] listeners;
+
+	/** The sequence number of the last change, guarded by the feed lock. */
+	private transient long sequence;
+
+	/** The number of listener calls which threw, guarded by the feed lock. */
+	private transient long listenerFailures;
+
+	/** The aggregates kept in the nodes, replaced rather than modified. */
+	private transient volatile TrieAggregate<Value, ?>[] aggregates;
+
+	/** The caches of {@link #enableLookupCache(int)} or null. */
+	private transient volatile LookupCache<TrieNode<Value>> getCache;
 
-	private transient SimpleReadWriteLock lock; //= new SimpleReadWriteLock();
+	private transient volatile LookupCache<TrieNode<Value>> bestMatchCache;
 
 	/**
 	 * Instantiates a new trie map.
 	 */
 	public TrieMap(Concurrency conn) {
+		this(conn, TrieLocks.global(conn));
+	}
+
+	/**
+	 * Instantiates a new trie map guarded by the given locks.
+	 * 
+	 * @param conn
+	 *            the concurrency
+	 * @param locks
+	 *            the locks, for instance {@link TrieLocks#striped(Concurrency, int, int)}
+	 */
+	public TrieMap(Concurrency conn, final TrieLocks locks) {
+		this(conn, locks, CharNormalizers.IDENTITY);
+	}
+
+	/**
+	 * Instantiates a new trie map which matches keys by their normalized
+	 * characters.
+	 * 
+	 * @param conn
+	 *            the concurrency
+	 * @param normalizer
+	 *            the normalizer, for instance
+	 *            {@link CharNormalizers#CASE_INSENSITIVE}
+	 */
+	public TrieMap(Concurrency conn, final CharNormalizer normalizer) {
+		this(conn, TrieLocks.global(conn), normalizer);
+	}
+
+	/**
+	 * Instantiates a new trie map guarded by the given locks which matches
+	 * keys by their normalized characters.
+	 * 
+	 * @param conn
+	 *            the concurrency
+	 * @param locks
+	 *            the locks
+	 * @param normalizer
+	 *            the normalizer
+	 */
+	public TrieMap(Concurrency conn, final TrieLocks locks, final CharNormalizer normalizer) {
+		this(conn, locks, normalizer, TrieMetrics.DISABLED);
+	}
+
+	/**
+	 * Instantiates a new trie map which reports measurements to the given
+	 * metrics.
+	 * 
+	 * @param conn
+	 *            the concurrency
+	 * @param locks
+	 *            the locks
+	 * @param normalizer
+	 *            the normalizer
+	 * @param metrics
+	 *            the metrics or {@link TrieMetrics#DISABLED}
+	 */
+	public TrieMap(Concurrency conn, final TrieLocks locks, final CharNormalizer normalizer,
+			final TrieMetrics metrics) {
 		concurrency = conn;
-		lock = conn.newReadWriteLock();
+		this.locks = locks;
+		this.normalizer = normalizer;
+		this.metrics = metrics;
+		this.instrumented = metrics != TrieMetrics.DISABLED;
+		this.feedLock = conn.newLock();
+		this.listeners = noListeners();
+		this.aggregates = noAggregates();
 		rootNode = new TrieNode<Value>(' ', null, false);
 	}
 
@@ -100,7 +215,7 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 * @return true, if successful
 	 */
 	public boolean add(final String phrase) {
-		return addRecursive(rootNode, phrase, null, false);
+		return addLocked(phrase, null, false);
 	}
 
 	/**
@@ -115,7 +230,98 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 * @return true, if successful
 	 */
 	public boolean add(final String phrase, final Value object) {
-		return addRecursive(rootNode, phrase, object, false);
+		return addLocked(phrase, object, false);
+	}
+
+	/**
+	 * Keeps the given aggregate in every node from now on, so that
+	 * {@link #aggregate(String, TrieAggregate)} answers it for any prefix
+	 * without enumerating the entries.<br/>
+	 * Computing it for the existing entries visits all nodes once. Every
+	 * write then recomputes the aggregates of the nodes on the path of its
+	 * key from their children, nodes shared between lock stripes derive them
+	 * when asked.
+	 * 
+	 * @param aggregate
+	 *            the aggregate
+	 */
+	public void addAggregate(final TrieAggregate<Value, ?> aggregate) {
+		writeLock(TrieLocks.ALL);
+		try {
+			final TrieAggregate<Value, ?>[] current = aggregates;
+			for (final TrieAggregate<Value, ?> existing : current) {
+				if (existing == aggregate) {
+					return;
+				}
+			}
+			final TrieAggregate<Value, ?>[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = aggregate;
+			// parents come before their children, so summarize in reverse
+			final List<TrieNode<Value>> nodes = new ArrayList<TrieNode<Value>>();
+			nodes.add(rootNode);
+			for (int i = 0; i < nodes.size(); i++) {
+				nodes.addAll(Arrays.asList(nodes.get(i).getChildren()));
+			}
+			for (int i = nodes.size() - 1; i >= 0; i--) {
+				nodes.get(i).setAggregates(summarize(nodes.get(i), updated));
+			}
+			aggregates = updated;
+		} finally {
+			locks.writeUnlock(TrieLocks.ALL);
+		}
+	}
+
+	/**
+	 * Registers a listener for all changes made to this map from now on,
+	 * through any of its methods or views.<br/>
+	 * Changes are only collected while listeners are registered. Removing
+	 * many entries at once then also visits all of them.<br/>
+	 * Runtime exceptions thrown by the listener are caught, so that the write
+	 * completes and the other listeners still receive the changes. They are
+	 * counted by {@link #getListenerFailures()}.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addListener(final TrieListener<Value> listener) {
+		feedLock.lock();
+		try {
+			final TrieListener<Value>[] current = listeners;
+			final TrieListener<Value>[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = listener;
+			listeners = updated;
+		} finally {
+			feedLock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the aggregate of the entries whose keys start with the given
+	 * prefix, in time proportional to the length of the prefix.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 * @param aggregate
+	 *            an aggregate added by {@link #addAggregate(TrieAggregate)}
+	 * @return the aggregate
+	 */
+	public <A> A aggregate(final String prefix, final TrieAggregate<Value, A> aggregate) {
+		final TrieAggregate<Value, ?>[] current = aggregates;
+		int index = -1;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == aggregate) {
+				index = i;
+			}
+		}
+		if (index < 0) {
+			throw new IllegalArgumentException("The aggregate has not been added to this map");
+		}
+		final String path = (prefix == null) ? "" : prefix;
+		final TrieNode<Value> node = matchPrefix(rootNode, path);
+		if (node == null) {
+			return aggregate.identity();
+		}
+		return aggregateOf(node, path.length(), aggregate, index);
 	}
 
 	
@@ -127,11 +333,53 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 */
 	@Override
 	public void clear() {
-		rootNode = new TrieNode<Value>(' ', null, false);
+		writeLock(TrieLocks.ALL);
+		try {
+			if (isObserved()) {
+				publish(removedEntries(rootNode, "", null));
+			}
+			rootNode = new TrieNode<Value>(' ', null, false);
+			invalidateCaches("", true);
+		} finally {
+			locks.writeUnlock(TrieLocks.ALL);
+		}
 	}
 
 	
 
+	/**
+	 * Returns one page of the keys stored below the given prefix, in the
+	 * order of {@link #getCompletitions(String)}.<br/>
+	 * Subtrees before the page are skipped by the counts kept in the nodes
+	 * rather than enumerated, so the cost depends on the length of the keys
+	 * and the size of the page but not on the offset.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 * @param offset
+	 *            the number of keys to skip
+	 * @param limit
+	 *            the maximum number of keys to return
+	 * @return the list
+	 */
+	public List<String> completions(final String prefix, final int offset, final int limit) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("Offset and limit must not be negative but were " + offset + " and "
+					+ limit);
+		}
+		final long start = instrumented ? metrics.now() : 0;
+		final String path = (prefix == null) ? "" : prefix;
+		final TrieNode<Value> matchedNode = matchPrefix(rootNode, path);
+		final List<String> completions = new ArrayList<String>(Math.min(limit, 64));
+		if (matchedNode != null && limit > 0) {
+			findCompletionsFrom(matchedNode, new StringBuilder(path), offset, limit, completions);
+		}
+		if (instrumented) {
+			metrics.operation(TrieMetrics.Operation.COMPLETIONS, start);
+		}
+		return completions;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -140,6 +388,9 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	@Override
 	public boolean containsKey(final Object key) {
 		if (key instanceof String) {
+			if (instrumented) {
+				return matchMeasured(TrieMetrics.Operation.CONTAINS, (String) key) != null;
+			}
 			return containsPrefix((String) key);
 		}
 		return false;
@@ -154,7 +405,7 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 * @return true, if successful
 	 */
 	public boolean containsPrefix(final String prefix) {
-		final TrieNode<Value> matchedNode = matchPrefixRecursive(rootNode, prefix);
+		final TrieNode<Value> matchedNode = matchPrefix(rootNode, prefix);
 		return (matchedNode != null);
 	}
 
@@ -168,6 +419,44 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		return getPathForValue(value) != null;
 	}
 
+	/**
+	 * Counts the entries whose keys start with the given prefix from the
+	 * counts kept in the nodes, without enumerating them.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 * @return the number of entries
+	 */
+	public int countPrefix(final String prefix) {
+		final String path = (prefix == null) ? "" : prefix;
+		final TrieNode<Value> node = matchPrefix(rootNode, path);
+		return (node == null) ? 0 : countEntries(node, path.length());
+	}
+
+	/**
+	 * Compares this map as the old state with the given map as the new state.
+	 * <br/>
+	 * Both tries are walked in lockstep over their sorted children, the
+	 * changes are found lazily while iterating. Keys are only created for
+	 * reported changes.
+	 * 
+	 * @param other
+	 *            the new state
+	 * @return the added, removed and changed entries in key order
+	 */
+	public Iterable<TrieChange<Value>> diff(final TrieMap<Value> other) {
+		checkNormalizer(other);
+		final TrieNode<Value> oldRoot = rootNode;
+		final TrieNode<Value> newRoot = other.rootNode;
+		return new Iterable<TrieChange<Value>>() {
+
+			@Override
+			public Iterator<TrieChange<Value>> iterator() {
+				return new DiffIterator<Value>(oldRoot, newRoot);
+			}
+		};
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -182,8 +471,40 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		return result;
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Puts a small cache in front of {@link #get(Object)} and
+	 * {@link #getValueForBestMatchingKey(String)}, for maps where few hot
+	 * keys serve most lookups. The cache maps the hash of a key directly to
+	 * the node found for it, so repeating a lookup takes a single probe
+	 * instead of a walk from the root.<br/>
+	 * An entry is invalidated when its key is added or removed, cached best
+	 * matches also when a prefix of their key is. A write lets only the best
+	 * matches expire which share a group of leading characters with the
+	 * written key, without scanning the cache. Writes which remove many keys
+	 * at once scan the cache of lookups.
+	 * 
+	 * @param capacity
+	 *            the number of entries of each cache, rounded up to a power
+	 *            of two, or 0 to remove the cache
+	 */
+	public void enableLookupCache(final int capacity) {
+		writeLock(TrieLocks.ALL);
+		try {
+			if (capacity <= 0) {
+				getCache = null;
+				bestMatchCache = null;
+			} else {
+				getCache = new LookupCache<TrieNode<Value>>(capacity, normalizer, concurrency.newLock(), locks);
+				bestMatchCache = new LookupCache<TrieNode<Value>>(capacity, normalizer, concurrency.newLock(), locks);
+			}
+		} finally {
+			locks.writeUnlock(TrieLocks.ALL);
+		}
+	}
+
+	/**
+	 * Compares the maps by their size and hash first and only then node by
+	 * node, without recursion.
 	 * 
 	 * @see java.lang.Object#equals(java.lang.Object)
 	 */
@@ -195,19 +516,18 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		if (obj == null) {
 			return false;
 		}
-		if (getClass() != obj.getClass()) {
+		if (!(obj instanceof Map)) {
 			return false;
 		}
-		@SuppressWarnings("rawtypes")
-		final TrieMap other = (TrieMap) obj;
-		if (rootNode == null) {
-			if (other.rootNode != null) {
-				return false;
-			}
-		} else if (!rootNode.equals(other.rootNode)) {
+		final Map<?, ?> other = (Map<?, ?>) obj;
+		if (size() != other.size() || hashCode() != other.hashCode()) {
 			return false;
 		}
-		return true;
+		if (obj instanceof TrieMap && ((TrieMap<?>) obj).normalizer == normalizer
+				&& equalNodes(rootNode, ((TrieMap<?>) obj).rootNode)) {
+			return true;
+		}
+		return containsEntries(other);
 	}
 
 	/**
@@ -221,7 +541,7 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 * @return true, if successful
 	 */
 	public boolean forceAdd(final String phrase, final Value object) {
-		return addRecursive(rootNode, phrase, object, true);
+		return addLocked(phrase, object, true);
 	}
 
 	/*
@@ -232,11 +552,15 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	@Override
 	public Value get(final Object key) {
 		if (key instanceof String) {
-			final TrieNode<Value> matchedNode = matchPrefixRecursive(rootNode, (String) key);
-			if (matchedNode != null) {
-				final Value result = matchedNode.getObject();
-				return result;
+			final LookupCache<TrieNode<Value>> cache = getCache;
+			if (cache != null) {
+				return getCached(cache, (String) key);
 			}
+			if (instrumented) {
+				final TrieNode<Value> node = matchMeasured(TrieMetrics.Operation.GET, (String) key);
+				return (node == null) ? null : node.getObject();
+			}
+			return getUnlocked((String) key);
 		}
 		return null;
 	}
@@ -257,7 +581,7 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		if (isEmpty(prefix)) {
 			return null;
 		}
-		final TrieNode<Value> trieNode = rootNode.getChildNode(prefix.charAt(0));
+		final TrieNode<Value> trieNode = rootNode.getChildNode(charAt(prefix, 0));
 		if (trieNode != null) {
 			final StringBuilder builder = new StringBuilder().append(prefix.charAt(0));
 			final String subPrefix = prefix.substring(1);
@@ -279,12 +603,29 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 * @return the list
 	 */
 	public List<String> getCompletitions(final String prefix) {
-		final TrieNode<Value> matchedNode = matchPrefixRecursive(rootNode, prefix);
+		final long start = instrumented ? metrics.now() : 0;
+		final TrieNode<Value> matchedNode = matchPrefix(rootNode, prefix);
 		final List<String> completions = new ArrayList<String>();
 		findCompletionsRecursive(matchedNode, prefix, completions);
+		if (instrumented) {
+			metrics.operation(TrieMetrics.Operation.COMPLETIONS, start);
+		}
 		return completions;
 	}
 
+	/**
+	 * @return the number of times a listener threw an exception when it was
+	 *         handed changes, see {@link #addListener(TrieListener)}
+	 */
+	public long getListenerFailures() {
+		feedLock.lock();
+		try {
+			return listenerFailures;
+		} finally {
+			feedLock.unlock();
+		}
+	}
+
 	/**
 	 * Gets the path for the given value.
 	 * 
@@ -298,16 +639,22 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	}
 
 	/**
-	 * Gets a Map of Objects with it's keys that are below the given prefix.
+	 * Gets a Map of Objects with it's keys that are below the given prefix.<br/>
+	 * The entries are copied into a new TrieMap, use {@link #prefixView(String)}
+	 * to access them without copying.
 	 * 
 	 * @param prefix
 	 *            the prefix
 	 * @return the object entries
 	 */
 	public TrieMap<Value> getSubMap(final String prefix) {
-		final TrieNode<Value> matchedNode = matchPrefixRecursive(rootNode, prefix);
-		final TrieMap<Value> completitions = new TrieMap<Value>(concurrency);
+		final long start = instrumented ? metrics.now() : 0;
+		final TrieMap<Value> completitions = new TrieMap<Value>(concurrency, normalizer);
+		final TrieNode<Value> matchedNode = matchPrefix(rootNode, prefix);
 		findObjectMapRecursive(matchedNode, prefix, completitions);
+		if (instrumented) {
+			metrics.operation(TrieMetrics.Operation.SUB_MAP, start);
+		}
 		return completitions;
 	}
 
@@ -320,9 +667,13 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 * @return the list
 	 */
 	public List<Value> getSubValues(final String prefix) {
-		final TrieNode<Value> matchedNode = (prefix == null) ? rootNode : matchPrefixRecursive(rootNode, prefix);
+		final long start = instrumented ? metrics.now() : 0;
+		final TrieNode<Value> matchedNode = (prefix == null) ? rootNode : matchPrefix(rootNode, prefix);
 		final List<Value> completions = new LinkedList<Value>();
 		findObjectsRecursive(matchedNode, prefix, completions);
+		if (instrumented) {
+			metrics.operation(TrieMetrics.Operation.SUB_VALUES, start);
+		}
 		return completions;
 	}
 
@@ -339,7 +690,45 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		if (isEmpty(prefix)) {
 			return null;
 		}
-		final Value result = getLastMatchingObject(rootNode, prefix, null);
+		final long start = instrumented ? metrics.now() : 0;
+		final LookupCache<TrieNode<Value>> cache = bestMatchCache;
+		final Value result = (cache == null) ? getLastMatchingObject(rootNode, prefix, null) : getBestMatchCached(
+				cache, prefix);
+		if (instrumented) {
+			metrics.operation(TrieMetrics.Operation.BEST_MATCH, start);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the value of the longest key which, read backwards, is a suffix of
+	 * the given text. The text is walked from its end without copying it.<br/>
+	 * This is the lookup of {@link SuffixTrieMap}, which stores its keys
+	 * reversed.
+	 *
+	 * @param text
+	 *            the text
+	 * @param separator
+	 *            a character a match has to follow unless it covers the whole
+	 *            text, or -1 to accept matches at any position
+	 * @return the value or null
+	 */
+	Value getValueForLongestSuffix(final CharSequence text, final int separator) {
+		final long start = instrumented ? metrics.now() : 0;
+		Value result = null;
+		TrieNode<Value> node = rootNode;
+		for (int i = text.length() - 1; i >= 0; i--) {
+			node = node.getChildNode(normalizer.normalize(text.charAt(i)));
+			if (node == null) {
+				break;
+			}
+			if (node.isBoundary() && (separator < 0 || i == 0 || text.charAt(i - 1) == separator)) {
+				result = node.getObject();
+			}
+		}
+		if (instrumented) {
+			metrics.operation(TrieMetrics.Operation.BEST_MATCH, start);
+		}
 		return result;
 	}
 
@@ -372,17 +761,28 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		return result;
 	}
 
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Returns the sum of the hashes of the entries as specified by
+	 * {@link Map#hashCode()}. The sums are kept up to date by writes, so only
+	 * the nodes shared between lock stripes are visited.
 	 * 
 	 * @see java.lang.Object#hashCode()
 	 */
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((rootNode == null) ? 0 : rootNode.hashCode());
-		return result;
+		return hashEntries(rootNode, new StringBuilder());
+	}
+
+	/**
+	 * Returns a new map with the entries of this map whose keys are also
+	 * contained in the given map.
+	 * 
+	 * @param other
+	 *            the other map
+	 * @return the intersection
+	 */
+	public TrieMap<Value> intersect(final TrieMap<Value> other) {
+		return combine(other, INTERSECTION);
 	}
 
 	/*
@@ -392,7 +792,7 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 */
 	@Override
 	public boolean isEmpty() {
-		return rootNode.getChildren().isEmpty();
+		return size() == 0;
 	}
 
 	/*
@@ -407,6 +807,67 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		return new TreeSet<String>(keys);
 	}
 
+	/**
+	 * Returns the entries whose keys match the given glob, see
+	 * {@link TriePattern#glob(String)}.
+	 * 
+	 * @param glob
+	 *            the glob, for instance <code>svc-*&#47;prod/??/config</code>
+	 * @return the matching entries in key order
+	 */
+	public Iterable<Map.Entry<String, Value>> match(final String glob) {
+		return match(TriePattern.glob(glob));
+	}
+
+	/**
+	 * Returns the entries whose keys match the given pattern.<br/>
+	 * The pattern is evaluated while walking the trie, subtrees no key of which
+	 * can match are skipped. The entries are found lazily while iterating and
+	 * are weakly consistent with concurrent writes.
+	 * 
+	 * @param pattern
+	 *            the pattern
+	 * @return the matching entries in key order
+	 */
+	public Iterable<Map.Entry<String, Value>> match(final TriePattern pattern) {
+		return new Iterable<Map.Entry<String, Value>>() {
+
+			@Override
+			public Iterator<Map.Entry<String, Value>> iterator() {
+				return new MatchIterator(pattern);
+			}
+		};
+	}
+
+	/**
+	 * Returns a live view of the entries below the given prefix. Nothing is
+	 * copied, reads and writes of the view pass through to this map.<br/>
+	 * The keys of the view include the prefix.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 * @return the view
+	 */
+	public Map<String, Value> prefixView(final String prefix) {
+		return prefixView(prefix, false);
+	}
+
+	/**
+	 * Returns a live view of the entries below the given prefix. Nothing is
+	 * copied, reads and writes of the view pass through to this map.<br/>
+	 * Unlike {@link #containsKey(Object)} of this map, the view only contains
+	 * keys which have been added.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 * @param stripPrefix
+	 *            if true the keys of the view are reported without the prefix
+	 * @return the view
+	 */
+	public Map<String, Value> prefixView(final String prefix, final boolean stripPrefix) {
+		return new PrefixView(prefix == null ? "" : prefix, stripPrefix);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -414,9 +875,15 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 */
 	@Override
 	public Value put(final String key, final Value value) {
-		final Value preResult = get(key);
-		forceAdd(key, value);
-		return preResult;
+		if (!instrumented) {
+			return putLocked(key, value);
+		}
+		final long start = metrics.now();
+		try {
+			return putLocked(key, value);
+		} finally {
+			metrics.operation(TrieMetrics.Operation.PUT, start);
+		}
 	}
 
 	/*
@@ -433,6 +900,40 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		}
 	}
 
+	/**
+	 * Gets the position the given key has or would have among the keys of
+	 * this map in the order of {@link #getCompletitions(String)}, which is
+	 * the number of smaller keys.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the position
+	 */
+	public int rank(final String key) {
+		int rank = 0;
+		TrieNode<Value> node = rootNode;
+		for (int i = 0; i < key.length(); i++) {
+			if (node.isBoundary()) {
+				// a prefix of the key is smaller
+				rank++;
+			}
+			final char c = charAt(key, i);
+			TrieNode<Value> next = null;
+			for (final TrieNode<Value> child : node.getChildren()) {
+				if (child.getNodeValue() >= c) {
+					next = (child.getNodeValue() == c) ? child : null;
+					break;
+				}
+				rank += countEntries(child, i + 1);
+			}
+			if (next == null) {
+				return rank;
+			}
+			node = next;
+		}
+		return rank;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -440,15 +941,115 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 */
 	@Override
 	public Value remove(final Object key) {
-		if (key instanceof String) {
-			final TrieNode<Value> matchedNode = matchPrefixRecursive(rootNode, (String) key);
-			if (matchedNode != null) {
-				final Value object = matchedNode.removeObject();
-				matchedNode.setBoundary(false);
-				return object;
+		if (!instrumented) {
+			return removeLocked(key);
+		}
+		final long start = metrics.now();
+		try {
+			return removeLocked(key);
+		} finally {
+			metrics.operation(TrieMetrics.Operation.REMOVE, start);
+		}
+	}
+
+	/**
+	 * Unregisters a listener.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeListener(final TrieListener<Value> listener) {
+		feedLock.lock();
+		try {
+			final List<TrieListener<Value>> remaining = new ArrayList<TrieListener<Value>>(Arrays.asList(listeners));
+			remaining.remove(listener);
+			listeners = remaining.toArray(noListeners());
+		} finally {
+			feedLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all entries below the given prefix, including the entry for the
+	 * prefix itself.<br/>
+	 * The subtree is detached as a whole, so this costs about as much as a
+	 * single lookup regardless of the number of entries removed.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 * @return the number of removed entries
+	 */
+	public int removePrefix(final String prefix) {
+		if (!instrumented) {
+			return removePrefixLocked(prefix);
+		}
+		final long start = metrics.now();
+		try {
+			return removePrefixLocked(prefix);
+		} finally {
+			metrics.operation(TrieMetrics.Operation.REMOVE_PREFIX, start);
+		}
+	}
+
+	/**
+	 * Removes all entries which are not below the given prefix.<br/>
+	 * The retained subtree is kept as is and published with a new root in one
+	 * step.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 * @return the number of removed entries
+	 */
+	public int retainPrefix(final String prefix) {
+		if (isEmpty(prefix)) {
+			return 0;
+		}
+		writeLock(TrieLocks.ALL);
+		try {
+			final int before = countEntries(rootNode, 0);
+			final TrieNode<Value> node = matchPrefix(rootNode, prefix);
+			if (isObserved()) {
+				publish(removedEntries(rootNode, "", (node == null) ? null : normalize(prefix).toString()));
 			}
+			if (node == null) {
+				rootNode = new TrieNode<Value>(' ', null, false);
+				invalidateCaches("", true);
+				return before;
+			}
+			final int retained = countEntries(node, prefix.length());
+			final int retainedHash = hashEntries(node, normalize(prefix));
+			TrieNode<Value> child = node;
+			for (int i = prefix.length() - 1; i >= 0; i--) {
+				final TrieNode<Value> parent = new TrieNode<Value>((i == 0) ? ' ' : charAt(prefix, i - 1), null,
+						false);
+				parent.attach(child);
+				if (i >= locks.depth()) {
+					parent.addToSize(retained);
+					parent.addToHash(retainedHash);
+				}
+				child = parent;
+			}
+			rootNode = child;
+			updateAggregates(prefix, prefix.length());
+			// best matches may have been prefixes of the retained keys
+			invalidateCaches(prefix, false);
+			return before - retained;
+		} finally {
+			locks.writeUnlock(TrieLocks.ALL);
 		}
-		return null;
+	}
+
+	/**
+	 * Gets the key at the given position in the order of
+	 * {@link #getCompletitions(String)}.
+	 * 
+	 * @param index
+	 *            the position
+	 * @return the key or null if there are not that many keys
+	 */
+	public String select(final int index) {
+		final List<String> keys = completions("", index, 1);
+		return keys.isEmpty() ? null : keys.get(0);
 	}
 
 	/*
@@ -458,7 +1059,53 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 	 */
 	@Override
 	public int size() {
-		return keySet().size();
+		return countEntries(rootNode, 0);
+	}
+
+	/**
+	 * Walks the trie once and collects statistics about its structure, for
+	 * instance to estimate its memory footprint.<br/>
+	 * The walk takes no locks, concurrent writes may or may not be reflected.
+	 * 
+	 * @return the statistics
+	 */
+	public TrieStats stats() {
+		final TrieStats stats = new TrieStats();
+		final List<TrieNode<Value>> nodes = new ArrayList<TrieNode<Value>>();
+		// depth and length of the chain above for each node to visit
+		final List<int[]> positions = new ArrayList<int[]>();
+		nodes.add(rootNode);
+		positions.add(new int[] { 0, 0 });
+		while (!nodes.isEmpty()) {
+			final TrieNode<Value> node = nodes.remove(nodes.size() - 1);
+			final int[] position = positions.remove(positions.size() - 1);
+			final int depth = position[0];
+			final TrieNode<Value>[] children = node.getChildren();
+			stats.addNode(node.getNodeValue(), depth, children.length, node.isBoundary(), node.getAggregates().length);
+			int chain = 0;
+			if (depth > 0 && children.length == 1 && !node.isBoundary()) {
+				chain = position[1] + 1;
+			} else if (position[1] > 0) {
+				stats.addChain(position[1]);
+			}
+			for (final TrieNode<Value> child : children) {
+				nodes.add(child);
+				positions.add(new int[] { depth + 1, chain });
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Returns a new map with the entries of this map whose keys are not
+	 * contained in the given map.
+	 * 
+	 * @param other
+	 *            the other map
+	 * @return the difference
+	 */
+	public TrieMap<Value> subtract(final TrieMap<Value> other) {
+		return combine(other, DIFFERENCE);
 	}
 
 	/*
@@ -471,6 +1118,18 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		return rootNode.toString();
 	}
 
+	/**
+	 * Returns a new map with the entries of both maps. For keys contained in
+	 * both the value of the given map is taken.
+	 * 
+	 * @param other
+	 *            the other map
+	 * @return the union
+	 */
+	public TrieMap<Value> union(final TrieMap<Value> other) {
+		return combine(other, UNION);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -481,39 +1140,742 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		return getSubValues("");
 	}
 
-	private boolean addRecursive(final TrieNode<Value> node, final String phrase, final Value object,
-			final boolean force) {
-		if (isEmpty(phrase)) {
-			return true;
-		}
-		final char firstChar = phrase.charAt(0);
-
-		final String subString = phrase.substring(1);
-		if (isEmpty(subString)) {
-			if (node.add(firstChar, object, force, true)) {
-				return true;
+	private Value putLocked(final String key, final Value value) {
+		final int stripe = locks.stripeOf(key, normalizer);
+		if (stripe != TrieLocks.ALL) {
+			writeLock(stripe);
+			try {
+				if (isStripeOwned(key)) {
+					final Value preResult = getUnlocked(key);
+					insert(key, value, true);
+					return preResult;
+				}
+			} finally {
+				locks.writeUnlock(stripe);
 			}
-			return false;
-		} else {
-			node.add(firstChar, null, force, false);
 		}
+		writeLock(TrieLocks.ALL);
+		try {
+			final Value preResult = getUnlocked(key);
+			insert(key, value, true);
+			return preResult;
+		} finally {
+			locks.writeUnlock(TrieLocks.ALL);
+		}
+	}
 
-		final TrieNode<Value> childNode = node.getChildNode(firstChar);
-		if (childNode != null) {
-			return addRecursive(childNode, subString, object, force);
+	private Value removeLocked(final Object key) {
+		if (key instanceof String) {
+			final int stripe = locks.stripeOf((String) key, normalizer);
+			writeLock(stripe);
+			try {
+				final String phrase = (String) key;
+				final TrieNode<Value> matchedNode = matchPrefix(rootNode, phrase);
+				if (matchedNode != null) {
+					final boolean wasBoundary = matchedNode.isBoundary();
+					final String spelling = matchedNode.getKey(phrase);
+					final Value object = matchedNode.removeObject();
+					matchedNode.setBoundary(false);
+					matchedNode.setSpelling(null);
+					if (wasBoundary) {
+						adjustSizes(phrase, phrase.length(), -1, -entryHash(spelling, object));
+						prune(phrase, phrase.length());
+						updateAggregates(phrase, phrase.length());
+						invalidateCaches(phrase);
+						if (isObserved()) {
+							publish(Collections.singletonList(new TrieChange<Value>(TrieChange.Kind.REMOVED, spelling,
+									object, null)));
+						}
+					}
+					return object;
+				}
+			} finally {
+				locks.writeUnlock(stripe);
+			}
 		}
-		return false;
+		return null;
 	}
 
-	private void findCompletionsRecursive(final TrieNode<Value> node, final String prefix,
+	private int removePrefixLocked(final String prefix) {
+		final String path = (prefix == null) ? "" : prefix;
+		// the parent of the detached node must be owned by the stripe
+		final int stripe = (path.length() > locks.depth()) ? locks.stripeOf(path, normalizer) : TrieLocks.ALL;
+		writeLock(stripe);
+		try {
+			if (path.length() == 0) {
+				final int removed = countEntries(rootNode, 0);
+				if (isObserved()) {
+					publish(removedEntries(rootNode, "", null));
+				}
+				rootNode = new TrieNode<Value>(' ', null, false);
+				invalidateCaches("", true);
+				return removed;
+			}
+			final int last = path.length() - 1;
+			final TrieNode<Value> parent = matchPrefix(rootNode, path.substring(0, last));
+			if (parent == null) {
+				return 0;
+			}
+			final TrieNode<Value> node = parent.getChildNode(charAt(path, last));
+			if (node == null) {
+				return 0;
+			}
+			final int removed = countEntries(node, path.length());
+			final int removedHash = hashEntries(node, normalize(path));
+			if (isObserved()) {
+				publish(removedEntries(node, normalize(path).toString(), null));
+			}
+			parent.removeChild(charAt(path, last));
+			adjustSizes(path, last, -removed, -removedHash);
+			prune(path, last);
+			updateAggregates(path, last);
+			invalidateCaches(path, true);
+			return removed;
+		} finally {
+			locks.writeUnlock(stripe);
+		}
+	}
+
+	/**
+	 * Takes the write lock of the stripe, measuring the time spent waiting.
+	 */
+	private void writeLock(final int stripe) {
+		if (!instrumented) {
+			locks.writeLock(stripe);
+			return;
+		}
+		final long start = metrics.now();
+		locks.writeLock(stripe);
+		metrics.lockWait(start);
+	}
+
+	/**
+	 * Looks up the node for the key and reports the lookup to the metrics.
+	 */
+	private TrieNode<Value> matchMeasured(final TrieMetrics.Operation operation, final String key) {
+		final long start = metrics.now();
+		TrieNode<Value> node = rootNode;
+		int depth = 0;
+		while (node != null && depth < key.length()) {
+			final TrieNode<Value> child = node.getChildNode(charAt(key, depth));
+			if (child == null) {
+				node = null;
+			} else {
+				node = child;
+				depth++;
+			}
+		}
+		final boolean hit = node != null && (operation != TrieMetrics.Operation.GET || node.isBoundary());
+		metrics.lookup(operation, depth, hit, start);
+		return node;
+	}
+
+	/**
+	 * Builds the result of a set operation by walking both tries in lockstep.
+	 * The nodes of the result are created directly, no keys are built.
+	 */
+	private TrieMap<Value> combine(final TrieMap<Value> other, final int operation) {
+		checkNormalizer(other);
+		final TrieMap<Value> result = new TrieMap<Value>(concurrency, TrieLocks.striped(concurrency,
+				locks.stripes(), locks.depth()), normalizer);
+		final TrieNode<Value> combined = combineNodes(rootNode, other.rootNode, operation);
+		if (combined != null) {
+			result.rootNode = combined;
+		}
+		return result;
+	}
+
+	/**
+	 * Keys of maps with different normalizers cannot be compared node by
+	 * node.
+	 */
+	private void checkNormalizer(final TrieMap<Value> other) {
+		if (other.normalizer != normalizer) {
+			throw new IllegalArgumentException("Maps with different normalizers cannot be combined: " + normalizer
+					+ " and " + other.normalizer);
+		}
+	}
+
+	/**
+	 * Combines two subtrees, using a stack rather than recursion so that long
+	 * keys cannot overflow the call stack.
+	 * 
+	 * @return the combined subtree or null if it contains no entries
+	 */
+	private static <V> TrieNode<V> combineNodes(final TrieNode<V> a, final TrieNode<V> b, final int operation) {
+		final Combination<V> root = Combination.start(a, b, operation);
+		if (root == null) {
+			return null;
+		}
+		final StringBuilder path = new StringBuilder();
+		final List<Combination<V>> stack = new ArrayList<Combination<V>>();
+		stack.add(root);
+		while (true) {
+			final Combination<V> top = stack.get(stack.size() - 1);
+			final int i = top.i;
+			final int j = top.j;
+			if (i < top.aChildren.length || j < top.bChildren.length) {
+				final int order;
+				if (i == top.aChildren.length) {
+					order = 1;
+				} else if (j == top.bChildren.length) {
+					order = -1;
+				} else {
+					order = top.aChildren[i].getNodeValue() - top.bChildren[j].getNodeValue();
+				}
+				if (order <= 0) {
+					top.i++;
+				}
+				if (order >= 0) {
+					top.j++;
+				}
+				final Combination<V> child = Combination.start((order <= 0) ? top.aChildren[i] : null,
+						(order >= 0) ? top.bChildren[j] : null, top.operation);
+				if (child != null) {
+					path.append(child.c);
+					stack.add(child);
+				}
+				continue;
+			}
+			stack.remove(stack.size() - 1);
+			final TrieNode<V> node = newNode(top.c, top.source, top.children, path);
+			if (stack.isEmpty()) {
+				return node;
+			}
+			path.setLength(path.length() - 1);
+			if (node != null) {
+				stack.get(stack.size() - 1).children.add(node);
+			}
+		}
+	}
+
+	/**
+	 * Creates a node holding the entry of the source node, if any, above the
+	 * given children. All nodes of the new maps keep counts and hashes.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <V> TrieNode<V> newNode(final char c, final TrieNode<V> source, final List<TrieNode<V>> children,
+			final CharSequence path) {
+		if (source == null && children.isEmpty()) {
+			return null;
+		}
+		final TrieNode<V> node = new TrieNode<V>(c, (source == null) ? null : source.getObject(), source != null);
+		int size = (source == null) ? 0 : 1;
+		int hash = (source == null) ? 0 : entryHash(source, path);
+		if (source != null) {
+			node.setSpelling(source.spelling);
+		}
+		for (final TrieNode<V> child : children) {
+			size += child.getSize();
+			hash += child.getHash();
+		}
+		node.setChildren(children.toArray(new TrieNode[children.size()]));
+		node.addToSize(size);
+		node.addToHash(hash);
+		return node;
+	}
+
+	/**
+	 * Compares two tries node by node, using a stack rather than recursion.
+	 */
+	private static boolean equalNodes(final TrieNode<?> a, final TrieNode<?> b) {
+		final List<TrieNode<?>> stack = new ArrayList<TrieNode<?>>();
+		stack.add(a);
+		stack.add(b);
+		while (!stack.isEmpty()) {
+			final TrieNode<?> y = stack.remove(stack.size() - 1);
+			final TrieNode<?> x = stack.remove(stack.size() - 1);
+			if (x.isBoundary() != y.isBoundary() || !equal(x.getObject(), y.getObject())
+					|| !equal(x.spelling, y.spelling)) {
+				return false;
+			}
+			final TrieNode<?>[] xChildren = x.getChildren();
+			final TrieNode<?>[] yChildren = y.getChildren();
+			if (xChildren.length != yChildren.length) {
+				return false;
+			}
+			for (int i = 0; i < xChildren.length; i++) {
+				if (xChildren[i].getNodeValue() != yChildren[i].getNodeValue()) {
+					return false;
+				}
+				stack.add(xChildren[i]);
+				stack.add(yChildren[i]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether the given map contains all entries of this map, as
+	 * {@link java.util.AbstractMap#equals(Object)} does.
+	 */
+	private boolean containsEntries(final Map<?, ?> other) {
+		final NodeIterator<Value> nodes = new NodeIterator<Value>(rootNode);
+		try {
+			for (TrieNode<Value> node = nodes.nextBoundary(); node != null; node = nodes.nextBoundary()) {
+				final String key = node.getKey(nodes.path());
+				final Value value = node.getObject();
+				if (value == null) {
+					if (other.get(key) != null || !other.containsKey(key)) {
+						return false;
+					}
+				} else if (!value.equals(other.get(key))) {
+					return false;
+				}
+			}
+		} catch (final ClassCastException e) {
+			return false;
+		} catch (final NullPointerException e) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean equal(final Object a, final Object b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Gets the hash of the entry of a node as specified by
+	 * {@link Map.Entry#hashCode()}.
+	 */
+	private static int entryHash(final TrieNode<?> node, final CharSequence path) {
+		final String spelling = node.spelling;
+		return entryHash((spelling == null) ? path : spelling, node.getObject());
+	}
+
+	private static int entryHash(final CharSequence key, final Object value) {
+		int hash;
+		if (key instanceof String) {
+			hash = key.hashCode();
+		} else {
+			// the hash of the key as a string, without building it
+			hash = 0;
+			for (int i = 0; i < key.length(); i++) {
+				hash = 31 * hash + key.charAt(i);
+			}
+		}
+		return hash ^ ((value == null) ? 0 : value.hashCode());
+	}
+
+	private boolean addLocked(final String phrase, final Value object, final boolean force) {
+		if (!instrumented) {
+			return addStriped(phrase, object, force);
+		}
+		final long start = metrics.now();
+		try {
+			return addStriped(phrase, object, force);
+		} finally {
+			metrics.operation(TrieMetrics.Operation.PUT, start);
+		}
+	}
+
+	private boolean addStriped(final String phrase, final Value object, final boolean force) {
+		final int stripe = locks.stripeOf(phrase, normalizer);
+		if (stripe != TrieLocks.ALL) {
+			writeLock(stripe);
+			try {
+				if (isStripeOwned(phrase)) {
+					return insert(phrase, object, force);
+				}
+			} finally {
+				locks.writeUnlock(stripe);
+			}
+		}
+		// nodes shared between stripes need to be created
+		writeLock(TrieLocks.ALL);
+		try {
+			return insert(phrase, object, force);
+		} finally {
+			locks.writeUnlock(TrieLocks.ALL);
+		}
+	}
+
+	/**
+	 * Checks if all nodes shared between stripes exist for the given phrase,
+	 * so that it can be written holding only its own stripe.
+	 */
+	private boolean isStripeOwned(final String phrase) {
+		TrieNode<Value> node = rootNode;
+		for (int i = 0; i < locks.depth(); i++) {
+			node = node.getChildNode(charAt(phrase, i));
+			if (node == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Value getUnlocked(final String phrase) {
+		final TrieNode<Value> matchedNode = matchPrefix(rootNode, phrase);
+		if (matchedNode != null) {
+			final Value result = matchedNode.getObject();
+			return result;
+		}
+		return null;
+	}
+
+	private boolean insert(final String phrase, final Value object, final boolean force) {
+		if (isEmpty(phrase)) {
+			return true;
+		}
+		final int last = phrase.length() - 1;
+		TrieNode<Value> node = rootNode;
+		for (int i = 0; i < last; i++) {
+			final char c = charAt(phrase, i);
+			node.add(c, null, force, false);
+			node = node.getChildNode(c);
+		}
+		final char lastChar = charAt(phrase, last);
+		final TrieNode<Value> existing = node.getChildNode(lastChar);
+		final boolean wasBoundary = existing != null && existing.isBoundary();
+		final Value previous = wasBoundary ? existing.getObject() : null;
+		if (!node.add(lastChar, object, force, true)) {
+			return false;
+		}
+		final TrieNode<Value> added = node.getChildNode(lastChar);
+		updateAggregates(phrase, phrase.length());
+		if (wasBoundary) {
+			final String spelling = added.getKey(phrase);
+			adjustSizes(phrase, phrase.length(), 0, entryHash(spelling, object) - entryHash(spelling, previous));
+			if (isObserved() && !equal(previous, object)) {
+				publish(Collections.singletonList(new TrieChange<Value>(TrieChange.Kind.CHANGED, spelling, previous,
+						object)));
+			}
+		} else if (added.isBoundary()) {
+			if (normalizer != CharNormalizers.IDENTITY) {
+				added.setSpelling(phrase);
+			}
+			adjustSizes(phrase, phrase.length(), 1, entryHash(phrase, object));
+			invalidateCaches(phrase);
+			if (isObserved()) {
+				publish(Collections.singletonList(new TrieChange<Value>(TrieChange.Kind.ADDED, phrase, null, object)));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the deltas to the entry counts and hashes of the nodes on the path
+	 * of the given key. Counts are only kept for nodes owned by a single
+	 * stripe.
+	 */
+	private void adjustSizes(final String key, final int length, final int delta, final int hashDelta) {
+		TrieNode<Value> node = rootNode;
+		for (int i = 0; node != null; i++) {
+			if (i >= locks.depth()) {
+				node.addToSize(delta);
+				node.addToHash(hashDelta);
+			}
+			if (i == length) {
+				return;
+			}
+			node = node.getChildNode(charAt(key, i));
+		}
+	}
+
+	/**
+	 * Adds the keys of the subtree starting at the node with the given path
+	 * after skipping offset of them, until the limit is reached.
+	 * 
+	 * @return the number of keys still to skip
+	 */
+	private int findCompletionsFrom(final TrieNode<Value> node, final StringBuilder path, final int offset,
+			final int limit, final List<String> completions) {
+		int skip = offset;
+		if (skip > 0) {
+			final int count = countEntries(node, path.length());
+			if (skip >= count) {
+				return skip - count;
+			}
+		}
+		if (node.isBoundary()) {
+			if (skip > 0) {
+				skip--;
+			} else {
+				completions.add(node.getKey(path.toString()));
+			}
+		}
+		final int length = path.length();
+		for (final TrieNode<Value> child : node.getChildren()) {
+			if (completions.size() == limit) {
+				break;
+			}
+			path.append(child.getNodeValue());
+			skip = findCompletionsFrom(child, path, skip, limit, completions);
+			path.setLength(length);
+		}
+		return skip;
+	}
+
+	/**
+	 * Counts the entries of the subtree starting at the given node.
+	 */
+	private int countEntries(final TrieNode<Value> node, final int depth) {
+		if (depth >= locks.depth()) {
+			return node.getSize();
+		}
+		// nodes shared between stripes do not keep counts
+		int count = node.isBoundary() ? 1 : 0;
+		for (final TrieNode<Value> child : node.getChildren()) {
+			count += countEntries(child, depth + 1);
+		}
+		return count;
+	}
+
+	/**
+	 * Sums the hashes of the entries of the subtree starting at the node with
+	 * the given path.
+	 */
+	private int hashEntries(final TrieNode<Value> node, final StringBuilder path) {
+		if (path.length() >= locks.depth()) {
+			return node.getHash();
+		}
+		// nodes shared between stripes do not keep hashes
+		int hash = node.isBoundary() ? entryHash(node, path) : 0;
+		final int length = path.length();
+		for (final TrieNode<Value> child : node.getChildren()) {
+			path.append(child.getNodeValue());
+			hash += hashEntries(child, path);
+			path.setLength(length);
+		}
+		return hash;
+	}
+
+	/**
+	 * Gets the path of the nodes for the given key.
+	 */
+	private StringBuilder normalize(final String key) {
+		final StringBuilder path = new StringBuilder(key.length());
+		for (int i = 0; i < key.length(); i++) {
+			path.append(charAt(key, i));
+		}
+		return path;
+	}
+
+	private Value getCached(final LookupCache<TrieNode<Value>> cache, final String key) {
+		final long start = instrumented ? metrics.now() : 0;
+		final LookupCache.Entry<TrieNode<Value>> entry = cache.get(key);
+		if (entry != null && entry.node.isBoundary()) {
+			if (instrumented) {
+				// a hit walks no nodes
+				metrics.lookup(TrieMetrics.Operation.GET, 0, true, start);
+			}
+			return entry.node.getObject();
+		}
+		final int epoch = cache.epoch();
+		final TrieNode<Value> node = instrumented ? matchMeasured(TrieMetrics.Operation.GET, key) : matchPrefix(
+				rootNode, key);
+		if (node == null) {
+			return null;
+		}
+		if (node.isBoundary()) {
+			cache.put(key, node, epoch, 0);
+		}
+		return node.getObject();
+	}
+
+	private Value getBestMatchCached(final LookupCache<TrieNode<Value>> cache, final String prefix) {
+		final int generation = cache.generation(prefix);
+		final LookupCache.Entry<TrieNode<Value>> entry = cache.get(prefix);
+		if (entry != null && entry.generation == generation) {
+			if (entry.node == null) {
+				return null;
+			}
+			if (entry.node.containsObject()) {
+				return entry.node.getObject();
+			}
+		}
+		final int epoch = cache.epoch();
+		TrieNode<Value> best = null;
+		TrieNode<Value> node = rootNode;
+		for (int i = 0; i < prefix.length() && node != null; i++) {
+			node = node.getChildNode(charAt(prefix, i));
+			if (node != null && node.containsObject()) {
+				best = node;
+			}
+		}
+		cache.put(prefix, best, epoch, generation);
+		return (best == null) ? null : best.getObject();
+	}
+
+	/**
+	 * Lets the cached best matches for keys starting with a key which was
+	 * added or removed expire. Cached lookups stay valid, since they check
+	 * that their node still holds an entry.
+	 */
+	private void invalidateCaches(final String key) {
+		final LookupCache<TrieNode<Value>> cache = bestMatchCache;
+		if (cache != null) {
+			cache.advance(key);
+		}
+	}
+
+	/**
+	 * Drops the cached lookups of the keys starting with or, if inside is
+	 * false, not starting with the prefix, whose nodes may have been detached
+	 * with their entries, and lets the affected best matches expire.
+	 */
+	private void invalidateCaches(final String prefix, final boolean inside) {
+		final LookupCache<TrieNode<Value>> cache = getCache;
+		if (cache != null) {
+			cache.invalidatePrefix(prefix, inside);
+			bestMatchCache.advance(inside ? prefix : "");
+		}
+	}
+
+	/**
+	 * Recomputes the aggregates of the nodes on the path of the key, from the
+	 * node at the given length up to the first node owned by a stripe.
+	 */
+	private void updateAggregates(final String key, final int length) {
+		final TrieAggregate<Value, ?>[] current = aggregates;
+		if (current.length == 0) {
+			return;
+		}
+		final List<TrieNode<Value>> path = new ArrayList<TrieNode<Value>>(length + 1);
+		TrieNode<Value> node = rootNode;
+		for (int i = 0; node != null; i++) {
+			path.add(node);
+			if (i == length) {
+				break;
+			}
+			node = node.getChildNode(charAt(key, i));
+		}
+		for (int depth = path.size() - 1; depth >= locks.depth(); depth--) {
+			path.get(depth).setAggregates(summarize(path.get(depth), current));
+		}
+	}
+
+	/**
+	 * Combines the entry of the node with the aggregates of its children.
+	 */
+	private static <V> Object[] summarize(final TrieNode<V> node, final TrieAggregate<V, ?>[] aggregates) {
+		final Object[] result = new Object[aggregates.length];
+		final TrieNode<V>[] children = node.getChildren();
+		for (int i = 0; i < aggregates.length; i++) {
+			result[i] = node.isBoundary() ? aggregates[i].of(node.getObject()) : aggregates[i].identity();
+			for (final TrieNode<V> child : children) {
+				result[i] = combine(aggregates[i], result[i], child.getAggregates(), i);
+			}
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <A> A combine(final TrieAggregate<?, A> aggregate, final Object left, final Object[] right,
+			final int index) {
+		// children created after the aggregate was added may not have it yet
+		return (index < right.length) ? aggregate.combine((A) left, (A) right[index]) : (A) left;
+	}
+
+	/**
+	 * Gets the aggregate of the subtree starting at the given node.
+	 */
+	@SuppressWarnings("unchecked")
+	private <A> A aggregateOf(final TrieNode<Value> node, final int depth, final TrieAggregate<Value, A> aggregate,
+			final int index) {
+		if (depth >= locks.depth()) {
+			final Object[] values = node.getAggregates();
+			return (index < values.length) ? (A) values[index] : aggregate.identity();
+		}
+		// nodes shared between stripes do not keep aggregates
+		A result = node.isBoundary() ? aggregate.of(node.getObject()) : aggregate.identity();
+		for (final TrieNode<Value> child : node.getChildren()) {
+			result = aggregate.combine(result, aggregateOf(child, depth + 1, aggregate, index));
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> TrieAggregate<V, ?>[] noAggregates() {
+		return new TrieAggregate[0];
+	}
+
+	private boolean isObserved() {
+		return listeners.length > 0;
+	}
+
+	/**
+	 * Numbers the changes and hands them to the listeners. Called while
+	 * holding the write lock of the changed entries, so that the listeners
+	 * see the changes in the order they were applied.
+	 */
+	private void publish(final List<TrieChange<Value>> changes) {
+		if (changes.isEmpty()) {
+			return;
+		}
+		final List<TrieChange<Value>> batch = Collections.unmodifiableList(changes);
+		feedLock.lock();
+		try {
+			final long first = sequence + 1;
+			sequence += changes.size();
+			for (final TrieListener<Value> listener : listeners) {
+				try {
+					listener.onChanges(first, batch);
+				} catch (final RuntimeException e) {
+					// the write is half applied, it has to go on
+					listenerFailures++;
+				}
+			}
+		} finally {
+			feedLock.unlock();
+		}
+	}
+
+	/**
+	 * Reports the entries below the node with the given path as removed,
+	 * except those below the retained path.
+	 */
+	private List<TrieChange<Value>> removedEntries(final TrieNode<Value> node, final String path,
+			final String retained) {
+		final List<TrieChange<Value>> changes = new ArrayList<TrieChange<Value>>();
+		final NodeIterator<Value> nodes = new NodeIterator<Value>(node);
+		for (TrieNode<Value> next = nodes.nextBoundary(); next != null; next = nodes.nextBoundary()) {
+			final String nodePath = path + nodes.path();
+			if (retained == null || !nodePath.startsWith(retained)) {
+				changes.add(new TrieChange<Value>(TrieChange.Kind.REMOVED, next.getKey(nodePath), next.getObject(),
+						null));
+			}
+		}
+		return changes;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> TrieListener<V>[] noListeners() {
+		return new TrieListener[0];
+	}
+
+	/**
+	 * Detaches the topmost node on the path of the given key which has no
+	 * entries below it.
+	 */
+	private void prune(final String key, final int length) {
+		TrieNode<Value> node = rootNode;
+		for (int i = 0; i < length; i++) {
+			final char c = charAt(key, i);
+			final TrieNode<Value> child = node.getChildNode(c);
+			if (child == null) {
+				return;
+			}
+			// nodes shared between stripes cannot be changed holding one stripe
+			if (i >= locks.depth() && child.getSize() == 0) {
+				node.removeChild(c);
+				return;
+			}
+			node = child;
+		}
+	}
+
+	private void findCompletionsRecursive(final TrieNode<Value> node, final String prefix,
 			final List<String> completions) {
 		if (node == null) {
 			return;
 		}
 		if (node.isBoundary()) {
-			completions.add(prefix);
+			completions.add(node.getKey(prefix));
 		}
-		final Collection<TrieNode<Value>> childNodes = node.getChildren();
+		final TrieNode<Value>[] childNodes = node.getChildren();
 		for (final TrieNode<Value> childNode : childNodes) {
 			final char childChar = childNode.getNodeValue();
 			findCompletionsRecursive(childNode, prefix + childChar, completions);
@@ -529,7 +1891,7 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 			return completion.toString();
 		}
 
-		final TrieNode<Value> childNode = node.getChildNode(firstChar);
+		final TrieNode<Value> childNode = node.getChildNode(normalizer.normalize(firstChar));
 		if (childNode != null) {
 			completion.append(firstChar);
 			return findLastMatchingRecursivly(childNode, subString, completion);
@@ -547,10 +1909,10 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		if (node.containsObject()) {
 			final Value object = node.getObject();
 			if (object != null) {
-				completions.put(prefix, object);
+				completions.put(node.getKey(prefix), object);
 			}
 		}
-		final Collection<TrieNode<Value>> childNodes = node.getChildren();
+		final TrieNode<Value>[] childNodes = node.getChildren();
 		for (final TrieNode<Value> childNode : childNodes) {
 			final char childChar = childNode.getNodeValue();
 			findObjectMapRecursive(childNode, prefix + childChar, completions);
@@ -568,147 +1930,651 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 				completions.add(object);
 			}
 		}
-		final Collection<TrieNode<Value>> childNodes = node.getChildren();
-		for (final TrieNode<Value> childNode : childNodes) {
-			final char childChar = childNode.getNodeValue();
-			findObjectsRecursive(childNode, prefix + childChar, completions);
-		}
-	}
+		final TrieNode<Value>[] childNodes = node.getChildren();
+		for (final TrieNode<Value> childNode : childNodes) {
+			final char childChar = childNode.getNodeValue();
+			findObjectsRecursive(childNode, prefix + childChar, completions);
+		}
+	}
+
+	private String findPathForObject(final TrieNode<Value> node, final String prefix, final Object toFind) {
+		if (node == null) {
+			// our prefix did not match anything we return
+			return null;
+		}
+		if (node.containsObject()) {
+			final Value object = node.getObject();
+			if (object != null && object.equals(toFind)) {
+				return node.getKey(prefix);
+			}
+		}
+		final TrieNode<Value>[] childNodes = node.getChildren();
+		for (final TrieNode<Value> childNode : childNodes) {
+			final char childChar = childNode.getNodeValue();
+			final String path = findPathForObject(childNode, prefix + childChar, toFind);
+			if (path != null) {
+				return path;
+			}
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Value getLastMatchingObject(final TrieNode node, final String prefix, final Value lastObject) {
+		if (isEmpty(prefix)) {
+			return lastObject;
+		}
+		final char firstChar = charAt(prefix, 0);
+		final TrieNode childNode = node.getChildNode(firstChar);
+		if (childNode == null) {
+			// no match at this char, exit
+			return lastObject;
+		} else {
+			// go deeper
+			return getLastMatchingObject(childNode, prefix.substring(1),
+					((Value) ((childNode.containsObject()) ? childNode.getObject() : lastObject)));
+		}
+	}
+
+	/**
+	 * Gets the normalized character at the given index of the key.
+	 */
+	private char charAt(final String key, final int index) {
+		return normalizer.normalize(key.charAt(index));
+	}
+
+	private boolean startsWith(final String key, final String prefix) {
+		if (key.length() < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (charAt(key, i) != charAt(prefix, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isEmpty(final String phrase) {
+		return isEmptyStr(phrase);
+	}
+
+	private List<TrieNode<Value>> matchNodesOnPathRecursive(final TrieNode<Value> node, final String prefix) {
+		return matchNodesOnPathRecursive(node, prefix, new LinkedList<TrieNode<Value>>());
+	}
+
+	private List<TrieNode<Value>> matchNodesOnPathRecursive(final TrieNode<Value> node, final String prefix,
+			final List<TrieNode<Value>> result) {
+		if (isEmpty(prefix)) {
+			result.add(node);
+			return result;
+		}
+		final char firstChar = charAt(prefix, 0);
+		final TrieNode<Value> childNode = node.getChildNode(firstChar);
+		if (childNode == null) {
+			// no match at this char, exit
+			if (node.isBoundary()) {
+				result.add(node);
+			}
+			return result;
+		} else {
+			// go deeper
+			if (node.isBoundary()) {
+				result.add(node);
+			}
+			return matchNodesOnPathRecursive(childNode, prefix.substring(1), result);
+		}
+	}
+
+	private TrieNode<Value> matchPrefix(final TrieNode<Value> node, final String prefix) {
+		if (isEmpty(prefix)) {
+			return node;
+		}
+		TrieNode<Value> current = node;
+		for (int i = 0; i < prefix.length(); i++) {
+			current = current.getChildNode(charAt(prefix, i));
+			if (current == null) {
+				// no match at this char, exit
+				return null;
+			}
+		}
+		return current;
+	}
+
+	
+
+
+	/**
+	 * Gets the key set.
+	 * 
+	 * @return the key set
+	 */
+	@SuppressWarnings("unchecked")
+	protected Set<Object> getkeySet() {
+		final List keys = getCompletitions("");
+		keys.remove("" + rootNode.getNodeValue());
+		return new TreeSet<Object>(keys);
+	}
+
+	/**
+	 * Gets the object values.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 * @return the object values
+	 */
+	@SuppressWarnings("unchecked")
+	protected List<Object> getObjectValues(final String prefix) {
+		final List<Object> completions = new ArrayList(getSubValues(prefix));
+		return completions;
+	}
+
+	/**
+	 * Internal entry set.
+	 * 
+	 * @return the sets the
+	 */
+	@SuppressWarnings("unchecked")
+	protected Set internalEntrySet() {
+		final Set result = new HashSet();
+		for (final String key : keySet()) {
+			result.add(new Entry(key));
+		}
+		return result;
+	}
+
+	/**
+	 * java.util.Properties extension backed by this given TrieMap.
+	 * 
+	 * @author Marco Brade
+	 * 
+	 */
+
+
+	/**
+	 * Live view of the entries below a prefix.
+	 */
+	private final class PrefixView extends AbstractMap<String, Value> {
+
+		private final String prefix;
+
+		private final boolean stripPrefix;
+
+		private PrefixView(final String prefix, final boolean stripPrefix) {
+			this.prefix = prefix;
+			this.stripPrefix = stripPrefix;
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			final TrieNode<Value> node = findNode(key);
+			return node != null && node.isBoundary();
+		}
+
+		@Override
+		public Set<Map.Entry<String, Value>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Value>>() {
+
+				@Override
+				public Iterator<Map.Entry<String, Value>> iterator() {
+					return new ViewIterator(matchPrefix(rootNode, prefix));
+				}
+
+				@Override
+				public int size() {
+					return PrefixView.this.size();
+				}
+			};
+		}
+
+		@Override
+		public Value get(final Object key) {
+			final TrieNode<Value> node = findNode(key);
+			return (node == null) ? null : node.getObject();
+		}
+
+		@Override
+		public Value put(final String key, final Value value) {
+			return TrieMap.this.put(toMapKey(key), value);
+		}
+
+		@Override
+		public Value remove(final Object key) {
+			if (findNode(key) == null) {
+				return null;
+			}
+			return TrieMap.this.remove(toMapKey((String) key));
+		}
+
+		@Override
+		public void clear() {
+			removePrefix(prefix);
+		}
+
+		@Override
+		public int size() {
+			final TrieNode<Value> node = matchPrefix(rootNode, prefix);
+			return (node == null) ? 0 : countEntries(node, prefix.length());
+		}
+
+		private TrieNode<Value> findNode(final Object key) {
+			if (!(key instanceof String)) {
+				return null;
+			}
+			final String viewKey = (String) key;
+			if (stripPrefix) {
+				final TrieNode<Value> prefixNode = matchPrefix(rootNode, prefix);
+				return (prefixNode == null) ? null : matchPrefix(prefixNode, viewKey);
+			}
+			if (!startsWith(viewKey, prefix)) {
+				return null;
+			}
+			return matchPrefix(rootNode, viewKey);
+		}
+
+		private String toMapKey(final String key) {
+			if (stripPrefix) {
+				return prefix + key;
+			}
+			if (!startsWith(key, prefix)) {
+				throw new IllegalArgumentException("Key <" + key + "> is not below prefix <" + prefix + ">.");
+			}
+			return key;
+		}
+
+		private final class ViewIterator implements Iterator<Map.Entry<String, Value>> {
+
+			private final NodeIterator<Value> nodes;
+
+			private ViewEntry next;
+
+			private ViewEntry last;
+
+			private ViewIterator(final TrieNode<Value> node) {
+				nodes = new NodeIterator<Value>(node);
+				advance();
+			}
+
+			private void advance() {
+				final TrieNode<Value> node = nodes.nextBoundary();
+				if (node == null) {
+					next = null;
+					return;
+				}
+				final String key = node.getKey(prefix + nodes.path());
+				next = new ViewEntry(stripPrefix ? key.substring(prefix.length()) : key, node.getObject());
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Map.Entry<String, Value> next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				last = next;
+				advance();
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				PrefixView.this.remove(last.getKey());
+				last = null;
+			}
+		}
+
+		private final class ViewEntry extends SimpleEntry<String, Value> {
+
+			private static final long serialVersionUID = 1L;
+
+			private ViewEntry(final String key, final Value value) {
+				super(key, value);
+			}
+
+			@Override
+			public Value setValue(final Value value) {
+				super.setValue(value);
+				if (value == null) {
+					return PrefixView.this.remove(getKey());
+				}
+				return PrefixView.this.put(getKey(), value);
+			}
+		}
+	}
+
+	/**
+	 * Walks the trie depth first in lockstep with the automaton of a pattern.
+	 */
+	private final class MatchIterator implements Iterator<Map.Entry<String, Value>> {
+
+		private final TriePattern pattern;
+
+		private final List<TrieNode<Value>> nodes = new ArrayList<TrieNode<Value>>();
+
+		private final List<String> paths = new ArrayList<String>();
+
+		private final List<boolean[]> states = new ArrayList<boolean[]>();
+
+		private Map.Entry<String, Value> next;
+
+		private MatchIterator(final TriePattern pattern) {
+			this.pattern = pattern;
+			push(rootNode, "", pattern.start());
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (next == null && !nodes.isEmpty()) {
+				final int last = nodes.size() - 1;
+				final TrieNode<Value> node = nodes.remove(last);
+				final String path = paths.remove(last);
+				final boolean[] current = states.remove(last);
+				final char[] literals = pattern.literals(current, normalizer);
+				if (literals != null) {
+					for (int i = literals.length - 1; i >= 0; i--) {
+						final TrieNode<Value> child = node.getChildNode(literals[i]);
+						if (child != null) {
+							push(child, path + literals[i], pattern.step(current, literals[i], normalizer));
+						}
+					}
+				} else {
+					final TrieNode<Value>[] children = node.getChildren();
+					for (int i = children.length - 1; i >= 0; i--) {
+						final char c = children[i].getNodeValue();
+						final boolean[] childStates = pattern.step(current, c, normalizer);
+						if (childStates != null) {
+							push(children[i], path + c, childStates);
+						}
+					}
+				}
+				if (node.isBoundary() && pattern.accepts(current)) {
+					next = new AbstractMap.SimpleImmutableEntry<String, Value>(node.getKey(path), node.getObject());
+				}
+			}
+		}
+
+		private void push(final TrieNode<Value> node, final String path, final boolean[] nodeStates) {
+			nodes.add(node);
+			paths.add(path);
+			states.add(nodeStates);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<String, Value> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			final Map.Entry<String, Value> result = next;
+			advance();
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * A node of a set operation in progress. A node contained on one side
+	 * only is copied, which is represented by an empty other side and the
+	 * union, which keeps all its entries.
+	 */
+	private static final class Combination<ValueNode> {
+
+		private final char c;
+
+		private final int operation;
+
+		private final TrieNode<ValueNode> source;
+
+		private final TrieNode<ValueNode>[] aChildren;
+
+		private final TrieNode<ValueNode>[] bChildren;
+
+		private final List<TrieNode<ValueNode>> children = new ArrayList<TrieNode<ValueNode>>();
+
+		private int i;
+
+		private int j;
+
+		private Combination(final TrieNode<ValueNode> a, final TrieNode<ValueNode> b, final int operation) {
+			this.c = a.getNodeValue();
+			this.operation = operation;
+			this.aChildren = a.getChildren();
+			if (b == null) {
+				this.source = a.isBoundary() ? a : null;
+				this.bChildren = a.noChildren();
+			} else {
+				if (operation == UNION) {
+					source = b.isBoundary() ? b : (a.isBoundary() ? a : null);
+				} else if (operation == INTERSECTION) {
+					source = (a.isBoundary() && b.isBoundary()) ? a : null;
+				} else {
+					source = (a.isBoundary() && !b.isBoundary()) ? a : null;
+				}
+				this.bChildren = b.getChildren();
+			}
+		}
 
-	private String findPathForObject(final TrieNode<Value> node, final String prefix, final Object toFind) {
-		if (node == null) {
-			// our prefix did not match anything we return
-			return null;
-		}
-		if (node.containsObject()) {
-			final Value object = node.getObject();
-			if (object != null && object.equals(toFind)) {
-				return prefix;
+		/**
+		 * @return the combination of the nodes or null if the result
+		 *         contains none of their entries
+		 */
+		private static <V> Combination<V> start(final TrieNode<V> a, final TrieNode<V> b, final int operation) {
+			// subtrees on one side only are taken over or dropped as a whole
+			if (b == null) {
+				return (operation == INTERSECTION) ? null : new Combination<V>(a, null, UNION);
 			}
-		}
-		final Collection<TrieNode<Value>> childNodes = node.getChildren();
-		for (final TrieNode<Value> childNode : childNodes) {
-			final char childChar = childNode.getNodeValue();
-			final String path = findPathForObject(childNode, prefix + childChar, toFind);
-			if (path != null) {
-				return path;
+			if (a == null) {
+				return (operation == UNION) ? new Combination<V>(b, null, UNION) : null;
 			}
+			if (a == b) {
+				return (operation == DIFFERENCE) ? null : new Combination<V>(a, null, UNION);
+			}
+			return new Combination<V>(a, b, operation);
 		}
-		return null;
 	}
 
-	@SuppressWarnings("unchecked")
-	private Value getLastMatchingObject(final TrieNode node, final String prefix, final Value lastObject) {
-		if (isEmpty(prefix)) {
-			return lastObject;
-		}
-		final char firstChar = prefix.charAt(0);
-		final TrieNode childNode = node.getChildNode(firstChar);
-		if (childNode == null) {
-			// no match at this char, exit
-			return lastObject;
-		} else {
-			// go deeper
-			return getLastMatchingObject(childNode, prefix.substring(1),
-					((Value) ((childNode.containsObject()) ? childNode.getObject() : lastObject)));
-		}
-	}
+	/**
+	 * Walks two tries depth first in lockstep and reports the boundaries which
+	 * differ. The path is kept in a single builder, keys are only created for
+	 * changes.
+	 */
+	private static final class DiffIterator<ValueNode> implements Iterator<TrieChange<ValueNode>> {
 
-	private boolean isEmpty(final String phrase) {
-		return isEmptyStr(phrase);
-	}
+		/** Pairs of old and new nodes, either may be null. */
+		private final List<TrieNode<ValueNode>> oldNodes = new ArrayList<TrieNode<ValueNode>>();
 
-	private List<TrieNode<Value>> matchNodesOnPathRecursive(final TrieNode<Value> node, final String prefix) {
-		return matchNodesOnPathRecursive(node, prefix, new LinkedList<TrieNode<Value>>());
-	}
+		private final List<TrieNode<ValueNode>> newNodes = new ArrayList<TrieNode<ValueNode>>();
 
-	private List<TrieNode<Value>> matchNodesOnPathRecursive(final TrieNode<Value> node, final String prefix,
-			final List<TrieNode<Value>> result) {
-		if (isEmpty(prefix)) {
-			result.add(node);
-			return result;
+		private int[] depths = new int[16];
+
+		private final StringBuilder path = new StringBuilder();
+
+		private TrieChange<ValueNode> next;
+
+		private DiffIterator(final TrieNode<ValueNode> oldRoot, final TrieNode<ValueNode> newRoot) {
+			push(oldRoot, newRoot, 0);
+			advance();
 		}
-		final char firstChar = prefix.charAt(0);
-		final TrieNode<Value> childNode = node.getChildNode(firstChar);
-		if (childNode == null) {
-			// no match at this char, exit
-			if (node.isBoundary()) {
-				result.add(node);
-			}
-			return result;
-		} else {
-			// go deeper
-			if (node.isBoundary()) {
-				result.add(node);
+
+		private void advance() {
+			next = null;
+			while (next == null && !oldNodes.isEmpty()) {
+				final int last = oldNodes.size() - 1;
+				final TrieNode<ValueNode> oldNode = oldNodes.remove(last);
+				final TrieNode<ValueNode> newNode = newNodes.remove(last);
+				final int depth = depths[last];
+				if (oldNode == newNode) {
+					// identical subtrees cannot differ
+					continue;
+				}
+				final TrieNode<ValueNode> node = (oldNode == null) ? newNode : oldNode;
+				if (depth > 0) {
+					path.setLength(depth - 1);
+					path.append(node.getNodeValue());
+				}
+				pushChildren(oldNode, newNode, depth + 1);
+				final boolean wasEntry = oldNode != null && oldNode.isBoundary();
+				final boolean isEntry = newNode != null && newNode.isBoundary();
+				if (wasEntry && !isEntry) {
+					next = new TrieChange<ValueNode>(TrieChange.Kind.REMOVED, oldNode.getKey(path.toString()),
+							oldNode.getObject(), null);
+				} else if (!wasEntry && isEntry) {
+					next = new TrieChange<ValueNode>(TrieChange.Kind.ADDED, newNode.getKey(path.toString()), null,
+							newNode.getObject());
+				} else if (wasEntry && !equal(oldNode.getObject(), newNode.getObject())) {
+					next = new TrieChange<ValueNode>(TrieChange.Kind.CHANGED, newNode.getKey(path.toString()),
+							oldNode.getObject(), newNode.getObject());
+				}
 			}
-			return matchNodesOnPathRecursive(childNode, prefix.substring(1), result);
 		}
-	}
 
-	private TrieNode<Value> matchPrefixRecursive(final TrieNode<Value> node, final String prefix) {
-		if (isEmpty(prefix)) {
-			return node;
+		/**
+		 * Pushes the children of both nodes merged by their character, in
+		 * reverse so that they are visited in key order.
+		 */
+		private void pushChildren(final TrieNode<ValueNode> oldNode, final TrieNode<ValueNode> newNode,
+				final int depth) {
+			final TrieNode<ValueNode>[] oldChildren = (oldNode == null) ? null : oldNode.getChildren();
+			final TrieNode<ValueNode>[] newChildren = (newNode == null) ? null : newNode.getChildren();
+			int i = (oldChildren == null) ? -1 : oldChildren.length - 1;
+			int j = (newChildren == null) ? -1 : newChildren.length - 1;
+			while (i >= 0 || j >= 0) {
+				final int order;
+				if (i < 0) {
+					order = -1;
+				} else if (j < 0) {
+					order = 1;
+				} else {
+					order = oldChildren[i].getNodeValue() - newChildren[j].getNodeValue();
+				}
+				push((order >= 0) ? oldChildren[i] : null, (order <= 0) ? newChildren[j] : null, depth);
+				if (order >= 0) {
+					i--;
+				}
+				if (order <= 0) {
+					j--;
+				}
+			}
 		}
-		final char firstChar = prefix.charAt(0);
-		final TrieNode<Value> childNode = node.getChildNode(firstChar);
-		if (childNode == null) {
-			// no match at this char, exit
-			return null;
-		} else {
-			// go deeper
-			return matchPrefixRecursive(childNode, prefix.substring(1));
+
+		private void push(final TrieNode<ValueNode> oldNode, final TrieNode<ValueNode> newNode, final int depth) {
+			if (oldNodes.size() == depths.length) {
+				depths = Arrays.copyOf(depths, depths.length * 2);
+			}
+			depths[oldNodes.size()] = depth;
+			oldNodes.add(oldNode);
+			newNodes.add(newNode);
 		}
-	}
 
-	
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
 
+		@Override
+		public TrieChange<ValueNode> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			final TrieChange<ValueNode> result = next;
+			advance();
+			return result;
+		}
 
-	/**
-	 * Gets the key set.
-	 * 
-	 * @return the key set
-	 */
-	@SuppressWarnings("unchecked")
-	protected Set<Object> getkeySet() {
-		final List keys = getCompletitions("");
-		keys.remove("" + rootNode.getNodeValue());
-		return new TreeSet<Object>(keys);
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
 	}
 
 	/**
-	 * Gets the object values.
-	 * 
-	 * @param prefix
-	 *            the prefix
-	 * @return the object values
+	 * Walks the nodes of a subtree depth first in key order without copying
+	 * them. The path of the current node is kept relative to the start node.
 	 */
-	@SuppressWarnings("unchecked")
-	protected List<Object> getObjectValues(final String prefix) {
-		final List<Object> completions = new ArrayList(getSubValues(prefix));
-		return completions;
-	}
+	private static final class NodeIterator<ValueNode> {
 
-	/**
-	 * Internal entry set.
-	 * 
-	 * @return the sets the
-	 */
-	@SuppressWarnings("unchecked")
-	protected Set internalEntrySet() {
-		final Set result = new HashSet();
-		for (final String key : keySet()) {
-			result.add(new Entry(key));
+		private final List<TrieNode<ValueNode>[]> levels = new ArrayList<TrieNode<ValueNode>[]>();
+
+		private int[] positions = new int[16];
+
+		private final StringBuilder path = new StringBuilder();
+
+		private TrieNode<ValueNode> start;
+
+		private NodeIterator(final TrieNode<ValueNode> start) {
+			this.start = start;
 		}
-		return result;
-	}
 
-	/**
-	 * java.util.Properties extension backed by this given TrieMap.
-	 * 
-	 * @author Marco Brade
-	 * 
-	 */
+		/**
+		 * @return the next node which is a boundary or null
+		 */
+		private TrieNode<ValueNode> nextBoundary() {
+			TrieNode<ValueNode> node = nextNode();
+			while (node != null && !node.isBoundary()) {
+				node = nextNode();
+			}
+			return node;
+		}
+
+		/**
+		 * @return the next node in key order or null
+		 */
+		private TrieNode<ValueNode> nextNode() {
+			if (start != null) {
+				final TrieNode<ValueNode> result = start;
+				start = null;
+				push(result);
+				return result;
+			}
+			while (!levels.isEmpty()) {
+				final int depth = levels.size() - 1;
+				final TrieNode<ValueNode>[] children = levels.get(depth);
+				final int position = positions[depth];
+				if (position < children.length) {
+					positions[depth] = position + 1;
+					final TrieNode<ValueNode> child = children[position];
+					path.setLength(depth);
+					path.append(child.getNodeValue());
+					push(child);
+					return child;
+				}
+				levels.remove(depth);
+			}
+			return null;
+		}
+
+		/**
+		 * @return the path of the node last returned relative to the start
+		 *         node
+		 */
+		private String path() {
+			return path.substring(0, levels.size() - 1);
+		}
 
+		private void push(final TrieNode<ValueNode> node) {
+			if (levels.size() == positions.length) {
+				positions = Arrays.copyOf(positions, positions.length * 2);
+			}
+			positions[levels.size()] = 0;
+			levels.add(node.getChildren());
+		}
+	}
 
 	/**
 	 * The Class Entry.
@@ -775,65 +2641,102 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		}
 	}
 
-	private final class TrieNode<ValueNode> implements Cloneable {
+	private static final class TrieNode<ValueNode> implements Cloneable {
 
 		/** The Constant serialVersionUID. */
 		private static final long serialVersionUID = 1L;
 
 		/** The object. */
-		private ValueNode object;
+		private volatile ValueNode object;
 
 		/** The character. */
 		private final Character character;
 
-		/** The children. */
-		private Map<Character, TrieNode<ValueNode>> children;
+		/**
+		 * The children, sorted by their character. The array is never modified
+		 * but replaced, so that a reader racing a writer sees either the old or
+		 * the new children.
+		 */
+		private volatile TrieNode<ValueNode>[] children;
 
 		/** The boundary. */
-		private boolean boundary = false;
+		private volatile boolean boundary = false;
+
+		/** The number of entries in this subtree. */
+		private volatile int size;
+
+		/** The sum of the hashes of the entries in this subtree. */
+		private volatile int hash;
+
+		/** The values of the aggregates of the map for this subtree. */
+		private volatile Object[] aggregates = NO_AGGREGATES;
+
+		/**
+		 * The key as it was first added, only kept if keys are normalized.
+		 */
+		private volatile String spelling;
 
 		private TrieNode(final char c, final ValueNode value, final boolean boundaryParam) {
 			this.character = Character.valueOf(c);
 			this.boundary = boundaryParam;
-			children = new TreeMap<Character, TrieNode<ValueNode>>();
+			children = noChildren();
 			if (value != null) {
 				setValue(value);
 			}
 		}
 
 		public boolean add(final char c, final ValueNode object, final boolean force, final boolean isBoundary) {
-			try {
-				lock.writeLock().lock();
-				final TrieNode<ValueNode> node = children.get(Character.valueOf(c));
-				if (node == null) {
-					// children does not contain c, add a TrieNode
-					children.put(Character.valueOf(c), new TrieNode<ValueNode>(c, object, isBoundary));
-					return true;
-				} else if (object != null && (force || !node.isBoundary())) {
-					node.setValue(object);
-					node.setBoundary(isBoundary);
-					return true;
-				}
-			} finally {
-				lock.writeLock().unlock();
+			final TrieNode<ValueNode>[] current = children;
+			final int index = indexOf(current, c);
+			if (index < 0) {
+				// children does not contain c, add a TrieNode
+				insertChild(current, -(index + 1), new TrieNode<ValueNode>(c, object, isBoundary));
+				return true;
+			}
+			final TrieNode<ValueNode> node = current[index];
+			if (object != null && (force || !node.isBoundary())) {
+				node.setValue(object);
+				node.setBoundary(isBoundary);
+				return true;
 			}
 			return false;
 		}
 
 		
 
+		/**
+		 * Adds an existing node as child.
+		 * 
+		 * @param node
+		 *            the node
+		 */
+		public void attach(final TrieNode<ValueNode> node) {
+			final TrieNode<ValueNode>[] current = children;
+			final int index = indexOf(current, node.getNodeValue());
+			if (index >= 0) {
+				final TrieNode<ValueNode>[] updated = current.clone();
+				updated[index] = node;
+				children = updated;
+			} else {
+				insertChild(current, -(index + 1), node);
+			}
+		}
+
+		public void addToSize(final int delta) {
+			size += delta;
+		}
+
+		public void addToHash(final int delta) {
+			hash += delta;
+		}
+
 		/**
 		 * Contains objects.
 		 * 
 		 * @return true, if successful
 		 */
 		public boolean containsObject() {
-			try {
-				lock.readLock().lock();
-				return isBoundary() && object != null;
-			} finally {
-				lock.readLock().unlock();
-			}
+			return isBoundary() && object != null;
 		}
 
 		/*
@@ -864,11 +2767,7 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 			} else if (!character.equals(other.character)) {
 				return false;
 			}
-			if (children == null) {
-				if (other.children != null) {
-					return false;
-				}
-			} else if (!children.equals(other.children)) {
+			if (!Arrays.equals(children, other.children)) {
 				return false;
 			}
 			if (object == null) {
@@ -890,7 +2789,9 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		 * @return the child node
 		 */
 		public TrieNode<ValueNode> getChildNode(final char c) {
-			return children.get(Character.valueOf(c));
+			final TrieNode<ValueNode>[] current = children;
+			final int index = indexOf(current, c);
+			return (index < 0) ? null : current[index];
 		}
 
 		/**
@@ -898,13 +2799,8 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		 * 
 		 * @return the children
 		 */
-		public Collection<TrieNode<ValueNode>> getChildren() {
-			try {
-				lock.readLock().lock();
-				return (children == null) ? Collections.<TrieNode<ValueNode>>emptyList() : children.values();
-			} finally {
-				lock.readLock().unlock();
-			}
+		public TrieNode<ValueNode>[] getChildren() {
+			return children;
 		}
 
 		/**
@@ -922,12 +2818,41 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		 * @return the object
 		 */
 		public ValueNode getObject() {
-			try {
-				lock.readLock().lock();
-				return object;
-			} finally {
-				lock.readLock().unlock();
-			}
+			return object;
+		}
+
+		/**
+		 * Gets the key of this node as it was added.
+		 * 
+		 * @param path
+		 *            the path of this node
+		 * @return the key
+		 */
+		public String getKey(final String path) {
+			final String result = spelling;
+			return (result == null) ? path : result;
+		}
+
+		/**
+		 * Gets the number of entries in this subtree.
+		 * 
+		 * @return the size
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the sum of the hashes of the entries in this subtree.
+		 * 
+		 * @return the hash
+		 */
+		public int getHash() {
+			return hash;
+		}
+
+		public Object[] getAggregates() {
+			return aggregates;
 		}
 
 		/*
@@ -941,7 +2866,7 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 			int result = 1;
 			result = prime * result + (boundary ? 1231 : 1237);
 			result = prime * result + ((character == null) ? 0 : character.hashCode());
-			result = prime * result + ((children == null) ? 0 : children.hashCode());
+			result = prime * result + Arrays.hashCode(children);
 			result = prime * result + ((object == null) ? 0 : object.hashCode());
 			return result;
 		}
@@ -955,21 +2880,33 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 			return boundary;
 		}
 
+		/**
+		 * Detaches the child for the given character.
+		 * 
+		 * @param c
+		 *            the c
+		 */
+		public void removeChild(final char c) {
+			final TrieNode<ValueNode>[] current = children;
+			final int index = indexOf(current, c);
+			if (index < 0) {
+				return;
+			}
+			final TrieNode<ValueNode>[] updated = newChildren(current.length - 1);
+			System.arraycopy(current, 0, updated, 0, index);
+			System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+			children = updated;
+		}
+
 		/**
 		 * Removes the objects.
 		 * 
 		 * @return the list
 		 */
 		public ValueNode removeObject() {
-			try {
-				lock.writeLock().lock();
-				// children does not contain c, add a TrieNode
-				final ValueNode result = getObject();
-				object = null;
-				return result;
-			} finally {
-				lock.writeLock().unlock();
-			}
+			final ValueNode result = getObject();
+			object = null;
+			return result;
 		}
 
 		/**
@@ -979,12 +2916,25 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		 *            the new boundary
 		 */
 		public void setBoundary(final boolean boundary) {
-			try {
-				lock.writeLock().lock();
-				this.boundary = boundary;
-			} finally {
-				lock.writeLock().unlock();
-			}
+			this.boundary = boundary;
+		}
+
+		/**
+		 * Replaces the children of a node which is not yet published.
+		 * 
+		 * @param children
+		 *            the children, sorted by their character
+		 */
+		public void setChildren(final TrieNode<ValueNode>[] children) {
+			this.children = children;
+		}
+
+		public void setAggregates(final Object[] aggregates) {
+			this.aggregates = aggregates;
+		}
+
+		public void setSpelling(final String spelling) {
+			this.spelling = spelling;
 		}
 
 		/*
@@ -995,7 +2945,7 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 		@Override
 		public String toString() {
 			final StringBuilder sb = new StringBuilder("{");
-			for (final TrieNode<ValueNode> node : children.values()) {
+			for (final TrieNode<ValueNode> node : children) {
 				node.toString(sb, "");
 			}
 			return sb.append("}").toString();
@@ -1043,12 +2993,48 @@ public class TrieMap<Value> implements Serializable, Map<String, Value>, Cloneab
 				sb.append(prefix + character);
 				sb.append(" : ").append(object.toString()).append(";\n");
 			}
-			for (final TrieNode<ValueNode> node : children.values()) {
+			for (final TrieNode<ValueNode> node : children) {
 				node.toString(sb, prefix + character.charValue());
 			}
 			return sb;
 		}
 
+		private void insertChild(final TrieNode<ValueNode>[] current, final int insertAt,
+				final TrieNode<ValueNode> node) {
+			final TrieNode<ValueNode>[] updated = newChildren(current.length + 1);
+			System.arraycopy(current, 0, updated, 0, insertAt);
+			updated[insertAt] = node;
+			System.arraycopy(current, insertAt, updated, insertAt + 1, current.length - insertAt);
+			children = updated;
+		}
+
+		private int indexOf(final TrieNode<ValueNode>[] nodes, final char c) {
+			int low = 0;
+			int high = nodes.length - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final char midChar = nodes[mid].getNodeValue();
+				if (midChar < c) {
+					low = mid + 1;
+				} else if (midChar > c) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+
+		@SuppressWarnings("unchecked")
+		private TrieNode<ValueNode>[] newChildren(final int size) {
+			return new TrieNode[size];
+		}
+
+		@SuppressWarnings("unchecked")
+		private TrieNode<ValueNode>[] noChildren() {
+			return NO_CHILDREN;
+		}
+
 	}
 
 }
@@ -0,0 +1,80 @@
+package delight.trie;
+
+/**
+ * Receives measurements from the hot paths of a {@link TrieMap}, for
+ * instance to bridge them to JMX or a metrics library.<br/>
+ * Implementations are called concurrently from all threads using the map and
+ * should be cheap. Maps created with {@link #DISABLED} skip all measurements,
+ * including reading the clock.
+ */
+public interface TrieMetrics {
+
+	/**
+	 * The measured operations.
+	 */
+	public enum Operation {
+		GET, CONTAINS, BEST_MATCH, PUT, REMOVE, REMOVE_PREFIX, COMPLETIONS, SUB_MAP, SUB_VALUES
+	}
+
+	/**
+	 * Does not record anything.
+	 */
+	public static final TrieMetrics DISABLED = new TrieMetrics() {
+
+		@Override
+		public long now() {
+			return 0;
+		}
+
+		@Override
+		public void lookup(final Operation operation, final int depth, final boolean hit, final long start) {
+		}
+
+		@Override
+		public void operation(final Operation operation, final long start) {
+		}
+
+		@Override
+		public void lockWait(final long start) {
+		}
+	};
+
+	/**
+	 * @return the current time in a unit of the implementation's choice,
+	 *         passed back as <code>start</code>
+	 */
+	public long now();
+
+	/**
+	 * Records a lookup of a single key.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param depth
+	 *            the number of nodes walked
+	 * @param hit
+	 *            true if the key was found
+	 * @param start
+	 *            the time the lookup started
+	 */
+	public void lookup(Operation operation, int depth, boolean hit, long start);
+
+	/**
+	 * Records an operation which is not a lookup of a single key.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param start
+	 *            the time the operation started
+	 */
+	public void operation(Operation operation, long start);
+
+	/**
+	 * Records the time spent waiting for a write lock.
+	 *
+	 * @param start
+	 *            the time the lock was requested
+	 */
+	public void lockWait(long start);
+
+}
@@ -0,0 +1,387 @@
+package delight.trie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compiled pattern for {@link TrieMap#match(TriePattern)}. Patterns always
+ * have to match the whole key.<br/>
+ * Patterns are compiled to a sequence of character classes which may be
+ * optional or repeated. They are evaluated as a nondeterministic automaton one
+ * character at a time, so the trie can be walked in lockstep and subtrees no
+ * key of which can match are skipped.<br/>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class TriePattern {
+
+	private static final int ONE = 0;
+
+	private static final int OPTIONAL = 1;
+
+	private static final int REPEATED = 2;
+
+	private final String source;
+
+	private final CharClass[] classes;
+
+	private final int[] kinds;
+
+	private TriePattern(final String source, final List<CharClass> classes, final List<Integer> kinds) {
+		this.source = source;
+		this.classes = classes.toArray(new CharClass[classes.size()]);
+		this.kinds = new int[kinds.size()];
+		for (int i = 0; i < this.kinds.length; i++) {
+			this.kinds[i] = kinds.get(i).intValue();
+		}
+	}
+
+	/**
+	 * Compiles a glob pattern. <code>*</code> matches any sequence of
+	 * characters, <code>?</code> matches a single character and
+	 * <code>[a-z]</code> or <code>[!a-z]</code> match a character in or not in
+	 * the given set. A backslash escapes the following character.
+	 *
+	 * @param glob
+	 *            the glob
+	 * @return the pattern
+	 */
+	public static TriePattern glob(final String glob) {
+		final List<CharClass> classes = new ArrayList<CharClass>();
+		final List<Integer> kinds = new ArrayList<Integer>();
+		int i = 0;
+		while (i < glob.length()) {
+			final char c = glob.charAt(i);
+			if (c == '*') {
+				classes.add(CharClass.ANY);
+				kinds.add(REPEATED);
+				i++;
+			} else if (c == '?') {
+				classes.add(CharClass.ANY);
+				kinds.add(ONE);
+				i++;
+			} else if (c == '[') {
+				i = parseClass(glob, i, '!', classes);
+				kinds.add(ONE);
+			} else {
+				if (c == '\\') {
+					i++;
+					checkNotAtEnd(glob, i);
+				}
+				classes.add(CharClass.literal(glob.charAt(i)));
+				kinds.add(ONE);
+				i++;
+			}
+		}
+		return new TriePattern(glob, classes, kinds);
+	}
+
+	/**
+	 * Compiles a regular expression. Only a subset is supported: literal
+	 * characters, <code>.</code>, character classes like <code>[a-z]</code>
+	 * or <code>[^a-z]</code>, escapes with a backslash and the quantifiers
+	 * <code>?</code>, <code>*</code> and <code>+</code>. Groups, alternatives
+	 * and anchors are not supported.
+	 *
+	 * @param regex
+	 *            the regular expression
+	 * @return the pattern
+	 */
+	public static TriePattern regex(final String regex) {
+		final List<CharClass> classes = new ArrayList<CharClass>();
+		final List<Integer> kinds = new ArrayList<Integer>();
+		int i = 0;
+		while (i < regex.length()) {
+			final char c = regex.charAt(i);
+			if (c == '.') {
+				classes.add(CharClass.ANY);
+				i++;
+			} else if (c == '[') {
+				i = parseClass(regex, i, '^', classes);
+			} else if ("()|{}^$".indexOf(c) >= 0) {
+				throw new IllegalArgumentException("Unsupported regular expression <" + regex + "> at " + i);
+			} else if (c == '?' || c == '*' || c == '+') {
+				throw new IllegalArgumentException("Dangling quantifier in <" + regex + "> at " + i);
+			} else {
+				if (c == '\\') {
+					i++;
+					checkNotAtEnd(regex, i);
+				}
+				classes.add(CharClass.literal(regex.charAt(i)));
+				i++;
+			}
+			final char quantifier = (i < regex.length()) ? regex.charAt(i) : 0;
+			if (quantifier == '?') {
+				kinds.add(OPTIONAL);
+				i++;
+			} else if (quantifier == '*') {
+				kinds.add(REPEATED);
+				i++;
+			} else if (quantifier == '+') {
+				// one followed by any number
+				kinds.add(ONE);
+				classes.add(classes.get(classes.size() - 1));
+				kinds.add(REPEATED);
+				i++;
+			} else {
+				kinds.add(ONE);
+			}
+		}
+		return new TriePattern(regex, classes, kinds);
+	}
+
+	/**
+	 * Checks if the whole key matches this pattern.
+	 *
+	 * @param key
+	 *            the key
+	 * @return true if it matches
+	 */
+	public boolean matches(final CharSequence key) {
+		boolean[] states = start();
+		for (int i = 0; i < key.length() && states != null; i++) {
+			states = step(states, key.charAt(i), CharNormalizers.IDENTITY);
+		}
+		return states != null && accepts(states);
+	}
+
+	@Override
+	public String toString() {
+		return source;
+	}
+
+	/**
+	 * @return the states before the first character
+	 */
+	boolean[] start() {
+		final boolean[] states = new boolean[classes.length + 1];
+		add(states, 0);
+		return states;
+	}
+
+	/**
+	 * Advances the automaton by one character.
+	 *
+	 * @param states
+	 *            the current states
+	 * @param c
+	 *            the normalized character
+	 * @param normalizer
+	 *            the normalizer of the matched keys
+	 * @return the next states or null if no key can match anymore
+	 */
+	boolean[] step(final boolean[] states, final char c, final CharNormalizer normalizer) {
+		boolean[] next = null;
+		for (int i = 0; i < classes.length; i++) {
+			if (states[i] && classes[i].matches(c, normalizer)) {
+				if (next == null) {
+					next = new boolean[states.length];
+				}
+				add(next, (kinds[i] == REPEATED) ? i : i + 1);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * @return true if a key ending in the given states matches
+	 */
+	boolean accepts(final boolean[] states) {
+		return states[classes.length];
+	}
+
+	/**
+	 * Collects the only characters which can advance the given states, so
+	 * that children can be looked up instead of scanned.
+	 *
+	 * @return the sorted characters or null if any wildcard or class is
+	 *         active
+	 */
+	char[] literals(final boolean[] states, final CharNormalizer normalizer) {
+		int count = 0;
+		for (int i = 0; i < classes.length; i++) {
+			if (states[i]) {
+				if (!classes[i].isLiteral()) {
+					return null;
+				}
+				count++;
+			}
+		}
+		final char[] result = new char[count];
+		count = 0;
+		for (int i = 0; i < classes.length; i++) {
+			if (states[i]) {
+				result[count++] = normalizer.normalize(classes[i].from[0]);
+			}
+		}
+		// in key order and without duplicates
+		Arrays.sort(result);
+		int unique = 0;
+		for (int i = 0; i < result.length; i++) {
+			if (i == 0 || result[i] != result[unique - 1]) {
+				result[unique++] = result[i];
+			}
+		}
+		return (unique == result.length) ? result : Arrays.copyOf(result, unique);
+	}
+
+	/**
+	 * Adds the state and all states reachable by skipping optional elements.
+	 */
+	private void add(final boolean[] states, final int state) {
+		for (int i = state; i < states.length; i++) {
+			states[i] = true;
+			if (i == classes.length || kinds[i] == ONE) {
+				return;
+			}
+		}
+	}
+
+	private static int parseClass(final String pattern, final int start, final char negation,
+			final List<CharClass> classes) {
+		int i = start + 1;
+		final boolean negated = i < pattern.length() && pattern.charAt(i) == negation;
+		if (negated) {
+			i++;
+		}
+		final StringBuilder from = new StringBuilder();
+		final StringBuilder to = new StringBuilder();
+		boolean first = true;
+		while (true) {
+			checkNotAtEnd(pattern, i);
+			char c = pattern.charAt(i);
+			if (c == ']' && !first) {
+				break;
+			}
+			first = false;
+			if (c == '\\') {
+				i++;
+				checkNotAtEnd(pattern, i);
+				c = pattern.charAt(i);
+			}
+			char end = c;
+			if (i + 2 < pattern.length() && pattern.charAt(i + 1) == '-' && pattern.charAt(i + 2) != ']') {
+				end = pattern.charAt(i + 2);
+				i += 2;
+				if (end < c) {
+					throw new IllegalArgumentException("Invalid range in <" + pattern + "> at " + i);
+				}
+			}
+			from.append(c);
+			to.append(end);
+			i++;
+		}
+		classes.add(new CharClass(from.toString().toCharArray(), to.toString().toCharArray(), negated));
+		return i + 1;
+	}
+
+	private static void checkNotAtEnd(final String pattern, final int index) {
+		if (index >= pattern.length()) {
+			throw new IllegalArgumentException("Unexpected end of pattern <" + pattern + ">");
+		}
+	}
+
+	/**
+	 * A set of characters given as ranges.
+	 */
+	private static final class CharClass {
+
+		private static final CharClass ANY = new CharClass(new char[0], new char[0], true);
+
+		private final char[] from;
+
+		private final char[] to;
+
+		private final boolean negated;
+
+		/** The ranges as seen through the normalizer used last. */
+		private volatile Folded folded;
+
+		private CharClass(final char[] from, final char[] to, final boolean negated) {
+			this.from = from;
+			this.to = to;
+			this.negated = negated;
+		}
+
+		private static CharClass literal(final char c) {
+			return new CharClass(new char[] { c }, new char[] { c }, false);
+		}
+
+		private boolean isLiteral() {
+			return !negated && from.length == 1 && from[0] == to[0];
+		}
+
+		private boolean matches(final char c, final CharNormalizer normalizer) {
+			final char[] lower;
+			final char[] upper;
+			if (normalizer == CharNormalizers.IDENTITY) {
+				lower = from;
+				upper = to;
+			} else {
+				final Folded current = fold(normalizer);
+				lower = current.from;
+				upper = current.to;
+			}
+			boolean in = false;
+			for (int i = 0; i < lower.length && !in; i++) {
+				in = lower[i] <= c && c <= upper[i];
+			}
+			return in != negated;
+		}
+
+		private Folded fold(final CharNormalizer normalizer) {
+			Folded current = folded;
+			if (current == null || current.normalizer != normalizer) {
+				current = new Folded(normalizer, from, to);
+				folded = current;
+			}
+			return current;
+		}
+	}
+
+	/**
+	 * The ranges of a class mapped through a normalizer, so that they can be
+	 * compared with the normalized characters of keys.
+	 */
+	private static final class Folded {
+
+		private final CharNormalizer normalizer;
+
+		private final char[] from;
+
+		private final char[] to;
+
+		private Folded(final CharNormalizer normalizer, final char[] from, final char[] to) {
+			int count = 0;
+			for (int i = 0; i < from.length; i++) {
+				count += to[i] - from[i] + 1;
+			}
+			final char[] chars = new char[count];
+			count = 0;
+			for (int i = 0; i < from.length; i++) {
+				for (int c = from[i]; c <= to[i]; c++) {
+					chars[count++] = normalizer.normalize((char) c);
+				}
+			}
+			Arrays.sort(chars);
+			// merge adjacent characters into ranges again
+			int ranges = 0;
+			for (int i = 0; i < chars.length; i++) {
+				if (i == 0 || chars[i] > chars[i - 1] + 1) {
+					ranges++;
+				}
+			}
+			this.normalizer = normalizer;
+			this.from = new char[ranges];
+			this.to = new char[ranges];
+			ranges = -1;
+			for (int i = 0; i < chars.length; i++) {
+				if (i == 0 || chars[i] > chars[i - 1] + 1) {
+					this.from[++ranges] = chars[i];
+				}
+				this.to[ranges] = chars[i];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+package delight.trie;
+
+import java.util.Arrays;
+
+/**
+ * Structural statistics of a {@link TrieMap} as returned by
+ * {@link TrieMap#stats()}.<br/>
+ * Memory is estimated for a 64 bit JVM with compressed references. Keys and
+ * values are not included, only the structure of the trie itself.
+ */
+public final class TrieStats {
+
+	private static final int HEADER = 12;
+
+	private static final int REFERENCE = 4;
+
+	/**
+	 * object, character, children, aggregates and spelling plus boundary,
+	 * size and hash.
+	 */
+	private static final int NODE_BYTES = align(HEADER + 5 * REFERENCE + 1 + 4 + 4);
+
+	private static final int CHARACTER_BYTES = align(HEADER + 2);
+
+	private static final int ARRAY_HEADER = 16;
+
+	private int nodes;
+
+	private int entries;
+
+	private long[] fanOuts = new long[8];
+
+	private long[] depths = new long[16];
+
+	private long[] chains = new long[8];
+
+	private long nodeBytes;
+
+	private long childArrayBytes;
+
+	private long characterBytes;
+
+	private long aggregateBytes;
+
+	TrieStats() {
+	}
+
+	/**
+	 * Records a node.
+	 *
+	 * @param character
+	 *            the character of the node
+	 * @param depth
+	 *            the depth, 0 for the root
+	 * @param fanOut
+	 *            the number of children
+	 * @param boundary
+	 *            true if a key ends at the node
+	 * @param aggregates
+	 *            the length of the array holding the aggregates of the node,
+	 *            0 if it has none
+	 */
+	void addNode(final char character, final int depth, final int fanOut, final boolean boundary,
+			final int aggregates) {
+		nodes++;
+		if (boundary) {
+			entries++;
+		}
+		fanOuts = increment(fanOuts, fanOut);
+		depths = increment(depths, depth);
+		nodeBytes += NODE_BYTES;
+		if (fanOut > 0) {
+			// nodes without children share an empty array
+			childArrayBytes += align(ARRAY_HEADER + fanOut * REFERENCE);
+		}
+		if (character > 127) {
+			// Character.valueOf() caches the ASCII range
+			characterBytes += CHARACTER_BYTES;
+		}
+		if (aggregates > 0) {
+			// nodes without aggregates share an empty array
+			aggregateBytes += align(ARRAY_HEADER + aggregates * REFERENCE);
+		}
+	}
+
+	/**
+	 * Records a chain of nodes which have a single child and no entry.
+	 *
+	 * @param length
+	 *            the number of nodes in the chain
+	 */
+	void addChain(final int length) {
+		chains = increment(chains, length);
+	}
+
+	/**
+	 * @return the number of nodes including the root
+	 */
+	public int nodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	public int entryCount() {
+		return entries;
+	}
+
+	/**
+	 * @return the depth of the deepest node
+	 */
+	public int maxDepth() {
+		return lastNonZero(depths);
+	}
+
+	/**
+	 * @return the number of nodes by their number of children
+	 */
+	public long[] fanOutHistogram() {
+		return trim(fanOuts);
+	}
+
+	/**
+	 * @return the number of nodes by their depth
+	 */
+	public long[] depthHistogram() {
+		return trim(depths);
+	}
+
+	/**
+	 * Chains of nodes with a single child and no entry could be collapsed
+	 * into one node by a path compressed layout.
+	 *
+	 * @return the number of chains by their length
+	 */
+	public long[] chainLengthHistogram() {
+		return trim(chains);
+	}
+
+	/**
+	 * @return the estimated bytes of the node objects
+	 */
+	public long nodeBytes() {
+		return nodeBytes;
+	}
+
+	/**
+	 * @return the estimated bytes of the arrays holding the children
+	 */
+	public long childArrayBytes() {
+		return childArrayBytes;
+	}
+
+	/**
+	 * @return the estimated bytes of boxed characters outside the cached
+	 *         range
+	 */
+	public long characterBytes() {
+		return characterBytes;
+	}
+
+	/**
+	 * @return the estimated bytes of the arrays holding the aggregates of the
+	 *         nodes, not including the aggregated values
+	 */
+	public long aggregateBytes() {
+		return aggregateBytes;
+	}
+
+	/**
+	 * @return the estimated bytes retained by the structure of the trie
+	 */
+	public long estimatedBytes() {
+		return nodeBytes + childArrayBytes + characterBytes + aggregateBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "TrieStats [nodes=" + nodes + ", entries=" + entries + ", maxDepth=" + maxDepth() + ", fanOut="
+				+ Arrays.toString(fanOutHistogram()) + ", chains=" + Arrays.toString(chainLengthHistogram())
+				+ ", estimatedBytes=" + estimatedBytes() + "]";
+	}
+
+	private static long[] increment(final long[] histogram, final int index) {
+		long[] result = histogram;
+		if (index >= result.length) {
+			result = Arrays.copyOf(result, Math.max(index + 1, result.length * 2));
+		}
+		result[index]++;
+		return result;
+	}
+
+	private static int lastNonZero(final long[] histogram) {
+		for (int i = histogram.length - 1; i >= 0; i--) {
+			if (histogram[i] != 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static long[] trim(final long[] histogram) {
+		return Arrays.copyOf(histogram, lastNonZero(histogram) + 1);
+	}
+
+	private static int align(final int bytes) {
+		return (bytes + 7) & ~7;
+	}
+
+}
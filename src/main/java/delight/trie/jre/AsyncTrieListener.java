@@ -0,0 +1,196 @@
+package delight.trie.jre;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import delight.trie.TrieChange;
+import delight.trie.TrieListener;
+
+/**
+ * Delivers the changes of a {@link delight.trie.TrieMap} to a slow listener
+ * on an executor, so that writers only pay for queueing them.<br/>
+ * At most <code>capacity</code> changes are queued. Batches which do not fit
+ * are dropped rather than blocking the writer. The listener notices this by a
+ * gap in the sequence numbers and can resynchronize, the number of dropped
+ * changes is available from {@link #getDropped()}. Queued batches with
+ * consecutive sequence numbers are delivered together in one call. If the
+ * executor rejects the delivery or the listener throws, the batches not
+ * delivered are dropped the same way.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public class AsyncTrieListener<Value> implements TrieListener<Value> {
+
+	private final TrieListener<Value> target;
+
+	private final Executor executor;
+
+	private final int capacity;
+
+	private final Object monitor = new Object();
+
+	/** Guarded by the monitor. */
+	private final List<Batch<Value>> pending = new ArrayList<Batch<Value>>();
+
+	/** The changes queued or being delivered, guarded by the monitor. */
+	private int queued;
+
+	/** Guarded by the monitor. */
+	private boolean draining;
+
+	/** Guarded by the monitor. */
+	private long dropped;
+
+	private final Runnable drain = new Runnable() {
+
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * Creates an asynchronous listener.
+	 *
+	 * @param target
+	 *            the listener to deliver to, never called concurrently
+	 * @param executor
+	 *            the executor
+	 * @param capacity
+	 *            the maximum number of changes waiting for delivery
+	 */
+	public AsyncTrieListener(final TrieListener<Value> target, final Executor executor, final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive but was " + capacity);
+		}
+		this.target = target;
+		this.executor = executor;
+		this.capacity = capacity;
+	}
+
+	@Override
+	public void onChanges(final long firstSequence, final List<TrieChange<Value>> changes) {
+		synchronized (monitor) {
+			if (queued + changes.size() > capacity) {
+				dropped += changes.size();
+				return;
+			}
+			pending.add(new Batch<Value>(firstSequence, changes));
+			queued += changes.size();
+			if (draining) {
+				return;
+			}
+			draining = true;
+		}
+		schedule();
+	}
+
+	/**
+	 * @return the number of changes dropped because the queue was full, the
+	 *         executor rejected their delivery or the listener failed to
+	 *         receive them
+	 */
+	public long getDropped() {
+		synchronized (monitor) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * @return the number of changes waiting for or in delivery
+	 */
+	public int getQueued() {
+		synchronized (monitor) {
+			return queued;
+		}
+	}
+
+	/**
+	 * Starts a drain after draining was set.
+	 */
+	private void schedule() {
+		try {
+			executor.execute(drain);
+		} catch (final RejectedExecutionException e) {
+			synchronized (monitor) {
+				// no other drain is running while draining is set
+				dropped += queued;
+				queued = 0;
+				pending.clear();
+				draining = false;
+			}
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			final List<Batch<Value>> batches;
+			synchronized (monitor) {
+				if (pending.isEmpty()) {
+					draining = false;
+					return;
+				}
+				batches = new ArrayList<Batch<Value>>(pending);
+				pending.clear();
+			}
+			boolean completed = false;
+			int delivered = 0;
+			try {
+				int i = 0;
+				while (i < batches.size()) {
+					// merge batches without a gap between them
+					final long first = batches.get(i).first;
+					final List<TrieChange<Value>> changes = new ArrayList<TrieChange<Value>>(batches.get(i).changes);
+					i++;
+					while (i < batches.size() && batches.get(i).first == first + changes.size()) {
+						changes.addAll(batches.get(i).changes);
+						i++;
+					}
+					target.onChanges(first, changes);
+					delivered += changes.size();
+				}
+				completed = true;
+			} finally {
+				boolean reschedule = false;
+				synchronized (monitor) {
+					final int count = countChanges(batches);
+					queued -= count;
+					if (!completed) {
+						// the listener failed, the batches queued meanwhile
+						// need a new drain
+						dropped += count - delivered;
+						draining = !pending.isEmpty();
+						reschedule = draining;
+					}
+				}
+				if (reschedule) {
+					schedule();
+				}
+			}
+		}
+	}
+
+	private static <Value> int countChanges(final List<Batch<Value>> batches) {
+		int count = 0;
+		for (final Batch<Value> batch : batches) {
+			count += batch.changes.size();
+		}
+		return count;
+	}
+
+	private static final class Batch<Value> {
+
+		private final long first;
+
+		private final List<TrieChange<Value>> changes;
+
+		private Batch(final long first, final List<TrieChange<Value>> changes) {
+			this.first = first;
+			this.changes = changes;
+		}
+	}
+
+}
@@ -0,0 +1,444 @@
+package delight.trie.jre;
+
+import java.nio.ByteBuffer;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleLock;
+
+/**
+ * A trie map with byte sequences as keys, for instance UTF-8 encoded strings
+ * received from the network.<br/>
+ * Keys are read directly from the given array or buffer; lookups do not copy
+ * or decode them. Nodes with few children keep them in a sorted array, nodes
+ * with many children switch to a table indexed by the byte value.<br/>
+ * As for {@link delight.trie.TrieMap}, reads do not take any locks while
+ * writers are serialized.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public class ByteTrieMap<Value> {
+
+	private final SimpleLock writeLock;
+
+	private volatile Node<Value> rootNode;
+
+	private volatile int size;
+
+	public ByteTrieMap(final Concurrency conn) {
+		writeLock = conn.newLock();
+		rootNode = new Node<Value>();
+	}
+
+	public Value get(final byte[] key) {
+		return get(key, 0, key.length);
+	}
+
+	/**
+	 * Gets the value for the key stored in the given range of the array.
+	 *
+	 * @param key
+	 *            the array containing the key
+	 * @param offset
+	 *            the index of the first byte of the key
+	 * @param length
+	 *            the length of the key
+	 * @return the value or null
+	 */
+	public Value get(final byte[] key, final int offset, final int length) {
+		Node<Value> node = rootNode;
+		for (int i = offset; i < offset + length && node != null; i++) {
+			node = node.children.get(key[i] & 0xff);
+		}
+		return (node == null) ? null : node.value;
+	}
+
+	/**
+	 * Gets the value for the key between position and limit of the buffer. The
+	 * position of the buffer is not changed.
+	 *
+	 * @param key
+	 *            the buffer
+	 * @return the value or null
+	 */
+	public Value get(final ByteBuffer key) {
+		Node<Value> node = rootNode;
+		for (int i = key.position(); i < key.limit() && node != null; i++) {
+			node = node.children.get(key.get(i) & 0xff);
+		}
+		return (node == null) ? null : node.value;
+	}
+
+	public boolean containsKey(final byte[] key, final int offset, final int length) {
+		Node<Value> node = rootNode;
+		for (int i = offset; i < offset + length && node != null; i++) {
+			node = node.children.get(key[i] & 0xff);
+		}
+		return node != null && node.hasValue;
+	}
+
+	/**
+	 * Gets the value of the longest key which is a prefix of the given range.
+	 *
+	 * @param key
+	 *            the array
+	 * @param offset
+	 *            the index of the first byte
+	 * @param length
+	 *            the length of the range
+	 * @return the value or null
+	 */
+	public Value getValueForBestMatchingKey(final byte[] key, final int offset, final int length) {
+		Value result = null;
+		Node<Value> node = rootNode;
+		for (int i = offset; i < offset + length; i++) {
+			node = node.children.get(key[i] & 0xff);
+			if (node == null) {
+				break;
+			}
+			if (node.hasValue) {
+				result = node.value;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the value of the longest key which is a prefix of the bytes between
+	 * position and limit of the buffer.
+	 *
+	 * @param key
+	 *            the buffer
+	 * @return the value or null
+	 */
+	public Value getValueForBestMatchingKey(final ByteBuffer key) {
+		Value result = null;
+		Node<Value> node = rootNode;
+		for (int i = key.position(); i < key.limit(); i++) {
+			node = node.children.get(key.get(i) & 0xff);
+			if (node == null) {
+				break;
+			}
+			if (node.hasValue) {
+				result = node.value;
+			}
+		}
+		return result;
+	}
+
+	public Value put(final byte[] key, final Value value) {
+		return put(key, 0, key.length, value);
+	}
+
+	/**
+	 * Associates the value with the key stored in the given range of the
+	 * array.
+	 *
+	 * @param key
+	 *            the array containing the key
+	 * @param offset
+	 *            the index of the first byte of the key
+	 * @param length
+	 *            the length of the key
+	 * @param value
+	 *            the value
+	 * @return the previous value or null
+	 */
+	public Value put(final byte[] key, final int offset, final int length, final Value value) {
+		writeLock.lock();
+		try {
+			Node<Value> node = rootNode;
+			for (int i = offset; i < offset + length; i++) {
+				node = node.child(key[i] & 0xff);
+			}
+			return setValue(node, value);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public Value put(final ByteBuffer key, final Value value) {
+		writeLock.lock();
+		try {
+			Node<Value> node = rootNode;
+			for (int i = key.position(); i < key.limit(); i++) {
+				node = node.child(key.get(i) & 0xff);
+			}
+			return setValue(node, value);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public Value remove(final byte[] key) {
+		return remove(key, 0, key.length);
+	}
+
+	/**
+	 * Removes the key stored in the given range of the array. Nodes which no
+	 * longer lead to any value are detached.
+	 *
+	 * @param key
+	 *            the array containing the key
+	 * @param offset
+	 *            the index of the first byte of the key
+	 * @param length
+	 *            the length of the key
+	 * @return the removed value or null
+	 */
+	public Value remove(final byte[] key, final int offset, final int length) {
+		writeLock.lock();
+		try {
+			// the last node on the path which has to be kept
+			Node<Value> keep = rootNode;
+			int cut = offset;
+			Node<Value> node = rootNode;
+			for (int i = offset; i < offset + length; i++) {
+				if (node.hasValue || node.children.size() > 1) {
+					keep = node;
+					cut = i;
+				}
+				node = node.children.get(key[i] & 0xff);
+				if (node == null) {
+					return null;
+				}
+			}
+			if (!node.hasValue) {
+				return null;
+			}
+			final Value result = node.value;
+			if (node.children.size() > 0 || length == 0) {
+				node.hasValue = false;
+				node.value = null;
+			} else {
+				keep.children = keep.children.without(key[cut] & 0xff);
+			}
+			size--;
+			return result;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		writeLock.lock();
+		try {
+			rootNode = new Node<Value>();
+			size = 0;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private Value setValue(final Node<Value> node, final Value value) {
+		final Value result = node.value;
+		node.value = value;
+		if (!node.hasValue) {
+			node.hasValue = true;
+			size++;
+		}
+		return result;
+	}
+
+	private static final class Node<V> {
+
+		private volatile V value;
+
+		private volatile boolean hasValue;
+
+		private volatile Children<V> children;
+
+		private Node() {
+			children = SparseChildren.empty();
+		}
+
+		private Node<V> child(final int b) {
+			Node<V> node = children.get(b);
+			if (node == null) {
+				node = new Node<V>();
+				children = children.with(b, node);
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * The children of a node. Instances are immutable and replaced as a
+	 * whole on write.
+	 */
+	private static abstract class Children<V> {
+
+		abstract Node<V> get(int b);
+
+		abstract Children<V> with(int b, Node<V> node);
+
+		abstract Children<V> without(int b);
+
+		abstract int size();
+	}
+
+	/**
+	 * Children kept in arrays sorted by their byte, for nodes with a low
+	 * fan-out.
+	 */
+	private static final class SparseChildren<V> extends Children<V> {
+
+		private static final int MAX_SIZE = 16;
+
+		@SuppressWarnings("unchecked")
+		private static final SparseChildren<Object> EMPTY = new SparseChildren<Object>(new byte[0], new Node[0]);
+
+		private final byte[] labels;
+
+		private final Node<V>[] nodes;
+
+		private SparseChildren(final byte[] labels, final Node<V>[] nodes) {
+			this.labels = labels;
+			this.nodes = nodes;
+		}
+
+		/**
+		 * @return the children of a leaf, shared by all nodes
+		 */
+		@SuppressWarnings("unchecked")
+		private static <V> SparseChildren<V> empty() {
+			return (SparseChildren<V>) (SparseChildren<?>) EMPTY;
+		}
+
+		private int indexOf(final int b) {
+			for (int i = 0; i < labels.length; i++) {
+				final int label = labels[i] & 0xff;
+				if (label == b) {
+					return i;
+				}
+				if (label > b) {
+					return -(i + 1);
+				}
+			}
+			return -(labels.length + 1);
+		}
+
+		@Override
+		Node<V> get(final int b) {
+			final int index = indexOf(b);
+			return (index < 0) ? null : nodes[index];
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Children<V> with(final int b, final Node<V> node) {
+			final int index = indexOf(b);
+			if (index >= 0) {
+				final Node<V>[] newNodes = nodes.clone();
+				newNodes[index] = node;
+				return new SparseChildren<V>(labels, newNodes);
+			}
+			if (labels.length == MAX_SIZE) {
+				return new DenseChildren<V>(this).with(b, node);
+			}
+			final int insertAt = -(index + 1);
+			final byte[] newLabels = new byte[labels.length + 1];
+			final Node<V>[] newNodes = new Node[nodes.length + 1];
+			System.arraycopy(labels, 0, newLabels, 0, insertAt);
+			System.arraycopy(nodes, 0, newNodes, 0, insertAt);
+			newLabels[insertAt] = (byte) b;
+			newNodes[insertAt] = node;
+			System.arraycopy(labels, insertAt, newLabels, insertAt + 1, labels.length - insertAt);
+			System.arraycopy(nodes, insertAt, newNodes, insertAt + 1, nodes.length - insertAt);
+			return new SparseChildren<V>(newLabels, newNodes);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Children<V> without(final int b) {
+			final int index = indexOf(b);
+			if (index < 0) {
+				return this;
+			}
+			final byte[] newLabels = new byte[labels.length - 1];
+			final Node<V>[] newNodes = new Node[nodes.length - 1];
+			System.arraycopy(labels, 0, newLabels, 0, index);
+			System.arraycopy(nodes, 0, newNodes, 0, index);
+			System.arraycopy(labels, index + 1, newLabels, index, labels.length - index - 1);
+			System.arraycopy(nodes, index + 1, newNodes, index, nodes.length - index - 1);
+			return new SparseChildren<V>(newLabels, newNodes);
+		}
+
+		@Override
+		int size() {
+			return labels.length;
+		}
+	}
+
+	/**
+	 * Children kept in a table with one slot per byte value, for nodes with a
+	 * high fan-out.
+	 */
+	private static final class DenseChildren<V> extends Children<V> {
+
+		private static final int MIN_SIZE = SparseChildren.MAX_SIZE / 2;
+
+		private final Node<V>[] nodes;
+
+		private final int size;
+
+		@SuppressWarnings("unchecked")
+		private DenseChildren(final SparseChildren<V> sparse) {
+			nodes = new Node[256];
+			for (int i = 0; i < sparse.labels.length; i++) {
+				nodes[sparse.labels[i] & 0xff] = sparse.nodes[i];
+			}
+			size = sparse.labels.length;
+		}
+
+		private DenseChildren(final Node<V>[] nodes, final int size) {
+			this.nodes = nodes;
+			this.size = size;
+		}
+
+		@Override
+		Node<V> get(final int b) {
+			return nodes[b];
+		}
+
+		@Override
+		Children<V> with(final int b, final Node<V> node) {
+			final Node<V>[] newNodes = nodes.clone();
+			newNodes[b] = node;
+			return new DenseChildren<V>(newNodes, (nodes[b] == null) ? size + 1 : size);
+		}
+
+		@Override
+		Children<V> without(final int b) {
+			if (nodes[b] == null) {
+				return this;
+			}
+			if (size - 1 <= MIN_SIZE) {
+				Children<V> sparse = SparseChildren.empty();
+				for (int i = 0; i < nodes.length; i++) {
+					if (i != b && nodes[i] != null) {
+						sparse = sparse.with(i, nodes[i]);
+					}
+				}
+				return sparse;
+			}
+			final Node<V>[] newNodes = nodes.clone();
+			newNodes[b] = null;
+			return new DenseChildren<V>(newNodes, size - 1);
+		}
+
+		@Override
+		int size() {
+			return size;
+		}
+	}
+
+}
@@ -0,0 +1,658 @@
+package delight.trie.jre;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import delight.concurrency.Concurrency;
+import delight.trie.TrieMap;
+
+/**
+ * A {@link TrieMap} which survives restarts. Every write is appended to a
+ * journal before it returns. Writers arriving while the journal is being
+ * synced to disk are collected and synced together with the next batch, so
+ * that concurrent writers share the cost of one fsync.<br/>
+ * Once the journal grows beyond a threshold a snapshot of all entries is
+ * written and the journal is truncated. When opened, the map loads the
+ * snapshot and replays the journal. A journal record which was not completely
+ * written, for instance because of a crash, is detected by its checksum and
+ * discarded together with everything after it.<br/>
+ * Reads go to the map in memory and take no locks.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public class JournaledTrieMap<Value> {
+
+	/**
+	 * Writes and reads values to and from the journal and snapshots.
+	 */
+	public interface Codec<Value> {
+
+		public void write(DataOutput out, Value value) throws IOException;
+
+		public Value read(DataInput in) throws IOException;
+	}
+
+	/**
+	 * Thrown if the journal cannot be written.
+	 */
+	public static class JournalException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		public JournalException(final String message, final Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	/**
+	 * Stores Strings.
+	 */
+	public static final Codec<String> STRING_CODEC = new Codec<String>() {
+
+		@Override
+		public void write(final DataOutput out, final String value) throws IOException {
+			writeString(out, value);
+		}
+
+		@Override
+		public String read(final DataInput in) throws IOException {
+			return readString(in);
+		}
+	};
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String JOURNAL = "journal";
+
+	private static final String SNAPSHOT = "snapshot";
+
+	private static final int SNAPSHOT_MAGIC = 0x54524945;
+
+	private static final byte PUT = 1;
+
+	private static final byte REMOVE = 2;
+
+	private static final byte CLEAR = 3;
+
+	private static final long DEFAULT_SNAPSHOT_THRESHOLD = 64L * 1024 * 1024;
+
+	/**
+	 * File.toPath() and FileChannel.open(Path, OpenOption...) with the READ
+	 * option, which are needed to sync a directory. Null before Java 7,
+	 * where renames cannot be synced.
+	 */
+	private static final Method TO_PATH;
+
+	private static final Method OPEN_CHANNEL;
+
+	private static final Object READ_OPTIONS;
+
+	static {
+		Method toPath = null;
+		Method openChannel = null;
+		Object readOptions = null;
+		try {
+			final Class<?> optionType = Class.forName("java.nio.file.OpenOption");
+			final Object read = Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null);
+			toPath = File.class.getMethod("toPath");
+			readOptions = Array.newInstance(optionType, 1);
+			Array.set(readOptions, 0, read);
+			openChannel = FileChannel.class.getMethod("open", toPath.getReturnType(), readOptions.getClass());
+		} catch (final Exception e) {
+			// Java 6
+			toPath = null;
+			openChannel = null;
+		}
+		TO_PATH = toPath;
+		OPEN_CHANNEL = openChannel;
+		READ_OPTIONS = readOptions;
+	}
+
+	private final TrieMap<Value> map;
+
+	/** Contains only keys which have been added, unlike the map itself. */
+	private final Map<String, Value> entries;
+
+	private final File directory;
+
+	private final Codec<Value> codec;
+
+	private final long snapshotThreshold;
+
+	private final Object monitor = new Object();
+
+	/** Records appended but not yet written, guarded by the monitor. */
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	private final DataOutputStream pendingOut = new DataOutputStream(pending);
+
+	private RandomAccessFile journalFile;
+
+	private FileChannel journal;
+
+	private long appended;
+
+	private long durable;
+
+	private boolean syncing;
+
+	private boolean closed;
+
+	private JournaledTrieMap(final Concurrency conn, final File directory, final Codec<Value> codec,
+			final long snapshotThreshold) {
+		this.map = new TrieMap<Value>(conn);
+		this.entries = map.prefixView("");
+		this.directory = directory;
+		this.codec = codec;
+		this.snapshotThreshold = snapshotThreshold;
+	}
+
+	/**
+	 * Opens the map stored in the directory with a snapshot threshold of 64
+	 * MB, creating it if it does not exist.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 * @param directory
+	 *            the directory
+	 * @param codec
+	 *            the codec of the values
+	 * @return the recovered map
+	 * @throws IOException
+	 *             if the files cannot be read
+	 */
+	public static <Value> JournaledTrieMap<Value> open(final Concurrency conn, final File directory,
+			final Codec<Value> codec) throws IOException {
+		return open(conn, directory, codec, DEFAULT_SNAPSHOT_THRESHOLD);
+	}
+
+	/**
+	 * Opens the map stored in the directory, creating it if it does not exist.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 * @param directory
+	 *            the directory
+	 * @param codec
+	 *            the codec of the values
+	 * @param snapshotThreshold
+	 *            the size in bytes of the journal above which a snapshot is
+	 *            written
+	 * @return the recovered map
+	 * @throws IOException
+	 *             if the files cannot be read
+	 */
+	public static <Value> JournaledTrieMap<Value> open(final Concurrency conn, final File directory,
+			final Codec<Value> codec, final long snapshotThreshold) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+		final JournaledTrieMap<Value> result = new JournaledTrieMap<Value>(conn, directory, codec,
+				snapshotThreshold);
+		result.recover();
+		return result;
+	}
+
+	public Value get(final String key) {
+		return map.get(key);
+	}
+
+	public boolean containsKey(final String key) {
+		return entries.containsKey(key);
+	}
+
+	public List<String> getCompletitions(final String prefix) {
+		return map.getCompletitions(prefix);
+	}
+
+	public List<Value> getSubValues(final String prefix) {
+		return map.getSubValues(prefix);
+	}
+
+	public Value getValueForBestMatchingKey(final String prefix) {
+		return map.getValueForBestMatchingKey(prefix);
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * Associates the value with the key. Returns once the change is durable.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return the previous value or null
+	 */
+	public Value put(final String key, final Value value) {
+		final Value result;
+		final long sequence;
+		synchronized (monitor) {
+			checkOpen();
+			result = map.put(key, value);
+			sequence = append(PUT, key, value);
+		}
+		sync(sequence);
+		return result;
+	}
+
+	/**
+	 * Removes the entry for the key. Returns once the change is durable.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the removed value or null
+	 */
+	public Value remove(final String key) {
+		final Value result;
+		final long sequence;
+		synchronized (monitor) {
+			checkOpen();
+			result = map.remove(key);
+			sequence = append(REMOVE, key, null);
+		}
+		sync(sequence);
+		return result;
+	}
+
+	/**
+	 * Removes all entries. Returns once the change is durable.
+	 */
+	public void clear() {
+		final long sequence;
+		synchronized (monitor) {
+			checkOpen();
+			map.clear();
+			sequence = append(CLEAR, null, null);
+		}
+		sync(sequence);
+	}
+
+	/**
+	 * Writes a snapshot of all entries and truncates the journal. Writers
+	 * wait until the snapshot is complete, readers are not blocked.
+	 *
+	 * @throws IOException
+	 *             if the snapshot cannot be written
+	 */
+	public void snapshot() throws IOException {
+		synchronized (monitor) {
+			checkOpen();
+			// wait for the sync in progress, the journal is truncated below
+			while (syncing) {
+				awaitMonitor();
+			}
+			final File temporary = new File(directory, SNAPSHOT + ".tmp");
+			final FileOutputStream file = new FileOutputStream(temporary);
+			try {
+				final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file),
+						new CRC32());
+				final DataOutputStream out = new DataOutputStream(checked);
+				out.writeInt(SNAPSHOT_MAGIC);
+				// writers wait for the monitor, so the entries do not change
+				out.writeInt(entries.size());
+				for (final Map.Entry<String, Value> entry : entries.entrySet()) {
+					writeString(out, entry.getKey());
+					writeValue(out, entry.getValue());
+				}
+				out.flush();
+				out.writeLong(checked.getChecksum().getValue());
+				out.flush();
+				file.getFD().sync();
+			} finally {
+				file.close();
+			}
+			replaceSnapshot(temporary);
+			// the rename must be durable before the journal is truncated
+			syncDirectory();
+			// records still pending are contained in the snapshot
+			pending.reset();
+			durable = appended;
+			journal.truncate(0);
+			journal.position(0);
+			journal.force(true);
+			monitor.notifyAll();
+		}
+	}
+
+	/**
+	 * Writes the records not yet synced and closes the journal.
+	 *
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 */
+	public void close() throws IOException {
+		final long sequence;
+		synchronized (monitor) {
+			// after a failure nothing more can be synced
+			sequence = closed ? durable : appended;
+		}
+		try {
+			sync(sequence);
+		} finally {
+			synchronized (monitor) {
+				while (syncing) {
+					awaitMonitor();
+				}
+				closed = true;
+				journalFile.close();
+			}
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Journal in " + directory + " has been closed or failed.");
+		}
+	}
+
+	/**
+	 * Encodes a record into the pending buffer. Requires the monitor.
+	 *
+	 * @return the sequence number of the record
+	 */
+	private long append(final byte operation, final String key, final Value value) {
+		try {
+			final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(payload);
+			out.writeByte(operation);
+			if (operation != CLEAR) {
+				writeString(out, key);
+			}
+			if (operation == PUT) {
+				writeValue(out, value);
+			}
+			final byte[] bytes = payload.toByteArray();
+			final CRC32 crc = new CRC32();
+			crc.update(bytes);
+			pendingOut.writeInt(bytes.length);
+			pendingOut.write(bytes);
+			pendingOut.writeInt((int) crc.getValue());
+			return ++appended;
+		} catch (final IOException e) {
+			throw new JournalException("Cannot encode record for " + key, e);
+		}
+	}
+
+	/**
+	 * Waits until the record with the given sequence number is durable. The
+	 * first writer finding no sync in progress writes and syncs all pending
+	 * records for everybody waiting.
+	 */
+	private void sync(final long sequence) {
+		while (true) {
+			final byte[] batch;
+			final long batchSequence;
+			synchronized (monitor) {
+				while (syncing && durable < sequence) {
+					awaitMonitor();
+				}
+				if (durable >= sequence) {
+					return;
+				}
+				if (closed) {
+					// a failed batch may have left a torn record, later ones
+					// would be lost on replay
+					throw new JournalException("Journal in " + directory + " failed before record " + sequence
+							+ " was written.", null);
+				}
+				syncing = true;
+				batch = pending.toByteArray();
+				pending.reset();
+				batchSequence = appended;
+			}
+			long journalSize = 0;
+			IOException failure = null;
+			try {
+				final ByteBuffer buffer = ByteBuffer.wrap(batch);
+				while (buffer.hasRemaining()) {
+					journal.write(buffer);
+				}
+				journal.force(false);
+				journalSize = journal.position();
+			} catch (final IOException e) {
+				failure = e;
+			}
+			synchronized (monitor) {
+				syncing = false;
+				if (failure == null) {
+					durable = Math.max(durable, batchSequence);
+				} else {
+					// the batch is lost, later records must not be written
+					closed = true;
+				}
+				monitor.notifyAll();
+			}
+			if (failure != null) {
+				throw new JournalException("Cannot write journal in " + directory, failure);
+			}
+			if (journalSize > snapshotThreshold) {
+				try {
+					snapshot();
+				} catch (final IOException e) {
+					throw new JournalException("Cannot write snapshot in " + directory, e);
+				}
+			}
+		}
+	}
+
+	private void awaitMonitor() {
+		try {
+			monitor.wait();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JournalException("Interrupted while waiting for the journal.", e);
+		}
+	}
+
+	private void recover() throws IOException {
+		final File snapshot = new File(directory, SNAPSHOT);
+		final File temporary = new File(directory, SNAPSHOT + ".tmp");
+		boolean fromTemporary = false;
+		if (snapshot.exists()) {
+			loadSnapshot(snapshot);
+		} else if (temporary.exists()) {
+			// a crash while replacing the snapshot, the journal has not been
+			// truncated yet, so replaying it over a complete snapshot is safe
+			try {
+				loadSnapshot(temporary);
+				fromTemporary = true;
+			} catch (final IOException e) {
+				// written only partially, the journal is complete
+			}
+		}
+		if (fromTemporary) {
+			replaceSnapshot(temporary);
+			syncDirectory();
+		} else if (temporary.exists() && !temporary.delete()) {
+			throw new IOException("Cannot delete " + temporary);
+		}
+		journalFile = new RandomAccessFile(new File(directory, JOURNAL), "rw");
+		journal = journalFile.getChannel();
+		final long valid = replay();
+		if (valid < journal.size()) {
+			// drop a torn record and anything after it
+			journal.truncate(valid);
+			journal.force(true);
+		}
+		journal.position(valid);
+	}
+
+	/**
+	 * Loads the entries of a snapshot, or none of them if it is incomplete or
+	 * corrupt.
+	 */
+	private void loadSnapshot(final File snapshot) throws IOException {
+		final List<String> keys = new ArrayList<String>();
+		final List<Value> values = new ArrayList<Value>();
+		final FileInputStream file = new FileInputStream(snapshot);
+		try {
+			final CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file), new CRC32());
+			final DataInputStream in = new DataInputStream(checked);
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not a snapshot: " + snapshot);
+			}
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				keys.add(readString(in));
+				values.add(readValue(in));
+			}
+			final long expected = checked.getChecksum().getValue();
+			if (in.readLong() != expected) {
+				throw new IOException("Corrupt snapshot: " + snapshot);
+			}
+		} finally {
+			file.close();
+		}
+		for (int i = 0; i < keys.size(); i++) {
+			map.put(keys.get(i), values.get(i));
+		}
+	}
+
+	private void replaceSnapshot(final File temporary) throws IOException {
+		final File snapshot = new File(directory, SNAPSHOT);
+		if (!temporary.renameTo(snapshot)) {
+			// not atomic on platforms where rename does not replace, recover()
+			// falls back to the temporary file
+			if (!snapshot.delete() || !temporary.renameTo(snapshot)) {
+				throw new IOException("Cannot replace " + snapshot);
+			}
+		}
+	}
+
+	/**
+	 * Makes renames in the directory durable. Does nothing before Java 7,
+	 * which cannot open directories.
+	 */
+	private void syncDirectory() throws IOException {
+		if (OPEN_CHANNEL == null) {
+			return;
+		}
+		FileChannel channel = null;
+		try {
+			channel = (FileChannel) OPEN_CHANNEL.invoke(null, TO_PATH.invoke(directory), READ_OPTIONS);
+			channel.force(true);
+		} catch (final IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} catch (final InvocationTargetException e) {
+			if (!(e.getCause() instanceof IOException)) {
+				throw new IllegalStateException(e.getCause());
+			}
+			// directories cannot be opened on Windows, where renames are
+			// durable once they return
+			if (File.separatorChar != '\\') {
+				throw (IOException) e.getCause();
+			}
+		} catch (final IOException e) {
+			if (File.separatorChar != '\\') {
+				throw e;
+			}
+		} finally {
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Applies the records of the journal.
+	 *
+	 * @return the length of the valid part of the journal
+	 */
+	private long replay() throws IOException {
+		final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(new File(directory, JOURNAL))));
+		long valid = 0;
+		try {
+			while (true) {
+				final int length;
+				final byte[] bytes;
+				try {
+					length = in.readInt();
+					if (length <= 0 || length > journal.size()) {
+						break;
+					}
+					bytes = new byte[length];
+					in.readFully(bytes);
+					final CRC32 crc = new CRC32();
+					crc.update(bytes);
+					if (in.readInt() != (int) crc.getValue()) {
+						break;
+					}
+				} catch (final EOFException e) {
+					break;
+				}
+				apply(new DataInputStream(new ByteArrayInputStream(bytes)));
+				valid += 4 + length + 4;
+			}
+		} finally {
+			in.close();
+		}
+		return valid;
+	}
+
+	private void apply(final DataInputStream record) throws IOException {
+		final byte operation = record.readByte();
+		if (operation == PUT) {
+			final String key = readString(record);
+			map.put(key, readValue(record));
+		} else if (operation == REMOVE) {
+			map.remove(readString(record));
+		} else if (operation == CLEAR) {
+			map.clear();
+		} else {
+			throw new IOException("Unknown journal record " + operation);
+		}
+	}
+
+	private void writeValue(final DataOutput out, final Value value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			codec.write(out, value);
+		}
+	}
+
+	private Value readValue(final DataInput in) throws IOException {
+		return in.readBoolean() ? codec.read(in) : null;
+	}
+
+	private static void writeString(final DataOutput out, final String value) throws IOException {
+		final byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final DataInput in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+}
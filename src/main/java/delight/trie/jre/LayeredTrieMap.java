@@ -0,0 +1,424 @@
+package delight.trie.jre;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleLock;
+import delight.trie.ImmutableTrieMap;
+import delight.trie.TrieMap;
+
+/**
+ * A map for mostly static dictionaries, which keeps its entries in an
+ * {@link ImmutableTrieMap} base and collects changes in a small
+ * {@link TrieMap} delta on top of it. Removing a key of the base leaves a
+ * tombstone in the delta.<br/>
+ * Reads ask the delta before the base, prefix queries merge the entries of
+ * both in key order. Once the delta holds <code>compactionThreshold</code>
+ * entries, a compaction on the executor folds it into a new base and swaps
+ * the layers at once. The new base shares all subtrees of the old one which
+ * were not changed, so compacting costs time proportional to the size of the
+ * delta rather than of the base.<br/>
+ * Reads take no locks. Writers are serialized, but do not wait for a running
+ * compaction: they go to a fresh delta while the previous one is folded.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public class LayeredTrieMap<Value> {
+
+	private static final Object TOMBSTONE = new Object();
+
+	private final Concurrency conn;
+
+	private final Executor executor;
+
+	private final int compactionThreshold;
+
+	/** Serializes writers. */
+	private final SimpleLock lock;
+
+	/** Serializes compactions. */
+	private final SimpleLock compactionLock;
+
+	private volatile Layers<Value> layers;
+
+	/** Guarded by the lock. */
+	private boolean compactionScheduled;
+
+	private volatile int size;
+
+	private final Runnable compaction = new Runnable() {
+
+		@Override
+		public void run() {
+			try {
+				compact();
+			} finally {
+				lock.lock();
+				try {
+					compactionScheduled = false;
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	};
+
+	/**
+	 * Creates a map with the given base.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 * @param executor
+	 *            the executor running compactions
+	 * @param base
+	 *            the initial entries
+	 * @param compactionThreshold
+	 *            the number of entries in the delta which triggers a
+	 *            compaction
+	 */
+	public LayeredTrieMap(final Concurrency conn, final Executor executor, final ImmutableTrieMap<Value> base,
+			final int compactionThreshold) {
+		if (compactionThreshold < 1) {
+			throw new IllegalArgumentException("Compaction threshold must be positive but was "
+					+ compactionThreshold);
+		}
+		this.conn = conn;
+		this.executor = executor;
+		this.compactionThreshold = compactionThreshold;
+		this.lock = conn.newLock();
+		this.compactionLock = conn.newLock();
+		this.layers = new Layers<Value>(base, new TrieMap<Object>(conn), null);
+		this.size = base.size();
+	}
+
+	public Value get(final String key) {
+		final Layers<Value> current = layers;
+		Object value = current.delta.get(key);
+		if (value == null && current.frozen != null) {
+			value = current.frozen.get(key);
+		}
+		if (value == null) {
+			return current.base.get(key);
+		}
+		return (value == TOMBSTONE) ? null : cast(value);
+	}
+
+	public boolean containsKey(final String key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Returns the entries whose keys start with the given prefix in key
+	 * order, merging the base with the changes made since it was built.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the entries
+	 */
+	public Iterable<Map.Entry<String, Value>> entries(final String prefix) {
+		final String path = (prefix == null) ? "" : prefix;
+		final Layers<Value> current = layers;
+		// the delta is small, so its changes are collected up front
+		final TreeMap<String, Object> changes = new TreeMap<String, Object>();
+		if (current.frozen != null) {
+			changes.putAll(current.frozen.prefixView(path));
+		}
+		changes.putAll(current.delta.prefixView(path));
+		final ImmutableTrieMap<Value> base = current.base.getSubMap(path);
+		return new Iterable<Map.Entry<String, Value>>() {
+
+			@Override
+			public Iterator<Map.Entry<String, Value>> iterator() {
+				return new MergeIterator<Value>(base.entrySet().iterator(), changes.entrySet().iterator());
+			}
+		};
+	}
+
+	/**
+	 * Returns the keys starting with the given prefix in sorted order.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the list
+	 */
+	public List<String> getCompletitions(final String prefix) {
+		final List<String> result = new ArrayList<String>();
+		for (final Map.Entry<String, Value> entry : entries(prefix)) {
+			result.add(entry.getKey());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the values of the keys starting with the given prefix, ordered
+	 * by their keys.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the list
+	 */
+	public List<Value> getSubValues(final String prefix) {
+		final List<Value> result = new ArrayList<Value>();
+		for (final Map.Entry<String, Value> entry : entries(prefix)) {
+			result.add(entry.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * @return the current base, which does not contain the changes still
+	 *         waiting in the delta
+	 */
+	public ImmutableTrieMap<Value> getBase() {
+		return layers.base;
+	}
+
+	/**
+	 * @return the number of changes and tombstones not yet folded into the
+	 *         base
+	 */
+	public int getDeltaSize() {
+		final Layers<Value> current = layers;
+		return current.delta.size() + ((current.frozen == null) ? 0 : current.frozen.size());
+	}
+
+	/**
+	 * Adds an entry.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value, not null
+	 * @return the previous value or null
+	 */
+	public Value put(final String key, final Value value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Values must not be null, use remove for key " + key);
+		}
+		final Value previous;
+		final boolean compact;
+		lock.lock();
+		try {
+			previous = get(key);
+			layers.delta.put(key, value);
+			if (previous == null) {
+				size++;
+			}
+			compact = scheduleCompaction();
+		} finally {
+			lock.unlock();
+		}
+		if (compact) {
+			startCompaction();
+		}
+		return previous;
+	}
+
+	public Value remove(final String key) {
+		final Value previous;
+		final boolean compact;
+		lock.lock();
+		try {
+			previous = get(key);
+			if (previous == null) {
+				return null;
+			}
+			final Layers<Value> current = layers;
+			if (current.base.containsKey(key) || (current.frozen != null && current.frozen.get(key) != null)) {
+				// hide the entry of a lower layer
+				current.delta.put(key, TOMBSTONE);
+			} else {
+				current.delta.remove(key);
+			}
+			size--;
+			compact = scheduleCompaction();
+		} finally {
+			lock.unlock();
+		}
+		if (compact) {
+			startCompaction();
+		}
+		return previous;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Folds the delta into a new base in the calling thread. Writes continue
+	 * to a new delta meanwhile.
+	 */
+	public void compact() {
+		compactionLock.lock();
+		try {
+			final Layers<Value> frozen;
+			lock.lock();
+			try {
+				final Layers<Value> current = layers;
+				if (current.delta.isEmpty()) {
+					return;
+				}
+				frozen = new Layers<Value>(current.base, new TrieMap<Object>(conn), current.delta);
+				layers = frozen;
+			} finally {
+				lock.unlock();
+			}
+			ImmutableTrieMap<Value> base = frozen.base;
+			for (final Map.Entry<String, Object> change : frozen.frozen.prefixView("").entrySet()) {
+				if (change.getValue() == TOMBSTONE) {
+					base = base.without(change.getKey());
+				} else {
+					base = base.with(change.getKey(), LayeredTrieMap.<Value> cast(change.getValue()));
+				}
+			}
+			lock.lock();
+			try {
+				layers = new Layers<Value>(base, layers.delta, null);
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			compactionLock.unlock();
+		}
+	}
+
+	/**
+	 * Called by writers holding the lock.
+	 * 
+	 * @return true if the writer should start a compaction after releasing
+	 *         the lock
+	 */
+	private boolean scheduleCompaction() {
+		if (compactionScheduled || layers.delta.size() < compactionThreshold) {
+			return false;
+		}
+		compactionScheduled = true;
+		return true;
+	}
+
+	/**
+	 * Hands the scheduled compaction to the executor. If it is rejected, the
+	 * next write which reaches the threshold tries again.
+	 */
+	private void startCompaction() {
+		try {
+			executor.execute(compaction);
+		} catch (final RejectedExecutionException e) {
+			lock.lock();
+			try {
+				compactionScheduled = false;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <Value> Value cast(final Object value) {
+		return (Value) value;
+	}
+
+	/**
+	 * The base, the delta taking writes and the delta being compacted, if
+	 * any, replaced together.
+	 */
+	private static final class Layers<Value> {
+
+		private final ImmutableTrieMap<Value> base;
+
+		private final TrieMap<Object> delta;
+
+		private final TrieMap<Object> frozen;
+
+		private Layers(final ImmutableTrieMap<Value> base, final TrieMap<Object> delta, final TrieMap<Object> frozen) {
+			this.base = base;
+			this.delta = delta;
+			this.frozen = frozen;
+		}
+	}
+
+	/**
+	 * Merges the sorted entries of the base with the sorted changes, which
+	 * replace entries with the same key or hide them by a tombstone.
+	 */
+	private static final class MergeIterator<Value> implements Iterator<Map.Entry<String, Value>> {
+
+		private final Iterator<Map.Entry<String, Value>> base;
+
+		private final Iterator<Map.Entry<String, Object>> changes;
+
+		private Map.Entry<String, Value> nextBase;
+
+		private Map.Entry<String, Object> nextChange;
+
+		private Map.Entry<String, Value> next;
+
+		private MergeIterator(final Iterator<Map.Entry<String, Value>> base,
+				final Iterator<Map.Entry<String, Object>> changes) {
+			this.base = base;
+			this.changes = changes;
+			this.nextBase = base.hasNext() ? base.next() : null;
+			this.nextChange = changes.hasNext() ? changes.next() : null;
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (next == null && (nextBase != null || nextChange != null)) {
+				final int order;
+				if (nextBase == null) {
+					order = 1;
+				} else if (nextChange == null) {
+					order = -1;
+				} else {
+					order = nextBase.getKey().compareTo(nextChange.getKey());
+				}
+				if (order < 0) {
+					next = nextBase;
+					nextBase = base.hasNext() ? base.next() : null;
+					continue;
+				}
+				if (order == 0) {
+					nextBase = base.hasNext() ? base.next() : null;
+				}
+				final Map.Entry<String, Object> change = nextChange;
+				nextChange = changes.hasNext() ? changes.next() : null;
+				if (change.getValue() != TOMBSTONE) {
+					next = new SimpleImmutableEntry<String, Value>(change.getKey(),
+							LayeredTrieMap.<Value> cast(change.getValue()));
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<String, Value> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			final Map.Entry<String, Value> result = next;
+			advance();
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Entries are read only.");
+		}
+	}
+
+}
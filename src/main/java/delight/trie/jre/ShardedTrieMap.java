@@ -0,0 +1,369 @@
+package delight.trie.jre;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.wrappers.SimpleLock;
+import delight.concurrency.wrappers.SimpleReadWriteLock;
+import delight.trie.TrieMap;
+
+/**
+ * Partitions keys across independent {@link TrieMap} shards by sorted
+ * boundaries, so that writers to different shards never share a lock and
+ * each shard can be built by its own thread.<br/>
+ * Shard <code>i</code> holds the keys from boundary <code>i - 1</code>
+ * inclusive to boundary <code>i</code> exclusive. Point operations go to one
+ * shard. Prefix queries only ask the shards whose range can contain keys with
+ * the prefix, in parallel if there are several, and concatenate their
+ * results, which keeps them sorted.<br/>
+ * {@link #putAll(Map)} fills the shards in parallel and {@link #rebalance()}
+ * moves the boundaries to the quantiles of the current keys, building the
+ * new shards in parallel and swapping them in at once. Reads take no locks,
+ * writes wait while the shards are being rebuilt.
+ *
+ * @param <Value>
+ *            the value type
+ */
+public class ShardedTrieMap<Value> {
+
+	private final Concurrency conn;
+
+	private final ExecutorService executor;
+
+	/** Writes share it, rebalancing takes it exclusively. */
+	private final SimpleReadWriteLock layoutLock;
+
+	private volatile Layout<Value> layout;
+
+	/**
+	 * Creates a map with the given boundaries.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 * @param executor
+	 *            the executor building and querying shards in parallel
+	 * @param boundaries
+	 *            the first keys of all shards but the first, strictly
+	 *            increasing
+	 */
+	public ShardedTrieMap(final Concurrency conn, final ExecutorService executor, final String... boundaries) {
+		for (int i = 0; i < boundaries.length; i++) {
+			if (boundaries[i] == null || (i > 0 && boundaries[i - 1].compareTo(boundaries[i]) >= 0)) {
+				throw new IllegalArgumentException("Boundaries must be strictly increasing: "
+						+ Arrays.toString(boundaries));
+			}
+		}
+		this.conn = conn;
+		this.executor = executor;
+		this.layoutLock = conn.newReadWriteLock();
+		this.layout = new Layout<Value>(boundaries.clone(), newShards(conn, boundaries.length + 1));
+	}
+
+	/**
+	 * Creates a map partitioned by the first character of the keys, splitting
+	 * the printable ASCII characters evenly.
+	 *
+	 * @param conn
+	 *            the concurrency
+	 * @param executor
+	 *            the executor
+	 * @param shards
+	 *            the number of shards
+	 * @return the map
+	 */
+	public static <Value> ShardedTrieMap<Value> byLeadingCharacter(final Concurrency conn,
+			final ExecutorService executor, final int shards) {
+		final char first = ' ';
+		final char last = '~';
+		final int count = Math.max(1, Math.min(shards, last - first + 1));
+		final String[] boundaries = new String[count - 1];
+		for (int i = 1; i < count; i++) {
+			boundaries[i - 1] = String.valueOf((char) (first + (last - first + 1) * i / count));
+		}
+		return new ShardedTrieMap<Value>(conn, executor, boundaries);
+	}
+
+	public Value get(final String key) {
+		return layout.shardFor(key).get(key);
+	}
+
+	public boolean containsKey(final String key) {
+		return layout.shardFor(key).containsKey(key);
+	}
+
+	/**
+	 * Returns the keys starting with the given prefix in sorted order.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the list
+	 */
+	public List<String> getCompletitions(final String prefix) {
+		return scatter(prefix, new Query<Value, String>() {
+
+			@Override
+			public List<String> run(final TrieMap<Value> shard) {
+				return shard.getCompletitions(prefix);
+			}
+		});
+	}
+
+	/**
+	 * Returns the values of the keys starting with the given prefix, ordered
+	 * by their keys.
+	 *
+	 * @param prefix
+	 *            the prefix
+	 * @return the list
+	 */
+	public List<Value> getSubValues(final String prefix) {
+		return scatter(prefix, new Query<Value, Value>() {
+
+			@Override
+			public List<Value> run(final TrieMap<Value> shard) {
+				return shard.getSubValues(prefix);
+			}
+		});
+	}
+
+	/**
+	 * @return the current boundaries between the shards
+	 */
+	public String[] getBoundaries() {
+		return layout.boundaries.clone();
+	}
+
+	public Value put(final String key, final Value value) {
+		final SimpleLock lock = layoutLock.readLock();
+		lock.lock();
+		try {
+			return layout.shardFor(key).put(key, value);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds all entries, filling the shards in parallel.
+	 *
+	 * @param map
+	 *            the entries
+	 */
+	public void putAll(final Map<String, ? extends Value> map) {
+		final SimpleLock lock = layoutLock.readLock();
+		lock.lock();
+		try {
+			final Layout<Value> current = layout;
+			final List<List<Map.Entry<String, ? extends Value>>> partitions = new ArrayList<List<Map.Entry<String, ? extends Value>>>();
+			for (int i = 0; i < current.shards.length; i++) {
+				partitions.add(new ArrayList<Map.Entry<String, ? extends Value>>());
+			}
+			for (final Map.Entry<String, ? extends Value> entry : map.entrySet()) {
+				partitions.get(current.indexOf(entry.getKey())).add(entry);
+			}
+			final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for (int i = 0; i < current.shards.length; i++) {
+				final TrieMap<Value> shard = current.shards[i];
+				final List<Map.Entry<String, ? extends Value>> entries = partitions.get(i);
+				if (!entries.isEmpty()) {
+					tasks.add(new Callable<Void>() {
+
+						@Override
+						public Void call() {
+							for (final Map.Entry<String, ? extends Value> entry : entries) {
+								shard.put(entry.getKey(), entry.getValue());
+							}
+							return null;
+						}
+					});
+				}
+			}
+			runAll(tasks);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the boundaries so that the shards hold about the same number of
+	 * keys, unless there are fewer keys than shards. The new shards are built
+	 * in parallel and replace the old ones at once, writes wait until they
+	 * are in place.
+	 */
+	public void rebalance() {
+		final SimpleLock lock = layoutLock.writeLock();
+		lock.lock();
+		try {
+			final Layout<Value> current = layout;
+			final List<Callable<List<String>>> collect = new ArrayList<Callable<List<String>>>();
+			for (final TrieMap<Value> shard : current.shards) {
+				collect.add(new Callable<List<String>>() {
+
+					@Override
+					public List<String> call() {
+						return shard.getCompletitions("");
+					}
+				});
+			}
+			// the shards are ordered, so the keys are sorted
+			final List<String> keys = new ArrayList<String>();
+			for (final List<String> shardKeys : runAll(collect)) {
+				keys.addAll(shardKeys);
+			}
+			final int count = current.shards.length;
+			if (keys.size() < count) {
+				return;
+			}
+			final String[] boundaries = new String[count - 1];
+			final int[] starts = new int[count + 1];
+			for (int i = 1; i < count; i++) {
+				starts[i] = (int) ((long) keys.size() * i / count);
+				boundaries[i - 1] = keys.get(starts[i]);
+			}
+			starts[count] = keys.size();
+			final TrieMap<Value>[] shards = newShards(conn, count);
+			final List<Callable<Void>> build = new ArrayList<Callable<Void>>();
+			for (int i = 0; i < shards.length; i++) {
+				final TrieMap<Value> shard = shards[i];
+				final List<String> slice = keys.subList(starts[i], starts[i + 1]);
+				build.add(new Callable<Void>() {
+
+					@Override
+					public Void call() {
+						for (final String key : slice) {
+							shard.put(key, current.shardFor(key).get(key));
+						}
+						return null;
+					}
+				});
+			}
+			runAll(build);
+			layout = new Layout<Value>(boundaries, shards);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Value remove(final String key) {
+		final SimpleLock lock = layoutLock.readLock();
+		lock.lock();
+		try {
+			return layout.shardFor(key).remove(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int shardCount() {
+		return layout.shards.length;
+	}
+
+	public int size() {
+		int size = 0;
+		for (final TrieMap<Value> shard : layout.shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Runs the query on the shards which can contain keys with the prefix and
+	 * concatenates the results in the order of the shards.
+	 */
+	private <T> List<T> scatter(final String prefix, final Query<Value, T> query) {
+		final Layout<Value> current = layout;
+		final String path = (prefix == null) ? "" : prefix;
+		final int first = current.indexOf(path);
+		int last = first;
+		while (last < current.boundaries.length && current.boundaries[last].startsWith(path)) {
+			last++;
+		}
+		if (first == last) {
+			return query.run(current.shards[first]);
+		}
+		final List<Callable<List<T>>> tasks = new ArrayList<Callable<List<T>>>();
+		for (int i = first; i <= last; i++) {
+			final TrieMap<Value> shard = current.shards[i];
+			tasks.add(new Callable<List<T>>() {
+
+				@Override
+				public List<T> call() {
+					return query.run(shard);
+				}
+			});
+		}
+		final List<T> result = new ArrayList<T>();
+		for (final List<T> part : runAll(tasks)) {
+			result.addAll(part);
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the tasks on the executor and waits for all of them.
+	 */
+	private <T> List<T> runAll(final List<Callable<T>> tasks) {
+		try {
+			final List<T> results = new ArrayList<T>(tasks.size());
+			for (final Future<T> future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for shards", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Shard task failed", e.getCause());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <Value> TrieMap<Value>[] newShards(final Concurrency conn, final int count) {
+		final TrieMap<Value>[] shards = new TrieMap[count];
+		for (int i = 0; i < count; i++) {
+			shards[i] = new TrieMap<Value>(conn);
+		}
+		return shards;
+	}
+
+	private interface Query<Value, T> {
+
+		public List<T> run(TrieMap<Value> shard);
+	}
+
+	/**
+	 * The boundaries and shards, replaced together when rebalancing.
+	 */
+	private static final class Layout<Value> {
+
+		private final String[] boundaries;
+
+		private final TrieMap<Value>[] shards;
+
+		private Layout(final String[] boundaries, final TrieMap<Value>[] shards) {
+			this.boundaries = boundaries;
+			this.shards = shards;
+		}
+
+		private int indexOf(final String key) {
+			final int index = Arrays.binarySearch(boundaries, key);
+			// a boundary is the first key of the shard after it
+			return (index >= 0) ? index + 1 : -(index + 1);
+		}
+
+		private TrieMap<Value> shardFor(final String key) {
+			return shards[indexOf(key)];
+		}
+	}
+
+}
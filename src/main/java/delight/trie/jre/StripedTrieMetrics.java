@@ -0,0 +1,220 @@
+package delight.trie.jre;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import delight.trie.TrieMetrics;
+
+/**
+ * Records the measurements of a {@link delight.trie.TrieMap} in counters and
+ * latency histograms per operation.<br/>
+ * Every counter is striped by thread, so that threads recording concurrently
+ * do not contend on the same cache line. Reading the values sums up all
+ * stripes and is meant to be done periodically, for instance from a JMX bean
+ * or a gauge of a metrics library.<br/>
+ * Histograms have one bucket per power of two nanoseconds, percentiles are
+ * reported as the upper bound of their bucket.
+ */
+public class StripedTrieMetrics implements TrieMetrics {
+
+	private static final int OPERATIONS = Operation.values().length;
+
+	private static final int COUNT = 0;
+
+	private static final int HITS = 1;
+
+	private static final int DEPTH = 2;
+
+	private static final int NANOS = 3;
+
+	private static final int FIELDS = 4;
+
+	/** Lock waits are kept in an additional row after the operations. */
+	private static final int LOCK_ROW = OPERATIONS;
+
+	private static final int BUCKETS = 64;
+
+	/** The number of longs in a cache line. */
+	private static final int PADDING = 8;
+
+	private static final int COUNTER_STRIDE = (OPERATIONS + 1) * FIELDS + PADDING;
+
+	private static final int HISTOGRAM_STRIDE = OPERATIONS * BUCKETS + PADDING;
+
+	private final int stripes;
+
+	private final AtomicLongArray counters;
+
+	private final AtomicLongArray histograms;
+
+	public StripedTrieMetrics() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param concurrency
+	 *            the expected number of threads recording at the same time
+	 */
+	public StripedTrieMetrics(final int concurrency) {
+		int count = 1;
+		while (count < concurrency && count < 64) {
+			count <<= 1;
+		}
+		stripes = count;
+		counters = new AtomicLongArray(stripes * COUNTER_STRIDE);
+		histograms = new AtomicLongArray(stripes * HISTOGRAM_STRIDE);
+	}
+
+	@Override
+	public long now() {
+		return System.nanoTime();
+	}
+
+	@Override
+	public void lookup(final Operation operation, final int depth, final boolean hit, final long start) {
+		final long nanos = System.nanoTime() - start;
+		final int stripe = stripe();
+		final int base = stripe * COUNTER_STRIDE + operation.ordinal() * FIELDS;
+		counters.incrementAndGet(base + COUNT);
+		if (hit) {
+			counters.incrementAndGet(base + HITS);
+		}
+		counters.addAndGet(base + DEPTH, depth);
+		counters.addAndGet(base + NANOS, nanos);
+		histograms.incrementAndGet(stripe * HISTOGRAM_STRIDE + operation.ordinal() * BUCKETS + bucketOf(nanos));
+	}
+
+	@Override
+	public void operation(final Operation operation, final long start) {
+		final long nanos = System.nanoTime() - start;
+		final int stripe = stripe();
+		final int base = stripe * COUNTER_STRIDE + operation.ordinal() * FIELDS;
+		counters.incrementAndGet(base + COUNT);
+		counters.addAndGet(base + NANOS, nanos);
+		histograms.incrementAndGet(stripe * HISTOGRAM_STRIDE + operation.ordinal() * BUCKETS + bucketOf(nanos));
+	}
+
+	@Override
+	public void lockWait(final long start) {
+		final long nanos = System.nanoTime() - start;
+		final int base = stripe() * COUNTER_STRIDE + LOCK_ROW * FIELDS;
+		counters.incrementAndGet(base + COUNT);
+		counters.addAndGet(base + NANOS, nanos);
+	}
+
+	/**
+	 * @return the number of times the operation was recorded
+	 */
+	public long count(final Operation operation) {
+		return sum(operation.ordinal(), COUNT);
+	}
+
+	/**
+	 * @return the number of lookups which found their key
+	 */
+	public long hits(final Operation operation) {
+		return sum(operation.ordinal(), HITS);
+	}
+
+	/**
+	 * @return the number of lookups which did not find their key
+	 */
+	public long misses(final Operation operation) {
+		return count(operation) - hits(operation);
+	}
+
+	/**
+	 * @return the average number of nodes walked by lookups
+	 */
+	public double averageDepth(final Operation operation) {
+		final long count = count(operation);
+		return (count == 0) ? 0 : (double) sum(operation.ordinal(), DEPTH) / count;
+	}
+
+	/**
+	 * @return the total time spent in the operation
+	 */
+	public long totalNanos(final Operation operation) {
+		return sum(operation.ordinal(), NANOS);
+	}
+
+	/**
+	 * Estimates a percentile of the latency of the operation.
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param percentile
+	 *            the percentile between 0 and 100
+	 * @return the upper bound of the bucket containing the percentile
+	 */
+	public long percentileNanos(final Operation operation, final double percentile) {
+		final long[] buckets = new long[BUCKETS];
+		long total = 0;
+		for (int stripe = 0; stripe < stripes; stripe++) {
+			final int base = stripe * HISTOGRAM_STRIDE + operation.ordinal() * BUCKETS;
+			for (int i = 0; i < BUCKETS; i++) {
+				final long count = histograms.get(base + i);
+				buckets[i] += count;
+				total += count;
+			}
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets[i];
+			if (seen >= Math.max(rank, 1)) {
+				return (i == 63) ? Long.MAX_VALUE : (1L << i);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return the number of write locks taken
+	 */
+	public long lockWaits() {
+		return sum(LOCK_ROW, COUNT);
+	}
+
+	/**
+	 * @return the total time spent waiting for write locks
+	 */
+	public long lockWaitNanos() {
+		return sum(LOCK_ROW, NANOS);
+	}
+
+	/**
+	 * Sets all counters to zero. Measurements recorded concurrently may be
+	 * lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < counters.length(); i++) {
+			counters.set(i, 0);
+		}
+		for (int i = 0; i < histograms.length(); i++) {
+			histograms.set(i, 0);
+		}
+	}
+
+	private long sum(final int row, final int field) {
+		long result = 0;
+		for (int stripe = 0; stripe < stripes; stripe++) {
+			result += counters.get(stripe * COUNTER_STRIDE + row * FIELDS + field);
+		}
+		return result;
+	}
+
+	private int stripe() {
+		return (int) Thread.currentThread().getId() & (stripes - 1);
+	}
+
+	/**
+	 * @return the bucket holding latencies up to the next power of two
+	 */
+	private static int bucketOf(final long nanos) {
+		return (nanos <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(nanos - 1);
+	}
+
+}
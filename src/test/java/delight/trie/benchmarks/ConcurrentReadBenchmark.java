@@ -0,0 +1,97 @@
+package delight.trie.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.TrieMap;
+
+/**
+ * Measures the read throughput of a {@link TrieMap} for an increasing number
+ * of reader threads while one writer keeps modifying the map.
+ * <p>
+ * Run with <code>main</code>, optionally passing the maximum number of reader
+ * threads; not part of the test suite.
+ */
+public class ConcurrentReadBenchmark {
+
+	private static final int KEYS = 100000;
+
+	private static final long DURATION_MS = 2000;
+
+	public static void main(final String[] args) throws Exception {
+		final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create());
+		final String[] keys = new String[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			keys[i] = "/tenant" + (i % 100) + "/path/to/resource/" + i;
+			map.put(keys[i], i);
+		}
+
+		final int maxThreads = (args.length > 0) ? Integer.parseInt(args[0])
+				: Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			final long reads = run(map, keys, threads);
+			System.out.println(threads + " reader(s): " + (reads * 1000 / DURATION_MS) + " gets/s");
+		}
+	}
+
+	private static long run(final TrieMap<Integer> map, final String[] keys, final int threads) throws Exception {
+		final AtomicLong reads = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final long end = System.currentTimeMillis() + DURATION_MS;
+		final List<Thread> readers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int offset = t;
+			readers.add(new Thread() {
+
+				@Override
+				public void run() {
+					awaitStart(start);
+					long count = 0;
+					int i = offset;
+					while (System.currentTimeMillis() < end) {
+						for (int j = 0; j < 1000; j++) {
+							map.get(keys[i]);
+							i = (i + 7) % keys.length;
+						}
+						count += 1000;
+					}
+					reads.addAndGet(count);
+				}
+			});
+		}
+		final Thread writer = new Thread() {
+
+			@Override
+			public void run() {
+				awaitStart(start);
+				int i = 0;
+				while (System.currentTimeMillis() < end) {
+					map.put(keys[i], i);
+					i = (i + 1) % keys.length;
+				}
+			}
+		};
+		for (final Thread reader : readers) {
+			reader.start();
+		}
+		writer.start();
+		start.countDown();
+		for (final Thread reader : readers) {
+			reader.join();
+		}
+		writer.join();
+		return reads.get();
+	}
+
+	private static void awaitStart(final CountDownLatch start) {
+		try {
+			start.await();
+		} catch (final InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
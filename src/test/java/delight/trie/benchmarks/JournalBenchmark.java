@@ -0,0 +1,89 @@
+package delight.trie.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.jre.JournaledTrieMap;
+
+/**
+ * Measures the write throughput of a {@link JournaledTrieMap} for an
+ * increasing number of writer threads, which share fsyncs through group
+ * commit, and the time to recover from the journal and from a snapshot.
+ * <p>
+ * Run with <code>main</code>, optionally passing the directory to write to;
+ * not part of the test suite.
+ */
+public class JournalBenchmark {
+
+	private static final int WRITES_PER_THREAD = 2000;
+
+	private static final int MAX_THREADS = 32;
+
+	public static void main(final String[] args) throws Exception {
+		final File directory = (args.length > 0) ? new File(args[0])
+				: new File(System.getProperty("java.io.tmpdir"), "journal-benchmark");
+		for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+			delete(directory);
+			final JournaledTrieMap<String> map = JournaledTrieMap.open(ConcurrencyJre.create(), directory,
+					JournaledTrieMap.STRING_CODEC, Long.MAX_VALUE);
+			final long start = System.nanoTime();
+			write(map, threads);
+			final long nanos = System.nanoTime() - start;
+			map.close();
+			System.out.println(threads + " writer(s): " + (threads * WRITES_PER_THREAD * 1000000000L / nanos)
+					+ " durable puts/s");
+		}
+
+		// the journal of the last run holds all writes
+		long start = System.nanoTime();
+		JournaledTrieMap<String> map = JournaledTrieMap.open(ConcurrencyJre.create(), directory,
+				JournaledTrieMap.STRING_CODEC, Long.MAX_VALUE);
+		System.out.println("Replayed " + map.size() + " entries from the journal in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		map.snapshot();
+		map.close();
+
+		start = System.nanoTime();
+		map = JournaledTrieMap.open(ConcurrencyJre.create(), directory, JournaledTrieMap.STRING_CODEC,
+				Long.MAX_VALUE);
+		System.out.println("Loaded " + map.size() + " entries from the snapshot in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		map.close();
+		delete(directory);
+	}
+
+	private static void write(final JournaledTrieMap<String> map, final int threads) throws InterruptedException {
+		final List<Thread> writers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			writers.add(new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < WRITES_PER_THREAD; i++) {
+						map.put("/tenant" + thread + "/path/to/resource/" + i, "value" + i);
+					}
+				}
+			});
+		}
+		for (final Thread writer : writers) {
+			writer.start();
+		}
+		for (final Thread writer : writers) {
+			writer.join();
+		}
+	}
+
+	private static void delete(final File directory) {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+}
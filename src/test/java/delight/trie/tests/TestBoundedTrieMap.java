@@ -0,0 +1,162 @@
+package delight.trie.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.BoundedTrieMap;
+import delight.trie.BoundedTrieMap.Eviction;
+
+public class TestBoundedTrieMap {
+
+	@Test
+	public void testLru() {
+		final List<String> evicted = new ArrayList<String>();
+		final BoundedTrieMap<String> map = new BoundedTrieMap<String>(ConcurrencyJre.create(), Eviction.LRU, 3,
+				null, new BoundedTrieMap.EvictionListener<String>() {
+
+					@Override
+					public void onEviction(final String key, final String value) {
+						evicted.add(key + "=" + value);
+					}
+				});
+
+		map.put("/a/1", "1");
+		map.put("/a/2", "2");
+		map.put("/b/1", "3");
+		Assert.assertEquals("1", map.get("/a/1"));
+		map.put("/c/1", "4");
+
+		Assert.assertEquals("[/a/2=2]", evicted.toString());
+		Assert.assertEquals(3, map.size());
+		Assert.assertNull(map.get("/a/2"));
+		Assert.assertEquals("[/a/1]", map.getCompletitions("/a").toString());
+
+		map.put("/d/1", "5");
+		Assert.assertEquals("[/a/2=2, /b/1=3]", evicted.toString());
+		// the evicted branch has been pruned
+		Assert.assertEquals("[]", map.getCompletitions("/b").toString());
+		Assert.assertEquals("4", map.getValueForBestMatchingKey("/c/1/x"));
+	}
+
+	@Test
+	public void testLfu() {
+		final BoundedTrieMap<Integer> map = new BoundedTrieMap<Integer>(ConcurrencyJre.create(), Eviction.LFU, 2);
+
+		map.put("a", 1);
+		map.put("b", 2);
+		map.get("a");
+		map.get("a");
+		map.get("b");
+		map.put("c", 3);
+
+		Assert.assertTrue(map.containsKey("a"));
+		Assert.assertFalse(map.containsKey("b"));
+		Assert.assertTrue(map.containsKey("c"));
+
+		map.put("d", 4);
+		Assert.assertFalse(map.containsKey("c"));
+		Assert.assertEquals(2, map.size());
+	}
+
+	@Test
+	public void testWeight() {
+		final BoundedTrieMap<String> map = new BoundedTrieMap<String>(ConcurrencyJre.create(), Eviction.LRU, 10,
+				new BoundedTrieMap.Weigher<String>() {
+
+					@Override
+					public int weigh(final String key, final String value) {
+						return value.length();
+					}
+				}, null);
+
+		map.put("a", "12345");
+		map.put("b", "1234");
+		Assert.assertEquals(9, map.weight());
+		map.put("a", "1234567");
+		Assert.assertEquals(7, map.weight());
+		Assert.assertFalse(map.containsKey("b"));
+		Assert.assertEquals("1234567", map.remove("a"));
+		Assert.assertEquals(0, map.weight());
+	}
+
+	@Test
+	public void testTinyLfu() {
+		final BoundedTrieMap<Integer> map = new BoundedTrieMap<Integer>(ConcurrencyJre.create(), Eviction.TINY_LFU,
+				100);
+
+		// a frequently used working set
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 90; i++) {
+				if (map.get("hot/" + i) == null) {
+					map.put("hot/" + i, i);
+				}
+			}
+		}
+		// a scan of keys used only once
+		for (int i = 0; i < 1000; i++) {
+			map.put("scan/" + i, i);
+		}
+
+		Assert.assertEquals(100, map.size());
+		int hot = 0;
+		for (int i = 0; i < 90; i++) {
+			if (map.containsKey("hot/" + i)) {
+				hot++;
+			}
+		}
+		Assert.assertTrue("Only " + hot + " hot entries retained", hot > 80);
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		for (final Eviction eviction : Eviction.values()) {
+			final BoundedTrieMap<Integer> map = new BoundedTrieMap<Integer>(ConcurrencyJre.create(), eviction, 50);
+			final List<Thread> threads = new ArrayList<Thread>();
+			final List<Throwable> failures = new ArrayList<Throwable>();
+			for (int t = 0; t < 4; t++) {
+				final int thread = t;
+				threads.add(new Thread() {
+
+					@Override
+					public void run() {
+						try {
+							for (int i = 0; i < 20000; i++) {
+								final String key = "/" + ((i * 7 + thread) % 200);
+								if (map.get(key) == null && i % 3 == thread % 3) {
+									map.put(key, i);
+								}
+								if (i % 1000 == 0 && thread == 0) {
+									map.remove(key);
+								}
+							}
+						} catch (final Throwable e) {
+							synchronized (failures) {
+								failures.add(e);
+							}
+						}
+					}
+				});
+			}
+			for (final Thread thread : threads) {
+				thread.start();
+			}
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+			Assert.assertEquals("[]", failures.toString());
+			Assert.assertEquals(map.size(), map.weight());
+			Assert.assertTrue(map.size() <= 50);
+
+			map.clear();
+			map.put("/a", 1);
+			map.put("/b", 2);
+			Assert.assertEquals(Integer.valueOf(1), map.get("/a"));
+			Assert.assertEquals(2, map.size());
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package delight.trie.tests;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.jre.ByteTrieMap;
+
+public class TestByteTrieMap {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testByteKeys() {
+		final ByteTrieMap<String> map = new ByteTrieMap<String>(ConcurrencyJre.create());
+		map.put("/api/users".getBytes(UTF8), "users");
+		map.put("/api".getBytes(UTF8), "api");
+		map.put("/\u00e4pi".getBytes(UTF8), "umlaut");
+
+		final byte[] request = "GET /api/users HTTP/1.1".getBytes(UTF8);
+		Assert.assertEquals("users", map.get(request, 4, 10));
+		Assert.assertEquals("users", map.getValueForBestMatchingKey(request, 4, 12));
+		Assert.assertEquals("api", map.getValueForBestMatchingKey(request, 4, 8));
+		Assert.assertNull(map.get(request, 4, 6));
+		Assert.assertEquals("umlaut", map.get(ByteBuffer.wrap("/\u00e4pi".getBytes(UTF8))));
+
+		final ByteBuffer buffer = ByteBuffer.wrap(request);
+		buffer.position(4).limit(14);
+		Assert.assertEquals("users", map.get(buffer));
+		Assert.assertEquals(4, buffer.position());
+
+		Assert.assertEquals(3, map.size());
+		Assert.assertEquals("users", map.remove("/api/users".getBytes(UTF8)));
+		Assert.assertEquals("api", map.get("/api".getBytes(UTF8)));
+		Assert.assertEquals(2, map.size());
+	}
+
+	@Test
+	public void testHighFanOut() {
+		final ByteTrieMap<Integer> map = new ByteTrieMap<Integer>(ConcurrencyJre.create());
+		for (int i = 0; i < 256; i++) {
+			map.put(new byte[] { 1, (byte) i }, i);
+		}
+		for (int i = 0; i < 256; i++) {
+			Assert.assertEquals(Integer.valueOf(i), map.get(new byte[] { 1, (byte) i }));
+		}
+		for (int i = 0; i < 250; i++) {
+			Assert.assertEquals(Integer.valueOf(i), map.remove(new byte[] { 1, (byte) i }));
+		}
+		Assert.assertEquals(6, map.size());
+		Assert.assertEquals(Integer.valueOf(255), map.get(new byte[] { 1, (byte) 255 }));
+		Assert.assertNull(map.get(new byte[] { 1, (byte) 3 }));
+	}
+
+}
@@ -0,0 +1,64 @@
+package delight.trie.tests;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.CharNormalizers;
+import delight.trie.TrieLocks;
+import delight.trie.TrieMap;
+
+public class TestCharNormalizer {
+
+	@Test
+	public void testCaseInsensitive() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(),
+				CharNormalizers.ASCII_CASE_INSENSITIVE);
+
+		map.put("Content-Type", "1");
+		map.put("content-length", "2");
+
+		Assert.assertEquals("1", map.get("CONTENT-TYPE"));
+		Assert.assertEquals("2", map.get("Content-Length"));
+		Assert.assertEquals("1", map.put("content-type", "3"));
+		Assert.assertEquals(2, map.size());
+		Assert.assertEquals("[content-length, Content-Type]", map.getCompletitions("CONTENT-").toString());
+		Assert.assertEquals("3", map.getValueForBestMatchingKey("CONTENT-TYPEX"));
+		Assert.assertEquals("Content-Type", map.getPathForValue("3"));
+
+		final Map<String, String> view = map.prefixView("CONTENT-", true);
+		Assert.assertEquals("3", view.get("TYPE"));
+		Assert.assertEquals("{length=2, Type=3}", view.toString());
+
+		Assert.assertEquals("2", map.remove("CONTENT-LENGTH"));
+		Assert.assertEquals(1, map.size());
+		map.put("CONTENT-LENGTH", "4");
+		Assert.assertEquals("[CONTENT-LENGTH, Content-Type]", map.keySet().toString());
+	}
+
+	@Test
+	public void testUnicode() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(), CharNormalizers.CASE_INSENSITIVE);
+
+		map.put("\u00c4pfel", "1");
+
+		Assert.assertEquals("1", map.get("\u00e4PFEL"));
+		Assert.assertNull(map.get("apfel"));
+	}
+
+	@Test
+	public void testStriped() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(),
+				TrieLocks.striped(ConcurrencyJre.create(), 8, 2), CharNormalizers.ASCII_CASE_INSENSITIVE);
+
+		map.put("Ab/1", "1");
+		map.put("aB/2", "2");
+
+		Assert.assertEquals(2, map.getSubValues("AB").size());
+		Assert.assertEquals(2, map.removePrefix("ab/"));
+		Assert.assertTrue(map.isEmpty());
+	}
+
+}
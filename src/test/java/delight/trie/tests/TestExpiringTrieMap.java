@@ -0,0 +1,101 @@
+package delight.trie.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.ExpiringTrieMap;
+
+public class TestExpiringTrieMap {
+
+	private static final class FakeClock implements ExpiringTrieMap.Clock {
+
+		private long now = 1000000;
+
+		@Override
+		public long now() {
+			return now;
+		}
+	}
+
+	@Test
+	public void testExpiry() {
+		final FakeClock clock = new FakeClock();
+		final ExpiringTrieMap<String> map = new ExpiringTrieMap<String>(ConcurrencyJre.create(), clock, 0);
+
+		map.put("/session/a", "A", 5000);
+		map.put("/session/b", "B", 120000);
+		map.put("/static", "S");
+
+		clock.now += 4999;
+		Assert.assertEquals("A", map.get("/session/a"));
+		Assert.assertEquals(0, map.cleanUp());
+
+		clock.now += 1;
+		// expired entries are hidden before they are cleaned up
+		Assert.assertNull(map.get("/session/a"));
+		Assert.assertEquals("[/session/b]", map.getCompletitions("/session/").toString());
+		Assert.assertEquals(3, map.size());
+
+		clock.now += 1024;
+		Assert.assertEquals(1, map.cleanUp());
+		Assert.assertEquals(2, map.size());
+
+		clock.now += 200000;
+		Assert.assertNull(map.getValueForBestMatchingKey("/session/bb"));
+		Assert.assertEquals(1, map.cleanUp());
+		Assert.assertEquals("[]", map.getCompletitions("/session").toString());
+		Assert.assertEquals("S", map.get("/static"));
+		Assert.assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testReplaceAndRemove() {
+		final FakeClock clock = new FakeClock();
+		final ExpiringTrieMap<String> map = new ExpiringTrieMap<String>(ConcurrencyJre.create(), clock, 0);
+
+		map.put("a", "1", 1000);
+		Assert.assertEquals("1", map.put("a", "2", 100000));
+		map.put("b", "3", 1000);
+		Assert.assertEquals("3", map.remove("b"));
+
+		clock.now += 10000;
+		Assert.assertEquals(0, map.cleanUp());
+		Assert.assertEquals("2", map.get("a"));
+		Assert.assertEquals("2", map.getValueForBestMatchingKey("abc"));
+	}
+
+	@Test
+	public void testManyEntries() {
+		final FakeClock clock = new FakeClock();
+		final ExpiringTrieMap<Integer> map = new ExpiringTrieMap<Integer>(ConcurrencyJre.create(), clock, 0);
+
+		for (int i = 0; i < 10000; i++) {
+			map.put("/token/" + i, i, i * 100L);
+		}
+		int removed = 0;
+		for (int step = 0; step < 1000; step++) {
+			clock.now += 1000;
+			removed += map.cleanUp();
+			final int expected = Math.min(10000, (step + 1) * 10 + 1);
+			Assert.assertTrue(step + ": " + removed, removed <= expected);
+			Assert.assertTrue(step + ": " + removed, removed >= expected - 11 * 10);
+		}
+		Assert.assertEquals(10000, removed);
+		Assert.assertEquals(0, map.size());
+	}
+
+	@Test
+	public void testTimer() throws Exception {
+		final ExpiringTrieMap<String> map = new ExpiringTrieMap<String>(ConcurrencyJre.create(),
+				ExpiringTrieMap.SYSTEM_CLOCK, 50);
+		try {
+			map.put("a", "1", 10);
+			Thread.sleep(2000);
+			Assert.assertEquals(0, map.size());
+		} finally {
+			map.stop();
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package delight.trie.tests;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.trie.ImmutableTrieMap;
+
+public class TestImmutableTrieMap {
+
+	@Test
+	public void testWithAndWithout() {
+		final ImmutableTrieMap<String> empty = ImmutableTrieMap.empty();
+		final ImmutableTrieMap<String> v1 = empty.with("/1/1", "A").with("/1/2", "B").with("/2", "C");
+		final ImmutableTrieMap<String> v2 = v1.with("/1/1", "D");
+		final ImmutableTrieMap<String> v3 = v2.without("/1/2");
+
+		Assert.assertEquals(0, empty.size());
+		Assert.assertEquals(3, v1.size());
+		Assert.assertEquals("A", v1.get("/1/1"));
+		Assert.assertEquals("D", v2.get("/1/1"));
+		Assert.assertEquals(3, v2.size());
+		Assert.assertEquals(2, v3.size());
+		Assert.assertFalse(v3.containsKey("/1/2"));
+		Assert.assertTrue(v2.containsKey("/1/2"));
+		Assert.assertFalse(v3.containsKey("/1"));
+		Assert.assertSame(v3, v3.without("/1/99"));
+		Assert.assertEquals(0, v3.without("/1/1").without("/2").size());
+	}
+
+	@Test
+	public void testSubMap() {
+		final Map<String, String> values = new HashMap<String, String>();
+		values.put("/1/1", "A");
+		values.put("/1/1/5", "B");
+		values.put("/1/2", "C");
+		values.put("/2/1", "D");
+		final ImmutableTrieMap<String> map = ImmutableTrieMap.copyOf(values);
+
+		final ImmutableTrieMap<String> subMap = map.getSubMap("/1/1");
+		Assert.assertEquals(2, subMap.size());
+		Assert.assertEquals("B", subMap.get("/1/1/5"));
+		Assert.assertNull(subMap.get("/1/2"));
+		Assert.assertEquals(0, map.getSubMap("/3").size());
+
+		Assert.assertEquals("[/1/1, /1/1/5, /1/2]", map.getCompletitions("/1").toString());
+		Assert.assertEquals("B", map.getValueForBestMatchingKey("/1/1/5/6"));
+		Assert.assertEquals(values, map);
+		Assert.assertEquals(values.hashCode(), map.hashCode());
+	}
+
+}
@@ -0,0 +1,180 @@
+package delight.trie.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.jre.JournaledTrieMap;
+
+public class TestJournaledTrieMap {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("journal", "");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private JournaledTrieMap<String> open(final long snapshotThreshold) throws IOException {
+		return JournaledTrieMap.open(ConcurrencyJre.create(), directory, JournaledTrieMap.STRING_CODEC,
+				snapshotThreshold);
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		JournaledTrieMap<String> map = open(1 << 20);
+		map.put("/a", "1");
+		map.put("/a/b", "2");
+		map.put("/c", "3");
+		Assert.assertEquals("3", map.remove("/c"));
+		map.put("/a", "4");
+		map.close();
+
+		map = open(1 << 20);
+		Assert.assertEquals(2, map.size());
+		Assert.assertEquals("4", map.get("/a"));
+		Assert.assertEquals("2", map.get("/a/b"));
+		Assert.assertFalse(map.containsKey("/c"));
+		map.clear();
+		map.put("/d", "5");
+		map.close();
+
+		map = open(1 << 20);
+		Assert.assertEquals("[/d]", map.getCompletitions("").toString());
+		map.close();
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		JournaledTrieMap<String> map = open(1000);
+		for (int i = 0; i < 200; i++) {
+			map.put("/key/" + (i % 50), "value" + i);
+		}
+		Assert.assertTrue(new File(directory, "snapshot").exists());
+		Assert.assertTrue(new File(directory, "journal").length() <= 1000);
+		map.close();
+
+		map = open(1000);
+		Assert.assertEquals(50, map.size());
+		Assert.assertEquals("value199", map.get("/key/49"));
+		Assert.assertEquals("value150", map.get("/key/0"));
+		map.close();
+	}
+
+	@Test
+	public void testSnapshotOfSpaceKey() throws IOException {
+		JournaledTrieMap<String> map = open(1 << 20);
+		map.put(" ", "space");
+		map.put("a", "1");
+		map.snapshot();
+		map.close();
+
+		map = open(1 << 20);
+		Assert.assertEquals(2, map.size());
+		Assert.assertEquals("space", map.get(" "));
+		Assert.assertEquals("1", map.get("a"));
+		map.close();
+	}
+
+	@Test
+	public void testSnapshotReplacementInterrupted() throws IOException {
+		JournaledTrieMap<String> map = open(1 << 20);
+		map.put("a", "1");
+		map.put("b", "2");
+		map.snapshot();
+		map.put("c", "3");
+		map.close();
+
+		// a crash after the old snapshot was deleted but before the rename
+		final File snapshot = new File(directory, "snapshot");
+		final File temporary = new File(directory, "snapshot.tmp");
+		Assert.assertTrue(snapshot.renameTo(temporary));
+		map = open(1 << 20);
+		Assert.assertEquals("[a, b, c]", map.getCompletitions("").toString());
+		Assert.assertTrue(snapshot.exists());
+		Assert.assertFalse(temporary.exists());
+		map.close();
+
+		// an incomplete temporary snapshot is ignored
+		final RandomAccessFile partial = new RandomAccessFile(temporary, "rw");
+		partial.writeInt(0x54524945);
+		partial.close();
+		map = open(1 << 20);
+		Assert.assertEquals("[a, b, c]", map.getCompletitions("").toString());
+		Assert.assertFalse(temporary.exists());
+		map.close();
+	}
+
+	@Test
+	public void testTornRecord() throws IOException {
+		JournaledTrieMap<String> map = open(1 << 20);
+		map.put("a", "1");
+		map.put("b", "2");
+		map.close();
+
+		// cut into the last record as a crash during the write would
+		final RandomAccessFile journal = new RandomAccessFile(new File(directory, "journal"), "rw");
+		journal.setLength(journal.length() - 3);
+		journal.close();
+
+		map = open(1 << 20);
+		Assert.assertEquals("1", map.get("a"));
+		Assert.assertNull(map.get("b"));
+		map.put("c", "3");
+		map.close();
+
+		map = open(1 << 20);
+		Assert.assertEquals("[a, c]", map.getCompletitions("").toString());
+		map.close();
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		final JournaledTrieMap<String> map = open(1 << 20);
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			threads.add(new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < 100; i++) {
+						map.put("/" + thread + "/" + i, "" + i);
+					}
+				}
+			});
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		map.close();
+
+		final JournaledTrieMap<String> reopened = open(1 << 20);
+		Assert.assertEquals(400, reopened.size());
+		reopened.close();
+	}
+
+}
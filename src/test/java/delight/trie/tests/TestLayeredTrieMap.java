@@ -0,0 +1,128 @@
+package delight.trie.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.ImmutableTrieMap;
+import delight.trie.jre.LayeredTrieMap;
+
+public class TestLayeredTrieMap {
+
+	private static final Executor NO_COMPACTION = new Executor() {
+
+		@Override
+		public void execute(final Runnable command) {
+		}
+	};
+
+	@Test
+	public void testOverlayAndTombstones() {
+		final Map<String, Integer> entries = new TreeMap<String, Integer>();
+		entries.put("car", 1);
+		entries.put("cart", 2);
+		entries.put("cat", 3);
+		entries.put("dog", 4);
+		final LayeredTrieMap<Integer> map = new LayeredTrieMap<Integer>(ConcurrencyJre.create(), NO_COMPACTION,
+				ImmutableTrieMap.copyOf(entries), 100);
+		Assert.assertEquals(4, map.size());
+
+		Assert.assertEquals(Integer.valueOf(1), map.put("car", 10));
+		Assert.assertNull(map.put("cab", 5));
+		Assert.assertEquals(Integer.valueOf(2), map.remove("cart"));
+		Assert.assertNull(map.remove("cart"));
+		Assert.assertNull(map.remove("cow"));
+
+		Assert.assertEquals(Integer.valueOf(10), map.get("car"));
+		Assert.assertNull(map.get("cart"));
+		Assert.assertFalse(map.containsKey("cart"));
+		Assert.assertEquals(4, map.size());
+		Assert.assertEquals(Arrays.asList("cab", "car", "cat"), map.getCompletitions("ca"));
+		Assert.assertEquals(Arrays.asList(5, 10, 3, 4), map.getSubValues(""));
+		Assert.assertEquals(Arrays.asList(), map.getCompletitions("x"));
+
+		// the base is unchanged until compaction
+		Assert.assertEquals(Integer.valueOf(2), map.getBase().get("cart"));
+		Assert.assertEquals(3, map.getDeltaSize());
+		map.compact();
+		Assert.assertEquals(0, map.getDeltaSize());
+		Assert.assertNull(map.getBase().get("cart"));
+		Assert.assertEquals(Integer.valueOf(10), map.getBase().get("car"));
+		Assert.assertEquals(Arrays.asList("cab", "car", "cat", "dog"), map.getCompletitions(""));
+
+		// a key added to the delta only is removed without a tombstone
+		map.put("eel", 6);
+		map.remove("eel");
+		Assert.assertEquals(0, map.getDeltaSize());
+	}
+
+	@Test
+	public void testRejectedCompaction() {
+		final boolean[] reject = { true };
+		final LayeredTrieMap<Integer> map = new LayeredTrieMap<Integer>(ConcurrencyJre.create(), new Executor() {
+
+			@Override
+			public void execute(final Runnable command) {
+				if (reject[0]) {
+					throw new RejectedExecutionException();
+				}
+				command.run();
+			}
+		}, ImmutableTrieMap.<Integer> empty(), 2);
+		map.put("a", 1);
+		map.put("b", 2);
+		Assert.assertEquals(2, map.getDeltaSize());
+
+		// the next write past the threshold schedules a compaction again
+		reject[0] = false;
+		map.put("c", 3);
+		Assert.assertEquals(0, map.getDeltaSize());
+		Assert.assertEquals(Arrays.asList("a", "b", "c"), map.getCompletitions(""));
+	}
+
+	@Test
+	public void testCompactionInBackground() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final LayeredTrieMap<Integer> map = new LayeredTrieMap<Integer>(ConcurrencyJre.create(), executor,
+					ImmutableTrieMap.<Integer> empty(), 16);
+			final TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+			final Random random = new Random(3);
+			for (int i = 0; i < 5000; i++) {
+				final String key = Integer.toString(random.nextInt(800), 7);
+				if (random.nextInt(4) == 0) {
+					Assert.assertEquals(expected.remove(key), map.remove(key));
+				} else {
+					Assert.assertEquals(expected.put(key, i), map.put(key, i));
+				}
+				if (i % 97 == 0) {
+					final String prefix = key.substring(0, 1);
+					Assert.assertEquals(new ArrayList<String>(expected.subMap(prefix, prefix + '\uffff').keySet()),
+							map.getCompletitions(prefix));
+				}
+			}
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+			Assert.assertEquals(expected.size(), map.size());
+			Assert.assertEquals(new ArrayList<String>(expected.keySet()), map.getCompletitions(""));
+			Assert.assertEquals(new ArrayList<Integer>(expected.values()), map.getSubValues(""));
+			Assert.assertTrue(map.getDeltaSize() < 16);
+			map.compact();
+			Assert.assertEquals(expected, map.getBase());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,244 @@
+package delight.trie.tests;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.CharNormalizer;
+import delight.trie.CharNormalizers;
+import delight.trie.TrieLocks;
+import delight.trie.TrieMap;
+import delight.trie.TrieMetrics;
+import delight.trie.jre.StripedTrieMetrics;
+
+public class TestLookupCache {
+
+	@Test
+	public void testInvalidation() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create());
+		map.enableLookupCache(64);
+
+		map.put("/api", "api");
+		map.put("/api/users", "users");
+		Assert.assertEquals("users", map.get("/api/users"));
+		Assert.assertEquals("users", map.get("/api/users"));
+		Assert.assertEquals("api", map.getValueForBestMatchingKey("/api/orders/1"));
+		Assert.assertNull(map.getValueForBestMatchingKey("/static/x"));
+
+		// values are read from the cached node
+		map.put("/api/users", "users2");
+		Assert.assertEquals("users2", map.get("/api/users"));
+
+		// adding a longer prefix changes the best match
+		map.put("/api/orders", "orders");
+		Assert.assertEquals("orders", map.getValueForBestMatchingKey("/api/orders/1"));
+		map.put("/static", "static");
+		Assert.assertEquals("static", map.getValueForBestMatchingKey("/static/x"));
+		map.remove("/api/orders");
+		Assert.assertEquals("api", map.getValueForBestMatchingKey("/api/orders/1"));
+
+		map.remove("/api/users");
+		Assert.assertNull(map.get("/api/users"));
+		map.put("/api/users", "users3");
+		Assert.assertEquals("users3", map.get("/api/users"));
+
+		map.removePrefix("/api/");
+		Assert.assertNull(map.get("/api/users"));
+		map.put("/api/users", "users4");
+		Assert.assertEquals("users4", map.get("/api/users"));
+
+		map.retainPrefix("/api/");
+		Assert.assertNull(map.get("/static"));
+		Assert.assertNull(map.getValueForBestMatchingKey("/api/orders/1"));
+		Assert.assertEquals("users4", map.get("/api/users"));
+
+		map.clear();
+		Assert.assertNull(map.get("/api/users"));
+		Assert.assertNull(map.getValueForBestMatchingKey("/api/users"));
+	}
+
+	@Test
+	public void testStripedBestMatches() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(),
+				TrieLocks.striped(ConcurrencyJre.create(), 8, 2));
+		map.enableLookupCache(64);
+		map.put("a", "a");
+		map.put("ab/x", "abx");
+		Assert.assertEquals("a", map.getValueForBestMatchingKey("ab/"));
+		Assert.assertEquals("abx", map.getValueForBestMatchingKey("ab/x/y"));
+		Assert.assertNull(map.getValueForBestMatchingKey("cd"));
+
+		// a key in the same stripe and a key shorter than the striping depth
+		map.put("ab/", "ab");
+		Assert.assertEquals("ab", map.getValueForBestMatchingKey("ab/"));
+		map.put("c", "c");
+		Assert.assertEquals("c", map.getValueForBestMatchingKey("cd"));
+		map.remove("ab/x");
+		Assert.assertEquals("ab", map.getValueForBestMatchingKey("ab/x/y"));
+		map.removePrefix("ab/");
+		Assert.assertEquals("a", map.getValueForBestMatchingKey("ab/x/y"));
+	}
+
+	@Test
+	public void testUnrelatedWritesKeepBestMatches() {
+		assertUnrelatedWritesKeepBestMatches(TrieLocks.global(ConcurrencyJre.create()));
+		assertUnrelatedWritesKeepBestMatches(TrieLocks.striped(ConcurrencyJre.create(), 8, 2));
+	}
+
+	private static void assertUnrelatedWritesKeepBestMatches(final TrieLocks locks) {
+		// a lookup which walks the trie normalizes more characters than a hit
+		final int[] normalized = new int[1];
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(), locks, new CharNormalizer() {
+
+			@Override
+			public char normalize(final char c) {
+				normalized[0]++;
+				return c;
+			}
+		});
+		map.enableLookupCache(64);
+		map.put("/api", "api");
+		final String query = "/api/orders/42/items/7";
+		Assert.assertEquals("api", map.getValueForBestMatchingKey(query));
+		normalized[0] = 0;
+		Assert.assertEquals("api", map.getValueForBestMatchingKey(query));
+		final int hit = normalized[0];
+
+		for (int i = 0; i < 20; i++) {
+			map.put("/static/" + i, "static");
+			map.remove("/static/" + i);
+		}
+		normalized[0] = 0;
+		Assert.assertEquals("api", map.getValueForBestMatchingKey(query));
+		Assert.assertEquals(hit, normalized[0]);
+
+		// a key which is a prefix of the query lets the cached match expire
+		map.put("/api/orders", "orders");
+		normalized[0] = 0;
+		Assert.assertEquals("orders", map.getValueForBestMatchingKey(query));
+		Assert.assertTrue(normalized[0] > hit);
+		map.remove("/api/orders");
+		Assert.assertEquals("api", map.getValueForBestMatchingKey(query));
+	}
+
+	@Test
+	public void testHitsAreMeasured() {
+		final StripedTrieMetrics metrics = new StripedTrieMetrics();
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(), TrieLocks.global(ConcurrencyJre
+				.create()), CharNormalizers.IDENTITY, metrics);
+		map.enableLookupCache(16);
+		map.put("key", "value");
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals("value", map.get("key"));
+		}
+		Assert.assertNull(map.get("other"));
+		Assert.assertEquals(6, metrics.count(TrieMetrics.Operation.GET));
+		Assert.assertEquals(5, metrics.hits(TrieMetrics.Operation.GET));
+	}
+
+	@Test
+	public void testNormalizedKeys() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(), CharNormalizers.ASCII_CASE_INSENSITIVE);
+		map.enableLookupCache(16);
+
+		map.put("Host", "h");
+		Assert.assertEquals("h", map.get("host"));
+		Assert.assertEquals("h", map.get("HOST"));
+		map.remove("hOST");
+		Assert.assertNull(map.get("Host"));
+		Assert.assertNull(map.get("host"));
+	}
+
+	@Test
+	public void testAgainstUncached() {
+		final TrieMap<Integer> cached = new TrieMap<Integer>(ConcurrencyJre.create(), TrieLocks.striped(
+				ConcurrencyJre.create(), 4, 1));
+		final TrieMap<Integer> plain = new TrieMap<Integer>(ConcurrencyJre.create());
+		// a tiny cache makes slots collide
+		cached.enableLookupCache(8);
+		final Random random = new Random(11);
+		for (int i = 0; i < 20000; i++) {
+			final String key = Integer.toString(random.nextInt(200), 3);
+			final int action = random.nextInt(20);
+			if (action < 3) {
+				cached.put(key, i);
+				plain.put(key, i);
+			} else if (action < 5) {
+				Assert.assertEquals(plain.remove(key), cached.remove(key));
+			} else if (action == 5) {
+				final String prefix = key.substring(0, 1 + random.nextInt(key.length()));
+				Assert.assertEquals(plain.removePrefix(prefix), cached.removePrefix(prefix));
+			} else if (action < 12) {
+				Assert.assertEquals(plain.get(key), cached.get(key));
+			} else {
+				final String query = key + Integer.toString(random.nextInt(9), 3);
+				Assert.assertEquals(plain.getValueForBestMatchingKey(query), cached.getValueForBestMatchingKey(query));
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create());
+		map.enableLookupCache(32);
+		final Thread[] readers = new Thread[4];
+		final Throwable[] failure = new Throwable[1];
+		final boolean[] stop = new boolean[1];
+		for (int t = 0; t < readers.length; t++) {
+			readers[t] = new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						while (!stopped(stop)) {
+							for (int k = 0; k < 10; k++) {
+								final Integer value = map.get("key" + k);
+								if (value != null && value.intValue() % 10 != k) {
+									throw new AssertionError("Wrong value " + value + " for key" + k);
+								}
+							}
+						}
+					} catch (final Throwable e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					}
+				}
+			};
+			readers[t].start();
+		}
+		for (int i = 0; i < 20000; i++) {
+			final int k = i % 10;
+			if (i % 3 == 0) {
+				map.removePrefix("key" + k);
+			} else {
+				map.put("key" + k, i - i % 10 + k);
+			}
+		}
+		synchronized (stop) {
+			stop[0] = true;
+		}
+		for (final Thread reader : readers) {
+			reader.join();
+		}
+		synchronized (failure) {
+			Assert.assertNull(failure[0]);
+		}
+		// after the writers are done all lookups see the final state
+		for (int k = 0; k < 10; k++) {
+			// getSubValues walks the trie without the cache
+			final List<Integer> values = map.getSubValues("key" + k);
+			Assert.assertEquals(values.isEmpty() ? null : values.get(0), map.get("key" + k));
+		}
+	}
+
+	private static boolean stopped(final boolean[] stop) {
+		synchronized (stop) {
+			return stop[0];
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package delight.trie.tests;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.TrieMap;
+
+public class TestPrefixView {
+
+	@Test
+	public void testViewWithPrefix() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create());
+		map.put("/1/1", "A");
+		map.put("/1/1/5", "B");
+		map.put("/1/2", "C");
+		map.put("/2/1", "D");
+
+		final Map<String, String> view = map.prefixView("/1/");
+		Assert.assertEquals(3, view.size());
+		Assert.assertEquals("A", view.get("/1/1"));
+		Assert.assertNull(view.get("/2/1"));
+		Assert.assertFalse(view.containsKey("/1/"));
+		Assert.assertEquals("[/1/1, /1/1/5, /1/2]", view.keySet().toString());
+
+		view.put("/1/3", "E");
+		Assert.assertEquals("E", map.get("/1/3"));
+		map.put("/1/4", "F");
+		Assert.assertEquals("F", view.get("/1/4"));
+		Assert.assertEquals(5, view.size());
+	}
+
+	@Test
+	public void testViewWithoutPrefix() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create());
+		map.put("tenant1/a", "A");
+		map.put("tenant1/b", "B");
+		map.put("tenant2/a", "C");
+
+		final Map<String, String> view = map.prefixView("tenant1/", true);
+		Assert.assertEquals("A", view.get("a"));
+		Assert.assertEquals("[a, b]", view.keySet().toString());
+
+		for (final Map.Entry<String, String> entry : view.entrySet()) {
+			entry.setValue(entry.getValue() + "!");
+		}
+		Assert.assertEquals("B!", map.get("tenant1/b"));
+
+		final Iterator<String> keys = view.keySet().iterator();
+		keys.next();
+		keys.remove();
+		Assert.assertNull(map.get("tenant1/a"));
+		Assert.assertEquals(1, view.size());
+
+		view.clear();
+		Assert.assertTrue(view.isEmpty());
+		Assert.assertEquals("C", map.get("tenant2/a"));
+	}
+
+}
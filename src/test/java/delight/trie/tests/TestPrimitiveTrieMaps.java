@@ -0,0 +1,76 @@
+package delight.trie.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.IntTrieMap;
+import delight.trie.LongTrieMap;
+
+public class TestPrimitiveTrieMaps {
+
+	@Test
+	public void testLongTrieMap() {
+		final LongTrieMap map = new LongTrieMap(ConcurrencyJre.create());
+		map.put("/1/1", 11L);
+		map.put("/1", 1L);
+		Assert.assertEquals(11L, map.getLong("/1/1", -1));
+		Assert.assertEquals(-1L, map.getLong("/1/", -1));
+		Assert.assertEquals(5L, map.addTo("/2", 5));
+		Assert.assertEquals(7L, map.addTo("/2", 2));
+		Assert.assertEquals(3, map.size());
+		Assert.assertEquals("[/1, /1/1]", map.getCompletitions("/1").toString());
+
+		Assert.assertTrue(map.remove("/2"));
+		Assert.assertFalse(map.containsKey("/2"));
+		Assert.assertEquals(1L, map.addTo("/2", 1));
+	}
+
+	@Test
+	public void testRemoveFreesNodes() {
+		final IntTrieMap map = new IntTrieMap(ConcurrencyJre.create());
+		map.put("/a/b", 1);
+		map.put("/a/c", 2);
+		// root, /, a, /, b, c
+		Assert.assertEquals(6, map.nodeCount());
+
+		Assert.assertTrue(map.remove("/a/b"));
+		Assert.assertEquals(5, map.nodeCount());
+		Assert.assertEquals(2, map.getInt("/a/c", 0));
+		Assert.assertFalse(map.remove("/a/b"));
+		Assert.assertFalse(map.remove("/a/"));
+
+		map.put("/a", 3);
+		Assert.assertTrue(map.remove("/a/c"));
+		Assert.assertEquals(3, map.getInt("/a", 0));
+		Assert.assertEquals(3, map.nodeCount());
+		Assert.assertTrue(map.remove("/a"));
+		Assert.assertEquals(1, map.nodeCount());
+
+		// freed nodes are reused for other keys
+		for (int i = 0; i < 1000; i++) {
+			map.put("/key/" + i, i);
+			Assert.assertTrue(map.remove("/key/" + i));
+		}
+		Assert.assertEquals(1, map.nodeCount());
+		map.put("/x/y", 5);
+		map.put("/x/z", 6);
+		Assert.assertEquals("[/x/y, /x/z]", map.getCompletitions("/x").toString());
+		Assert.assertEquals(0, map.getInt("/key/7", 0));
+	}
+
+	@Test
+	public void testIntTrieMapGrows() {
+		final IntTrieMap map = new IntTrieMap(ConcurrencyJre.create());
+		for (int i = 0; i < 1000; i++) {
+			map.addTo("word" + (i % 100), 1);
+		}
+		Assert.assertEquals(100, map.size());
+		Assert.assertEquals(10, map.getInt("word42", 0));
+		Assert.assertEquals(0, map.getInt("word", 0));
+		map.clear();
+		Assert.assertEquals(0, map.getInt("word42", 0));
+		Assert.assertEquals(1, map.addTo("word42", 1));
+	}
+
+}
@@ -0,0 +1,100 @@
+package delight.trie.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.TrieLocks;
+import delight.trie.TrieMap;
+
+public class TestRankSelect {
+
+	@Test
+	public void testRankAndSelect() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create());
+		for (final String key : new String[] { "car", "cart", "cat", "do", "dog", "a" }) {
+			map.put(key, key);
+		}
+		// a, car, cart, cat, do, dog
+		Assert.assertEquals(0, map.rank("a"));
+		Assert.assertEquals(1, map.rank("car"));
+		Assert.assertEquals(2, map.rank("cart"));
+		Assert.assertEquals(3, map.rank("cas"));
+		Assert.assertEquals(4, map.rank("d"));
+		Assert.assertEquals(6, map.rank("zebra"));
+		Assert.assertEquals(0, map.rank(""));
+
+		Assert.assertEquals("a", map.select(0));
+		Assert.assertEquals("cat", map.select(3));
+		Assert.assertEquals("dog", map.select(5));
+		Assert.assertNull(map.select(6));
+		for (int i = 0; i < map.size(); i++) {
+			Assert.assertEquals(i, map.rank(map.select(i)));
+		}
+	}
+
+	@Test
+	public void testPages() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create());
+		for (final String key : new String[] { "car", "cart", "cat", "do", "dog", "a" }) {
+			map.put(key, key);
+		}
+		Assert.assertEquals(Arrays.asList("cart", "cat"), map.completions("ca", 1, 2));
+		Assert.assertEquals(Arrays.asList("cat"), map.completions("ca", 2, 5));
+		Assert.assertEquals(Collections.emptyList(), map.completions("ca", 3, 5));
+		Assert.assertEquals(Collections.emptyList(), map.completions("x", 0, 5));
+		Assert.assertEquals(Collections.emptyList(), map.completions("", 0, 0));
+		Assert.assertEquals(map.getCompletitions(""), map.completions("", 0, 100));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeOffset() {
+		new TrieMap<String>(ConcurrencyJre.create()).completions("", -1, 1);
+	}
+
+	@Test
+	public void testRandomAgainstSortedKeys() {
+		final Random random = new Random(5);
+		final TrieMap<Integer> global = new TrieMap<Integer>(ConcurrencyJre.create());
+		final TrieMap<Integer> striped = new TrieMap<Integer>(ConcurrencyJre.create(),
+				TrieLocks.striped(ConcurrencyJre.create(), 8, 2));
+		for (int i = 0; i < 2000; i++) {
+			final StringBuilder key = new StringBuilder();
+			final int length = 1 + random.nextInt(6);
+			for (int j = 0; j < length; j++) {
+				key.append((char) ('a' + random.nextInt(4)));
+			}
+			global.put(key.toString(), i);
+			striped.put(key.toString(), i);
+			if (i % 3 == 0) {
+				final String removed = key.substring(0, 1 + random.nextInt(length));
+				global.remove(removed);
+				striped.remove(removed);
+			}
+		}
+		Assert.assertEquals(global, striped);
+		final List<TrieMap<Integer>> maps = Arrays.asList(global, striped);
+		for (final TrieMap<Integer> map : maps) {
+			final List<String> keys = map.getCompletitions("");
+			for (int i = 0; i < keys.size(); i += 7) {
+				Assert.assertEquals(i, map.rank(keys.get(i)));
+				Assert.assertEquals(keys.get(i), map.select(i));
+			}
+			for (final String prefix : new String[] { "", "a", "bc", "dda" }) {
+				final List<String> all = map.getCompletitions(prefix);
+				for (int offset = 0; offset <= all.size(); offset += 13) {
+					final List<String> expected = new ArrayList<String>(all.subList(offset,
+							Math.min(all.size(), offset + 10)));
+					Assert.assertEquals(expected, map.completions(prefix, offset, 10));
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package delight.trie.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.PathMatch;
+import delight.trie.SegmentTrieMap;
+
+public class TestSegmentTrieMap {
+
+	@Test
+	public void testPrecedence() {
+		final SegmentTrieMap<String> routes = new SegmentTrieMap<String>(ConcurrencyJre.create());
+
+		routes.put("/users/me", "me");
+		routes.put("/users/{id}", "user");
+		routes.put("/users/{id}/orders", "orders");
+		routes.put("/users/*/settings", "settings");
+		routes.put("/users/**", "users");
+		routes.put("/", "root");
+		Assert.assertEquals(6, routes.size());
+
+		Assert.assertEquals("me", routes.resolve("/users/me").getValue());
+		Assert.assertEquals("user", routes.resolve("/users/42").getValue());
+		Assert.assertEquals("42", routes.resolve("/users/42").getParameter("id"));
+		Assert.assertEquals("orders", routes.resolve("/users/me/orders").getValue());
+		Assert.assertEquals("me", routes.resolve("/users/me/orders").getParameter("id"));
+		Assert.assertEquals("settings", routes.resolve("/users/42/settings").getValue());
+		Assert.assertNull(routes.resolve("/users/42/settings").getParameter("id"));
+
+		final PathMatch<String> rest = routes.resolve("/users/42/orders/7");
+		Assert.assertEquals("users", rest.getValue());
+		Assert.assertEquals("/users/**", rest.getPattern());
+		Assert.assertEquals("42/orders/7", rest.getRemainder());
+		Assert.assertEquals("", routes.resolve("/users").getRemainder());
+
+		Assert.assertEquals("root", routes.resolve("/").getValue());
+		Assert.assertEquals("root", routes.resolve("").getValue());
+		Assert.assertNull(routes.resolve("/products"));
+	}
+
+	@Test
+	public void testParameters() {
+		final SegmentTrieMap<Integer> routes = new SegmentTrieMap<Integer>(ConcurrencyJre.create());
+
+		routes.put("/shops/{shop}/items/{item}", 1);
+		routes.put("/shops/{id}/items/{item}/reviews/{review}", 2);
+
+		final PathMatch<Integer> match = routes.resolve(new StringBuilder("shops/s1/items/i2"));
+		Assert.assertEquals(1, match.getValue().intValue());
+		Assert.assertEquals(2, match.getParameterCount());
+		Assert.assertEquals("shop", match.getParameterName(0));
+		Assert.assertEquals("s1", match.getParameterValue(0));
+		Assert.assertEquals("i2", match.getParameter("item"));
+
+		final PathMatch<Integer> review = routes.resolve("/shops/s1/items/i2/reviews/r3");
+		Assert.assertEquals("/shops/{id}/items/{item}/reviews/{review} {id=s1, item=i2, review=r3}",
+				review.toString());
+
+		// parameters do not match empty segments
+		Assert.assertNull(routes.resolve("/shops//items/i2"));
+	}
+
+	@Test
+	public void testBacktracking() {
+		final SegmentTrieMap<String> routes = new SegmentTrieMap<String>(ConcurrencyJre.create());
+
+		routes.put("/a/b/c", "literal");
+		routes.put("/a/{x}/d", "parameter");
+		routes.put("/a/*/e", "wildcard");
+
+		Assert.assertEquals("literal", routes.resolve("/a/b/c").getValue());
+		// the literal b does not lead to d, so the parameter is tried
+		Assert.assertEquals("parameter", routes.resolve("/a/b/d").getValue());
+		Assert.assertEquals("b", routes.resolve("/a/b/d").getParameter("x"));
+		Assert.assertEquals("wildcard", routes.resolve("/a/b/e").getValue());
+		Assert.assertNull(routes.resolve("/a/b/f"));
+	}
+
+	@Test
+	public void testPutAndRemove() {
+		final SegmentTrieMap<String> routes = new SegmentTrieMap<String>(ConcurrencyJre.create());
+
+		Assert.assertNull(routes.put("/files/**", "files"));
+		Assert.assertNull(routes.put("/files/{name}", "file"));
+		Assert.assertEquals("file", routes.put("/files/{other}", "file2"));
+		Assert.assertEquals("file2", routes.get("/files/{name}"));
+		Assert.assertEquals("files", routes.get("/files/**"));
+
+		Assert.assertEquals("files", routes.remove("/files/**"));
+		Assert.assertNull(routes.remove("/files/**"));
+		Assert.assertNull(routes.resolve("/files/a/b"));
+		Assert.assertEquals("file2", routes.resolve("/files/a").getValue());
+		Assert.assertEquals(1, routes.size());
+
+		try {
+			routes.put("/a/**/b", "invalid");
+			Assert.fail();
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
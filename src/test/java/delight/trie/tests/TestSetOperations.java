@@ -0,0 +1,98 @@
+package delight.trie.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.CharNormalizers;
+import delight.trie.TrieChange;
+import delight.trie.TrieLocks;
+import delight.trie.TrieMap;
+
+public class TestSetOperations {
+
+	private static TrieMap<String> map(final String... entries) {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(),
+				TrieLocks.striped(ConcurrencyJre.create(), 4, 1));
+		for (final String entry : entries) {
+			final String[] keyValue = entry.split("=");
+			map.put(keyValue[0], keyValue[1]);
+		}
+		return map;
+	}
+
+	@Test
+	public void testUnion() {
+		final TrieMap<String> union = map("a=1", "ab=2", "b=3").union(map("ab=4", "abc=5", "c=6"));
+
+		Assert.assertEquals("{a : 1;\nab : 4;\nabc : 5;\nb : 3;\nc : 6;\n}", union.toString());
+		Assert.assertEquals(5, union.size());
+		Assert.assertEquals(3, union.getSubValues("a").size());
+		union.remove("abc");
+		Assert.assertEquals(4, union.size());
+	}
+
+	@Test
+	public void testIntersect() {
+		final TrieMap<String> intersection = map("a=1", "ab=2", "abc=3", "b=4").intersect(map("ab=5", "abcd=6", "b=7"));
+
+		Assert.assertEquals("[ab, b]", intersection.keySet().toString());
+		Assert.assertEquals("2", intersection.get("ab"));
+		Assert.assertEquals(2, intersection.size());
+		// branches without entries are not copied
+		Assert.assertFalse(intersection.containsPrefix("abc"));
+	}
+
+	@Test
+	public void testSubtract() {
+		final TrieMap<String> difference = map("a=1", "ab=2", "abc=3", "b=4").subtract(map("ab=5", "b=6", "c=7"));
+
+		Assert.assertEquals("[a, abc]", difference.keySet().toString());
+		Assert.assertEquals(2, difference.size());
+		Assert.assertTrue(map("a=1").subtract(map("a=2")).isEmpty());
+	}
+
+	@Test
+	public void testDiff() {
+		final TrieMap<String> yesterday = map("apple=1", "apply=2", "banana=3", "cherry=4");
+		final TrieMap<String> today = map("apple=1", "apply=5", "cherry=4", "cranberry=6");
+
+		final List<String> changes = new ArrayList<String>();
+		for (final TrieChange<String> change : yesterday.diff(today)) {
+			changes.add(change.toString());
+		}
+
+		Assert.assertEquals(
+				"[CHANGED apply: 2 -> 5, REMOVED banana: 3 -> null, ADDED cranberry: null -> 6]",
+				changes.toString());
+		Assert.assertFalse(today.diff(today).iterator().hasNext());
+	}
+
+	@Test
+	public void testLongKeys() {
+		final StringBuilder key = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			key.append((char) ('a' + i % 26));
+		}
+		final TrieMap<String> a = map("b=1");
+		a.put(key.toString(), "x");
+		final TrieMap<String> union = a.union(map("c=2"));
+		Assert.assertEquals(3, union.size());
+		Assert.assertEquals("x", union.get(key.toString()));
+		Assert.assertEquals(union, a.union(map("c=2")));
+		Assert.assertEquals(1, union.intersect(a.subtract(map("b=1"))).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentNormalizers() {
+		final TrieMap<String> caseInsensitive = new TrieMap<String>(ConcurrencyJre.create(),
+				CharNormalizers.CASE_INSENSITIVE);
+		caseInsensitive.put("abc", "1");
+		final TrieMap<String> identity = map("ABC=2");
+		caseInsensitive.union(identity);
+	}
+
+}
@@ -0,0 +1,88 @@
+package delight.trie.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.jre.ShardedTrieMap;
+
+public class TestShardedTrieMap {
+
+	@Test
+	public void testRoutingAndScatter() {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final ShardedTrieMap<Integer> map = new ShardedTrieMap<Integer>(ConcurrencyJre.create(), executor, "b",
+					"ca", "cc", "d");
+			Assert.assertEquals(5, map.shardCount());
+
+			final String[] keys = { "a", "ab", "b", "c", "ca", "cab", "cb", "cc", "ccd", "cd", "d", "dz", "z" };
+			for (int i = 0; i < keys.length; i++) {
+				map.put(keys[i], i);
+			}
+			Assert.assertEquals(keys.length, map.size());
+			Assert.assertEquals(4, map.get("ca").intValue());
+			Assert.assertTrue(map.containsKey("cc"));
+
+			Assert.assertEquals(Arrays.asList(keys), map.getCompletitions(""));
+			Assert.assertEquals("[c, ca, cab, cb, cc, ccd, cd]", map.getCompletitions("c").toString());
+			Assert.assertEquals("[3, 4, 5, 6, 7, 8, 9]", map.getSubValues("c").toString());
+			Assert.assertEquals("[cc, ccd]", map.getCompletitions("cc").toString());
+			Assert.assertEquals("[ab]", map.getCompletitions("ab").toString());
+			Assert.assertEquals("[]", map.getCompletitions("x").toString());
+
+			Assert.assertEquals(7, map.remove("cc").intValue());
+			Assert.assertNull(map.get("cc"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testPutAllAndRebalance() {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final ShardedTrieMap<Integer> map = ShardedTrieMap.byLeadingCharacter(ConcurrencyJre.create(),
+					executor, 4);
+			Assert.assertEquals(4, map.shardCount());
+
+			final Map<String, Integer> entries = new TreeMap<String, Integer>();
+			for (int i = 0; i < 1000; i++) {
+				// all keys start with a letter and fall into few shards
+				entries.put("key" + i, i);
+			}
+			map.putAll(entries);
+			Assert.assertEquals(1000, map.size());
+
+			map.rebalance();
+			Assert.assertEquals(4, map.shardCount());
+			Assert.assertEquals(3, map.getBoundaries().length);
+			Assert.assertEquals("key323", map.getBoundaries()[0]);
+			Assert.assertEquals(new ArrayList<String>(entries.keySet()), map.getCompletitions(""));
+			Assert.assertEquals(entries.get("key42"), map.get("key42"));
+			final List<String> expected = new ArrayList<String>();
+			for (final String key : entries.keySet()) {
+				if (key.startsWith("key5")) {
+					expected.add(key);
+				}
+			}
+			Assert.assertEquals(expected, map.getCompletitions("key5"));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsortedBoundaries() {
+		new ShardedTrieMap<String>(ConcurrencyJre.create(), null, "b", "a");
+	}
+
+}
@@ -0,0 +1,68 @@
+package delight.trie.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.TrieLocks;
+import delight.trie.TrieMap;
+
+public class TestStripedTrieMap {
+
+	@Test
+	public void testStripedLocks() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(),
+				TrieLocks.striped(ConcurrencyJre.create(), 8, 2));
+
+		map.put("a", "A");
+		map.put("ab", "AB");
+		map.put("abc", "ABC");
+		map.put("b/1", "B1");
+
+		Assert.assertEquals("A", map.get("a"));
+		Assert.assertEquals("ABC", map.get("abc"));
+		Assert.assertEquals(3, map.getSubValues("a").size());
+		Assert.assertEquals(4, map.size());
+		Assert.assertEquals("AB", map.remove("ab"));
+		Assert.assertEquals("ABC", map.getValueForBestMatchingKey("abcd"));
+		Assert.assertEquals(3, map.size());
+		Assert.assertEquals(1, map.removePrefix("ab"));
+		Assert.assertEquals(1, map.retainPrefix("b/"));
+		Assert.assertEquals("[b/1]", map.keySet().toString());
+	}
+
+	@Test
+	public void testParallelWriters() throws Exception {
+		final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create(),
+				TrieLocks.striped(ConcurrencyJre.create(), 16, 2));
+
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			threads.add(new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						final String key = "/" + thread + "/" + i;
+						map.put(key, i);
+						Assert.assertEquals(Integer.valueOf(i), map.get(key));
+					}
+				}
+			});
+		}
+		for (final Thread thread : threads) {
+			thread.start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		Assert.assertEquals(8000, map.size());
+		Assert.assertEquals(1000, map.getSubValues("/3/").size());
+	}
+
+}
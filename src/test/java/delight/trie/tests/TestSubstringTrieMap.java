@@ -0,0 +1,103 @@
+package delight.trie.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.SubstringTrieMap;
+
+public class TestSubstringTrieMap {
+
+	@Test
+	public void testKeysContaining() {
+		final SubstringTrieMap<Integer> map = new SubstringTrieMap<Integer>(ConcurrencyJre.create());
+
+		map.put("banana", 1);
+		map.put("bandana", 2);
+		map.put("cabana", 3);
+		map.put("nab", 4);
+
+		Assert.assertEquals("[banana, bandana, cabana]", sorted(map.keysContaining("ana")));
+		Assert.assertEquals("[banana, bandana, cabana, nab]", sorted(map.keysContaining("a")));
+		Assert.assertEquals("[cabana, nab]", sorted(map.keysContaining("ab")));
+		Assert.assertEquals("[bandana]", sorted(map.keysContaining("nd")));
+		Assert.assertEquals("[]", sorted(map.keysContaining("x")));
+		Assert.assertEquals("[]", sorted(map.keysContaining("bananas")));
+		Assert.assertEquals(4, map.keysContaining("").size());
+
+		Assert.assertEquals(3, map.put("cabana", 5).intValue());
+		Assert.assertEquals(5, map.get("cabana").intValue());
+		Assert.assertEquals("[bandana]", map.getCompletitions("band").toString());
+	}
+
+	@Test
+	public void testRemove() {
+		final SubstringTrieMap<Integer> map = new SubstringTrieMap<Integer>(ConcurrencyJre.create());
+
+		for (int i = 0; i < 100; i++) {
+			map.put("key" + i, i);
+		}
+		Assert.assertEquals(19, map.keysContaining("7").size());
+
+		// enough removals to rebuild the automaton
+		for (int i = 0; i < 90; i++) {
+			Assert.assertEquals(i, map.remove("key" + i).intValue());
+		}
+		Assert.assertNull(map.remove("key0"));
+		Assert.assertEquals(10, map.size());
+		Assert.assertEquals("[key97]", sorted(map.keysContaining("7")));
+		Assert.assertEquals(10, map.keysContaining("key9").size());
+
+		map.put("key7", 7);
+		Assert.assertEquals("[key7, key97]", sorted(map.keysContaining("7")));
+	}
+
+	@Test
+	public void testAgainstScan() {
+		final SubstringTrieMap<String> map = new SubstringTrieMap<String>(ConcurrencyJre.create());
+		final List<String> keys = new ArrayList<String>();
+		final Random random = new Random(7);
+		for (int i = 0; i < 500; i++) {
+			final String key = randomString(random, 1 + random.nextInt(12));
+			if (!map.containsKey(key)) {
+				keys.add(key);
+			}
+			map.put(key, key);
+			if (i % 5 == 4) {
+				final String removed = keys.remove(random.nextInt(keys.size()));
+				map.remove(removed);
+			}
+		}
+
+		for (int i = 0; i < 200; i++) {
+			final String fragment = randomString(random, 1 + random.nextInt(3));
+			final List<String> expected = new ArrayList<String>();
+			for (final String key : keys) {
+				if (key.contains(fragment)) {
+					expected.add(key);
+				}
+			}
+			Assert.assertEquals(sorted(expected), sorted(map.keysContaining(fragment)));
+		}
+	}
+
+	private static String randomString(final Random random, final int length) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append((char) ('a' + random.nextInt(4)));
+		}
+		return sb.toString();
+	}
+
+	private static String sorted(final List<String> keys) {
+		final List<String> copy = new ArrayList<String>(keys);
+		Collections.sort(copy);
+		return copy.toString();
+	}
+
+}
@@ -0,0 +1,84 @@
+package delight.trie.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.CharNormalizers;
+import delight.trie.SuffixTrieMap;
+
+public class TestSuffixTrieMap {
+
+	@Test
+	public void testLongestSuffixMatch() {
+		final SuffixTrieMap<String> map = new SuffixTrieMap<String>(ConcurrencyJre.create());
+
+		map.put("example.com", "example");
+		map.put("eu.example.com", "eu");
+		map.put("com", "com");
+
+		Assert.assertEquals("eu", map.longestSuffixMatch("www.eu.example.com"));
+		Assert.assertEquals("example", map.longestSuffixMatch("us.example.com"));
+		Assert.assertEquals("example", map.longestSuffixMatch("example.com"));
+		Assert.assertEquals("com", map.longestSuffixMatch("other.com"));
+		Assert.assertEquals("example", map.longestSuffixMatch(new StringBuilder("counterexample.com")));
+		Assert.assertNull(map.longestSuffixMatch("example.org"));
+		Assert.assertNull(map.longestSuffixMatch(""));
+
+		Assert.assertEquals("example", map.get("example.com"));
+		Assert.assertEquals("[com, eu.example.com, example.com]", sorted(map.getKeysEndingWith("")));
+		Assert.assertEquals("[eu.example.com, example.com]", sorted(map.getKeysEndingWith("example.com")));
+
+		Assert.assertEquals("eu", map.remove("eu.example.com"));
+		Assert.assertEquals("example", map.longestSuffixMatch("www.eu.example.com"));
+		Assert.assertEquals(2, map.size());
+	}
+
+	@Test
+	public void testContainsKey() {
+		final SuffixTrieMap<String> map = new SuffixTrieMap<String>(ConcurrencyJre.create(), '.');
+		map.put("example.com", "example");
+
+		Assert.assertTrue(map.containsKey("example.com"));
+		Assert.assertFalse(map.containsKey("com"));
+		Assert.assertFalse(map.containsKey("ample.com"));
+		Assert.assertNull(map.get("com"));
+	}
+
+	@Test
+	public void testLabelBoundaries() {
+		final SuffixTrieMap<String> map = new SuffixTrieMap<String>(ConcurrencyJre.create(), '.');
+
+		map.put("ample.com", "ample");
+		map.put("example.com", "example");
+		map.put("com", "com");
+
+		Assert.assertEquals("example", map.longestSuffixMatch("example.com"));
+		Assert.assertEquals("example", map.longestSuffixMatch("www.example.com"));
+		Assert.assertEquals("com", map.longestSuffixMatch("counterexample.com"));
+		Assert.assertEquals("ample", map.longestSuffixMatch("a.ample.com"));
+		Assert.assertNull(map.longestSuffixMatch("xcom"));
+	}
+
+	@Test
+	public void testCaseInsensitive() {
+		final SuffixTrieMap<String> map = new SuffixTrieMap<String>(ConcurrencyJre.create(), '.',
+				CharNormalizers.ASCII_CASE_INSENSITIVE);
+
+		map.put("Example.COM", "example");
+
+		Assert.assertEquals("example", map.longestSuffixMatch("WWW.example.com"));
+		Assert.assertEquals("example", map.get("example.com"));
+	}
+
+	private static String sorted(final List<String> keys) {
+		final List<String> copy = new ArrayList<String>(keys);
+		Collections.sort(copy);
+		return copy.toString();
+	}
+
+}
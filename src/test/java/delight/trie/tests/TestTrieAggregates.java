@@ -0,0 +1,119 @@
+package delight.trie.tests;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.TrieAggregate;
+import delight.trie.TrieAggregates;
+import delight.trie.TrieLocks;
+import delight.trie.TrieMap;
+
+public class TestTrieAggregates {
+
+	private static final TrieAggregates.Sum<Integer> SUM = new TrieAggregates.Sum<Integer>() {
+
+		@Override
+		protected long valueOf(final Integer value) {
+			return value.intValue();
+		}
+	};
+
+	@Test
+	public void testPrefixAggregates() {
+		final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create());
+		map.put("car", 3);
+		map.put("cart", 7);
+		final TrieAggregate<Integer, Integer> min = TrieAggregates.min();
+		final TrieAggregate<Integer, Integer> max = TrieAggregates.max();
+		map.addAggregate(SUM);
+		map.addAggregate(min);
+		map.addAggregate(max);
+		map.put("cat", 5);
+		map.put("dog", 11);
+
+		Assert.assertEquals(Long.valueOf(15), map.aggregate("ca", SUM));
+		Assert.assertEquals(Long.valueOf(26), map.aggregate("", SUM));
+		Assert.assertEquals(Integer.valueOf(3), map.aggregate("c", min));
+		Assert.assertEquals(Integer.valueOf(7), map.aggregate("car", max));
+		Assert.assertEquals(3, map.countPrefix("ca"));
+		Assert.assertEquals(0, map.countPrefix("x"));
+		Assert.assertEquals(Long.valueOf(0), map.aggregate("x", SUM));
+		Assert.assertNull(map.aggregate("x", min));
+
+		map.put("car", 1);
+		Assert.assertEquals(Long.valueOf(13), map.aggregate("ca", SUM));
+		Assert.assertEquals(Integer.valueOf(1), map.aggregate("", min));
+
+		map.remove("cart");
+		Assert.assertEquals(Integer.valueOf(5), map.aggregate("ca", max));
+		Assert.assertEquals(Long.valueOf(1), map.aggregate("car", SUM));
+
+		map.removePrefix("do");
+		Assert.assertEquals(Integer.valueOf(5), map.aggregate("", max));
+
+		map.put("dog", 2);
+		map.retainPrefix("ca");
+		Assert.assertEquals(Long.valueOf(6), map.aggregate("", SUM));
+		Assert.assertEquals(2, map.countPrefix(""));
+
+		map.clear();
+		Assert.assertEquals(Long.valueOf(0), map.aggregate("", SUM));
+		map.put("x", 4);
+		Assert.assertEquals(Long.valueOf(4), map.aggregate("", SUM));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownAggregate() {
+		new TrieMap<Integer>(ConcurrencyJre.create()).aggregate("", SUM);
+	}
+
+	@Test
+	public void testRandomAgainstEnumeration() {
+		final TrieMap<Integer> global = new TrieMap<Integer>(ConcurrencyJre.create());
+		final TrieMap<Integer> striped = new TrieMap<Integer>(ConcurrencyJre.create(),
+				TrieLocks.striped(ConcurrencyJre.create(), 8, 2));
+		global.addAggregate(SUM);
+		striped.addAggregate(SUM);
+		final List<TrieMap<Integer>> maps = Arrays.asList(global, striped);
+		final Random random = new Random(11);
+		for (int i = 0; i < 3000; i++) {
+			final String key = randomKey(random);
+			final int operation = random.nextInt(10);
+			for (final TrieMap<Integer> map : maps) {
+				if (operation < 6) {
+					map.put(key, i);
+				} else if (operation < 9) {
+					map.remove(key);
+				} else {
+					map.removePrefix(key.substring(0, 2));
+				}
+			}
+			if (i % 50 == 0) {
+				final String prefix = randomKey(random).substring(0, random.nextInt(4));
+				for (final TrieMap<Integer> map : maps) {
+					long sum = 0;
+					for (final Integer value : map.getSubValues(prefix)) {
+						sum += value.intValue();
+					}
+					Assert.assertEquals(Long.valueOf(sum), map.aggregate(prefix, SUM));
+					Assert.assertEquals(map.getSubValues(prefix).size(), map.countPrefix(prefix));
+				}
+			}
+		}
+	}
+
+	private static String randomKey(final Random random) {
+		final StringBuilder key = new StringBuilder();
+		final int length = 3 + random.nextInt(4);
+		for (int i = 0; i < length; i++) {
+			key.append((char) ('a' + random.nextInt(3)));
+		}
+		return key.toString();
+	}
+
+}
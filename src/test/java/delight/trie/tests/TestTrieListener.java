@@ -0,0 +1,266 @@
+package delight.trie.tests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.TrieChange;
+import delight.trie.TrieListener;
+import delight.trie.TrieMap;
+import delight.trie.jre.AsyncTrieListener;
+
+public class TestTrieListener {
+
+	private static final class Recorder implements TrieListener<Integer> {
+
+		private final List<String> events = new ArrayList<String>();
+
+		private long next = 1;
+
+		@Override
+		public synchronized void onChanges(final long firstSequence, final List<TrieChange<Integer>> changes) {
+			Assert.assertEquals(next, firstSequence);
+			next += changes.size();
+			for (final TrieChange<Integer> change : changes) {
+				events.add(change.toString());
+			}
+		}
+
+		private synchronized List<String> take() {
+			final List<String> result = new ArrayList<String>(events);
+			events.clear();
+			return result;
+		}
+	}
+
+	@Test
+	public void testAllMutatingPaths() {
+		final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create());
+		map.put("before", 0);
+		final Recorder recorder = new Recorder();
+		map.addListener(recorder);
+
+		map.put("a", 1);
+		map.put("a", 1);
+		map.put("a", 2);
+		map.add("ab", 3);
+		map.add("ab", 4);
+		map.forceAdd("ab", 5);
+		Assert.assertEquals("[ADDED a: null -> 1, CHANGED a: 1 -> 2, ADDED ab: null -> 3, CHANGED ab: 3 -> 5]",
+				recorder.take().toString());
+
+		final Map<String, Integer> entries = new HashMap<String, Integer>();
+		entries.put("b", 6);
+		map.putAll(entries);
+		for (final Map.Entry<String, Integer> entry : map.entrySet()) {
+			if (entry.getKey().equals("b")) {
+				entry.setValue(7);
+			}
+		}
+		map.prefixView("a").remove("ab");
+		map.remove("missing");
+		Assert.assertEquals("[ADDED b: null -> 6, CHANGED b: 6 -> 7, REMOVED ab: 5 -> null]",
+				recorder.take().toString());
+
+		map.put("ca", 8);
+		map.put("cb", 9);
+		Assert.assertEquals(2, map.removePrefix("c"));
+		Assert.assertEquals(2, map.retainPrefix("a"));
+		map.clear();
+		Assert.assertEquals("[ADDED ca: null -> 8, ADDED cb: null -> 9, REMOVED ca: 8 -> null, "
+				+ "REMOVED cb: 9 -> null, REMOVED b: 7 -> null, REMOVED before: 0 -> null, REMOVED a: 2 -> null]",
+				recorder.take().toString());
+
+		map.removeListener(recorder);
+		map.put("x", 1);
+		Assert.assertTrue(recorder.take().isEmpty());
+	}
+
+	@Test
+	public void testReverseIndex() {
+		final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create());
+		final Map<Integer, String> keysByValue = new HashMap<Integer, String>();
+		map.addListener(new TrieListener<Integer>() {
+
+			@Override
+			public void onChanges(final long firstSequence, final List<TrieChange<Integer>> changes) {
+				for (final TrieChange<Integer> change : changes) {
+					if (change.getOldValue() != null) {
+						keysByValue.remove(change.getOldValue());
+					}
+					if (change.getNewValue() != null) {
+						keysByValue.put(change.getNewValue(), change.getKey());
+					}
+				}
+			}
+		});
+		map.put("one", 1);
+		map.put("two", 2);
+		map.put("one", 11);
+		map.removePrefix("t");
+		Assert.assertEquals("{11=one}", keysByValue.toString());
+	}
+
+	@Test
+	public void testFailingListener() {
+		final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create());
+		map.addListener(new TrieListener<Integer>() {
+
+			@Override
+			public void onChanges(final long firstSequence, final List<TrieChange<Integer>> changes) {
+				throw new IllegalStateException("failed");
+			}
+		});
+		final Recorder recorder = new Recorder();
+		map.addListener(recorder);
+
+		map.put("a", 1);
+		map.put("ab", 2);
+		Assert.assertEquals(2, map.removePrefix("a"));
+		Assert.assertTrue(map.isEmpty());
+		Assert.assertEquals(0, map.hashCode());
+		Assert.assertEquals("[ADDED a: null -> 1, ADDED ab: null -> 2, REMOVED a: 1 -> null, REMOVED ab: 2 -> null]",
+				recorder.take().toString());
+		Assert.assertEquals(3, map.getListenerFailures());
+	}
+
+	@Test
+	public void testRejectedDelivery() {
+		final List<Long> firsts = new ArrayList<Long>();
+		final boolean[] reject = { true };
+		final AsyncTrieListener<Integer> async = new AsyncTrieListener<Integer>(new TrieListener<Integer>() {
+
+			@Override
+			public void onChanges(final long firstSequence, final List<TrieChange<Integer>> changes) {
+				firsts.add(firstSequence);
+			}
+		}, new Executor() {
+
+			@Override
+			public void execute(final Runnable command) {
+				if (reject[0]) {
+					throw new RejectedExecutionException();
+				}
+				command.run();
+			}
+		}, 10);
+		final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create());
+		map.addListener(async);
+
+		map.put("a", 1);
+		Assert.assertEquals(1, async.getDropped());
+		Assert.assertEquals(0, async.getQueued());
+
+		// the next change is delivered rather than waiting for a drain which
+		// never runs
+		reject[0] = false;
+		map.put("b", 2);
+		Assert.assertEquals("[2]", firsts.toString());
+		Assert.assertEquals(0, map.getListenerFailures());
+	}
+
+	@Test
+	public void testFailedDeliveryRestartsDrain() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final CountDownLatch entered = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			final CountDownLatch delivered = new CountDownLatch(1);
+			final List<Long> firsts = new ArrayList<Long>();
+			final AsyncTrieListener<Integer> async = new AsyncTrieListener<Integer>(new TrieListener<Integer>() {
+
+				@Override
+				public void onChanges(final long firstSequence, final List<TrieChange<Integer>> changes) {
+					if (firstSequence == 1) {
+						entered.countDown();
+						try {
+							release.await();
+						} catch (final InterruptedException e) {
+							throw new IllegalStateException(e);
+						}
+						throw new IllegalStateException("failed");
+					}
+					synchronized (firsts) {
+						firsts.add(firstSequence);
+					}
+					delivered.countDown();
+				}
+			}, executor, 10);
+			final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create());
+			map.addListener(async);
+
+			map.put("a", 1);
+			Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+			// queued while the failing drain runs, no further writes follow
+			map.put("b", 2);
+			release.countDown();
+
+			Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+			synchronized (firsts) {
+				Assert.assertEquals("[2]", firsts.toString());
+			}
+			Assert.assertEquals(1, async.getDropped());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testAsyncDelivery() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final CountDownLatch entered = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			final List<Long> firsts = new ArrayList<Long>();
+			final List<Integer> sizes = new ArrayList<Integer>();
+			final AsyncTrieListener<Integer> async = new AsyncTrieListener<Integer>(new TrieListener<Integer>() {
+
+				@Override
+				public void onChanges(final long firstSequence, final List<TrieChange<Integer>> changes) {
+					entered.countDown();
+					try {
+						release.await();
+					} catch (final InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+					synchronized (firsts) {
+						firsts.add(firstSequence);
+						sizes.add(changes.size());
+					}
+				}
+			}, executor, 3);
+			final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create());
+			map.addListener(async);
+
+			// the first change blocks the listener, the queue fills up
+			map.put("k0", 0);
+			Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+			for (int i = 1; i < 6; i++) {
+				map.put("k" + i, i);
+			}
+			Assert.assertEquals(3, async.getDropped());
+			release.countDown();
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+			// the first change alone, then the two queued ones together
+			Assert.assertEquals("[1, 2]", firsts.toString());
+			Assert.assertEquals("[1, 2]", sizes.toString());
+			Assert.assertEquals(0, async.getQueued());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package delight.trie.tests;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.Concurrency;
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.CharNormalizers;
+import delight.trie.TrieLocks;
+import delight.trie.TrieMap;
+
+public class TestTrieMapEquality {
+
+	@Test
+	public void testHashCodeFollowsMapContract() {
+		final Concurrency conn = ConcurrencyJre.create();
+		assertHashTracked(new TrieMap<Integer>(conn));
+		assertHashTracked(new TrieMap<Integer>(conn, TrieLocks.striped(conn, 8, 2)));
+	}
+
+	@Test
+	public void testEquals() {
+		final Concurrency conn = ConcurrencyJre.create();
+		final TrieMap<Integer> a = new TrieMap<Integer>(conn);
+		final TrieMap<Integer> b = new TrieMap<Integer>(conn, TrieLocks.striped(conn, 4, 1));
+
+		a.put("one", 1);
+		a.put("two", 2);
+		b.put("two", 2);
+		Assert.assertFalse(a.equals(b));
+
+		b.put("one", 1);
+		Assert.assertEquals(a, b);
+		Assert.assertEquals(a.hashCode(), b.hashCode());
+
+		b.put("one", 11);
+		Assert.assertFalse(a.equals(b));
+		b.put("one", 1);
+		Assert.assertEquals(a, b);
+
+		Assert.assertEquals(a.union(b), a);
+		Assert.assertEquals(a.union(b).hashCode(), a.hashCode());
+		Assert.assertEquals(new HashMap<String, Integer>(a).hashCode(), a.intersect(b).hashCode());
+		Assert.assertEquals(0, a.subtract(b).hashCode());
+	}
+
+	@Test
+	public void testEqualsIsSymmetricWithOtherMaps() {
+		final TrieMap<String> trieMap = new TrieMap<String>(ConcurrencyJre.create());
+		final Map<String, String> hashMap = new HashMap<String, String>();
+		trieMap.put("a", "1");
+		hashMap.put("a", "1");
+		Assert.assertEquals(hashMap.hashCode(), trieMap.hashCode());
+		Assert.assertTrue(hashMap.equals(trieMap));
+		Assert.assertTrue(trieMap.equals(hashMap));
+		Assert.assertTrue(trieMap.equals(new TreeMap<String, String>(hashMap)));
+
+		hashMap.put("a", "2");
+		Assert.assertFalse(hashMap.equals(trieMap));
+		Assert.assertFalse(trieMap.equals(hashMap));
+		hashMap.put("a", "1");
+		hashMap.put("b", "1");
+		Assert.assertFalse(trieMap.equals(hashMap));
+		Assert.assertFalse(trieMap.equals(new TreeMap<Integer, String>()));
+
+		final TrieMap<String> normalized = new TrieMap<String>(ConcurrencyJre.create(),
+				CharNormalizers.CASE_INSENSITIVE);
+		normalized.put("Content-Type", "text");
+		final Map<String, String> spelled = new HashMap<String, String>();
+		spelled.put("Content-Type", "text");
+		Assert.assertTrue(normalized.equals(spelled));
+		Assert.assertTrue(spelled.equals(normalized));
+	}
+
+	@Test
+	public void testNormalizedKeys() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(), CharNormalizers.CASE_INSENSITIVE);
+		final Map<String, String> expected = new HashMap<String, String>();
+
+		map.put("Content-Type", "a");
+		map.put("content-type", "b");
+		expected.put("Content-Type", "b");
+		Assert.assertEquals(expected.hashCode(), map.hashCode());
+
+		map.remove("CONTENT-TYPE");
+		Assert.assertEquals(0, map.hashCode());
+	}
+
+	@Test
+	public void testLongKeys() {
+		final Concurrency conn = ConcurrencyJre.create();
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		final TrieMap<String> a = new TrieMap<String>(conn);
+		final TrieMap<String> b = new TrieMap<String>(conn);
+		a.put(sb.toString(), "x");
+		b.put(sb.toString(), "x");
+
+		Assert.assertEquals(sb.toString().hashCode() ^ "x".hashCode(), a.hashCode());
+		Assert.assertEquals(a, b);
+	}
+
+	private static void assertHashTracked(final TrieMap<Integer> map) {
+		final Map<String, Integer> expected = new HashMap<String, Integer>();
+		final Random random = new Random(3);
+		for (int i = 0; i < 2000; i++) {
+			final String key = Integer.toString(random.nextInt(500), 7);
+			final int action = random.nextInt(10);
+			if (action < 6) {
+				map.put(key, i);
+				expected.put(key, i);
+			} else if (action < 9) {
+				map.remove(key);
+				expected.remove(key);
+			} else {
+				final String prefix = key.substring(0, 1 + random.nextInt(key.length()));
+				map.removePrefix(prefix);
+				for (final String existing : new HashMap<String, Integer>(expected).keySet()) {
+					if (existing.startsWith(prefix)) {
+						expected.remove(existing);
+					}
+				}
+			}
+			Assert.assertEquals(expected.hashCode(), map.hashCode());
+		}
+		Assert.assertEquals(expected.size(), map.size());
+
+		map.retainPrefix("1");
+		for (final String existing : new HashMap<String, Integer>(expected).keySet()) {
+			if (!existing.startsWith("1")) {
+				expected.remove(existing);
+			}
+		}
+		Assert.assertEquals(expected.hashCode(), map.hashCode());
+	}
+
+}
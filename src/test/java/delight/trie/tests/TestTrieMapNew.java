@@ -32,4 +32,44 @@ public class TestTrieMapNew {
 		
 	}
 	
+	@Test
+	public void testRemovePrefix() throws Exception {
+		TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create());
+		map.put("tenant1/a", "A");
+		map.put("tenant1/a/b", "B");
+		map.put("tenant1", "T");
+		map.put("tenant2/a", "C");
+		
+		Assert.assertEquals(4, map.size());
+		Assert.assertEquals(2, map.removePrefix("tenant1/"));
+		Assert.assertEquals(2, map.size());
+		Assert.assertEquals("T", map.get("tenant1"));
+		Assert.assertFalse(map.containsPrefix("tenant1/"));
+		Assert.assertEquals(0, map.removePrefix("tenant3"));
+		
+		map.remove("tenant1");
+		Assert.assertFalse(map.containsPrefix("tenant1"));
+		Assert.assertEquals(1, map.size());
+		
+		Assert.assertEquals(1, map.removePrefix(""));
+		Assert.assertTrue(map.isEmpty());
+	}
+	
+	@Test
+	public void testRetainPrefix() throws Exception {
+		TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create());
+		map.put("t", "T");
+		map.put("tenant1/a", "A");
+		map.put("tenant1/b", "B");
+		map.put("tenant2/a", "C");
+		
+		Assert.assertEquals(2, map.retainPrefix("tenant1/"));
+		Assert.assertEquals(2, map.size());
+		Assert.assertEquals("[tenant1/a, tenant1/b]", map.keySet().toString());
+		
+		map.put("tenant2/a", "C");
+		Assert.assertEquals("C", map.get("tenant2/a"));
+		Assert.assertEquals(3, map.size());
+	}
+	
 }
@@ -0,0 +1,47 @@
+package delight.trie.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.CharNormalizers;
+import delight.trie.TrieLocks;
+import delight.trie.TrieMap;
+import delight.trie.TrieMetrics.Operation;
+import delight.trie.jre.StripedTrieMetrics;
+
+public class TestTrieMetrics {
+
+	@Test
+	public void testRecording() {
+		final StripedTrieMetrics metrics = new StripedTrieMetrics();
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(),
+				TrieLocks.global(ConcurrencyJre.create()), CharNormalizers.IDENTITY, metrics);
+
+		map.put("abc", "1");
+		map.add("abd", "2");
+		Assert.assertEquals("1", map.get("abc"));
+		Assert.assertNull(map.get("ab"));
+		Assert.assertNull(map.get("xyz"));
+		Assert.assertTrue(map.containsKey("ab"));
+		map.getCompletitions("a");
+		map.remove("abd");
+
+		Assert.assertEquals(2, metrics.count(Operation.PUT));
+		Assert.assertEquals(3, metrics.count(Operation.GET));
+		Assert.assertEquals(1, metrics.hits(Operation.GET));
+		Assert.assertEquals(2, metrics.misses(Operation.GET));
+		Assert.assertEquals(5.0 / 3, metrics.averageDepth(Operation.GET), 0.001);
+		Assert.assertEquals(1, metrics.hits(Operation.CONTAINS));
+		Assert.assertEquals(1, metrics.count(Operation.COMPLETIONS));
+		Assert.assertEquals(1, metrics.count(Operation.REMOVE));
+		Assert.assertEquals(3, metrics.lockWaits());
+		Assert.assertTrue(metrics.percentileNanos(Operation.GET, 99) > 0);
+		Assert.assertTrue(metrics.percentileNanos(Operation.GET, 50) <= metrics.percentileNanos(Operation.GET, 99));
+
+		metrics.reset();
+		Assert.assertEquals(0, metrics.count(Operation.GET));
+		Assert.assertEquals(0, metrics.percentileNanos(Operation.GET, 50));
+	}
+
+}
@@ -0,0 +1,100 @@
+package delight.trie.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.CharNormalizers;
+import delight.trie.TrieMap;
+import delight.trie.TriePattern;
+
+public class TestTriePattern {
+
+	@Test
+	public void testGlob() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create());
+		map.put("svc-a/prod/eu/config", "1");
+		map.put("svc-b/prod/us/config", "2");
+		map.put("svc-b/prod/usa/config", "3");
+		map.put("svc-c/test/eu/config", "4");
+		map.put("db/prod/eu/config", "5");
+
+		Assert.assertEquals("[svc-a/prod/eu/config, svc-b/prod/us/config]", keys(map.match("svc-*/prod/??/config")));
+		Assert.assertEquals("[svc-a/prod/eu/config, svc-c/test/eu/config]", keys(map.match("svc-[ac]/*")));
+		Assert.assertEquals("[svc-b/prod/us/config, svc-b/prod/usa/config]", keys(map.match("svc-[!a-a]/prod/*")));
+		Assert.assertEquals("[]", keys(map.match("svc-*/prod")));
+		Assert.assertEquals(5, count(map.match("*")));
+	}
+
+	@Test
+	public void testRegex() {
+		final TrieMap<Integer> map = new TrieMap<Integer>(ConcurrencyJre.create());
+		map.put("a", 1);
+		map.put("ab", 2);
+		map.put("abb", 3);
+		map.put("ac", 4);
+		map.put("a.b", 5);
+
+		Assert.assertEquals("[ab, abb]", keys(map.match(TriePattern.regex("ab+"))));
+		Assert.assertEquals("[a, ab]", keys(map.match(TriePattern.regex("ab?"))));
+		Assert.assertEquals("[a.b]", keys(map.match(TriePattern.regex("a\\.b"))));
+		Assert.assertEquals("[a.b, abb]", keys(map.match(TriePattern.regex("a.b"))));
+		Assert.assertEquals("[ab, ac]", keys(map.match(TriePattern.regex("a[^.]"))));
+	}
+
+	@Test
+	public void testMatches() {
+		Assert.assertTrue(TriePattern.glob("a*b*c").matches("aXXbYYc"));
+		Assert.assertFalse(TriePattern.glob("a*b*c").matches("aXXbYY"));
+		Assert.assertTrue(TriePattern.glob("\\*").matches("*"));
+		Assert.assertTrue(TriePattern.regex("x[0-9]*").matches("x0815"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedRegex() {
+		TriePattern.regex("(a|b)");
+	}
+
+	@Test
+	public void testNormalized() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(),
+				CharNormalizers.ASCII_CASE_INSENSITIVE);
+		map.put("Host-A", "1");
+
+		Assert.assertEquals("[Host-A]", keys(map.match("HOST-?")));
+	}
+
+	@Test
+	public void testRangeNormalized() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create(),
+				CharNormalizers.ASCII_CASE_INSENSITIVE);
+		map.put("Hello", "1");
+		map.put("1ello", "2");
+
+		Assert.assertEquals("[Hello]", keys(map.match("[A-Z]ello")));
+		Assert.assertEquals("[Hello]", keys(map.match("[H]ello")));
+		Assert.assertEquals("[1ello]", keys(map.match("[!A-Z]ello")));
+		Assert.assertEquals("[Hello]", keys(map.match(TriePattern.regex("[F-J]ELLO"))));
+	}
+
+	private static String keys(final Iterable<? extends Map.Entry<String, ?>> entries) {
+		final List<String> keys = new ArrayList<String>();
+		for (final Map.Entry<String, ?> entry : entries) {
+			keys.add(entry.getKey());
+		}
+		return keys.toString();
+	}
+
+	private static int count(final Iterable<?> entries) {
+		int count = 0;
+		for (final Object entry : entries) {
+			count++;
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,62 @@
+package delight.trie.tests;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import delight.concurrency.jre.ConcurrencyJre;
+import delight.trie.TrieAggregates;
+import delight.trie.TrieMap;
+import delight.trie.TrieStats;
+
+public class TestTrieStats {
+
+	@Test
+	public void testStats() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create());
+		map.put("abcd", "1");
+		map.put("abce", "2");
+		map.put("x", "3");
+
+		final TrieStats stats = map.stats();
+
+		// root, a, b, c, d, e, x
+		Assert.assertEquals(7, stats.nodeCount());
+		Assert.assertEquals(3, stats.entryCount());
+		Assert.assertEquals(4, stats.maxDepth());
+		// d, e and x are leaves, c and root have two children
+		Assert.assertArrayEquals(new long[] { 3, 2, 2 }, stats.fanOutHistogram());
+		Assert.assertArrayEquals(new long[] { 1, 2, 1, 1, 2 }, stats.depthHistogram());
+		// a and b form one chain
+		Assert.assertArrayEquals(new long[] { 0, 0, 1 }, stats.chainLengthHistogram());
+		Assert.assertEquals(0, stats.characterBytes());
+		Assert.assertEquals(7 * 48, stats.nodeBytes());
+		Assert.assertEquals(0, stats.aggregateBytes());
+		Assert.assertTrue(stats.estimatedBytes() > 7 * 48);
+	}
+
+	@Test
+	public void testAggregates() {
+		final TrieMap<String> map = new TrieMap<String>(ConcurrencyJre.create());
+		map.put("ab", "1");
+		map.put("ac", "2");
+		final long before = map.stats().estimatedBytes();
+
+		map.addAggregate(TrieAggregates.<String> count());
+		map.addAggregate(TrieAggregates.<String> max());
+		final TrieStats stats = map.stats();
+
+		// an array of two values in each of the four nodes
+		Assert.assertEquals(4 * 24, stats.aggregateBytes());
+		Assert.assertEquals(before + stats.aggregateBytes(), stats.estimatedBytes());
+	}
+
+	@Test
+	public void testEmpty() {
+		final TrieStats stats = new TrieMap<String>(ConcurrencyJre.create()).stats();
+
+		Assert.assertEquals(1, stats.nodeCount());
+		Assert.assertEquals(0, stats.entryCount());
+		Assert.assertEquals(0, stats.chainLengthHistogram().length);
+	}
+
+}